@@ -0,0 +1,224 @@
+// Importamos las clases de Swing para medir el renderizador y las colecciones que usa el banco de pruebas.
+import javax.swing.JTable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/*
+ * =================================================================================
+ * BANCO DE PRUEBAS DE RENDIMIENTO DE LA CIRCULACIÓN
+ * Mide cuánto cuesta cada operación frecuente (buscar un libro por código, iniciar
+ * sesión, prestar y devolver, recorrer todos los usuarios, refrescar la tabla,
+ * abrir una página del inventario ordenado y pintar la celda de Estado) para distintos tamaños de catálogo y de usuarios, de
+ * modo que una mejora o un retroceso se vea en números y no solo "a ojo". También
+ * muestra cuántos bytes de memoria ocupa cada usuario registrado.
+ *
+ * Funciona como un pequeño JMH: primero calibra cuántas operaciones caben en cada
+ * ronda, calienta el JIT con varias rondas que no cuentan y luego mide varias rondas
+ * y muestra la mediana y el mínimo en nanosegundos por operación. Los resultados se
+ * acumulan en un "sumidero" para que el JIT no pueda eliminar el trabajo medido.
+ *
+ * Uso:  java BenchmarkCirculacion [libros] [usuarios]
+ *       (listas separadas por comas; por defecto "10,1000,100000,1000000" y "100,10000")
+ * Para un millón de libros conviene dar memoria suficiente, por ejemplo -Xmx2g.
+ * =================================================================================
+ */
+
+// --- Clase BenchmarkCirculacion: Mide las rutas calientes de la circulación según el tamaño de los datos. ---
+class BenchmarkCirculacion {
+    private static final int RONDAS_CALENTAMIENTO = 5;      // Rondas que no cuentan (dejan compilar al JIT).
+    private static final int RONDAS_MEDIDAS = 7;            // Rondas que se miden.
+    private static final long NANOS_POR_RONDA = 100_000_000L; // Cada ronda dura unos 100 ms.
+    private static final int FILAS_VISIBLES = 30;           // Filas que se ven a la vez en la tabla del inventario.
+
+    private static long sumidero; // Acumula los resultados para que el trabajo medido no se descarte.
+
+    // Una operación a medir: recibe el número de iteración y devuelve algo que se suma al sumidero.
+    @FunctionalInterface
+    interface Operacion {
+        long ejecutar(int iteracion);
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", System.getProperty("java.awt.headless", "true")); // Sin ventana.
+        // Las claves de los usuarios sintéticos se cifran con pocas iteraciones: con las de verdad, preparar 10.000
+        // usuarios tardaría minutos. El login que se mide es el de la caché de credenciales, que no depende de ellas.
+        System.setProperty("biblioteca.clave.iteraciones", System.getProperty("biblioteca.clave.iteraciones", "1000"));
+        int[] tamanosCatalogo = leerLista(args.length > 0 ? args[0] : "10,1000,100000,1000000");
+        int[] tamanosUsuarios = leerLista(args.length > 1 ? args[1] : "100,10000");
+
+        System.out.printf(Locale.ROOT, "%-28s %10s %10s %14s %14s%n", "operacion", "libros", "usuarios", "ns/op (med)", "ns/op (min)");
+        for (int libros : tamanosCatalogo) {
+            for (int usuarios : tamanosUsuarios) {
+                medirEscenario(libros, usuarios);
+            }
+        }
+        System.out.println("(sumidero " + sumidero + ")");
+    }
+
+    // Construye un catálogo y un repositorio de usuarios del tamaño indicado y mide cada operación sobre ellos.
+    private static void medirEscenario(int numLibros, int numUsuarios) {
+        RepositorioLibros catalogo = new RepositorioLibros(numLibros);
+        String[] codigos = new String[numLibros];
+        for (int i = 0; i < numLibros; i++) {
+            codigos[i] = String.format(Locale.ROOT, "LIB%07d", i);
+            catalogo.agregar(new Libro(codigos[i], "Título número " + i, "Autor " + (i % 5000)));
+        }
+        // Los usuarios se crean con textos nuevos en cada campo, como si vinieran de un fichero o del formulario.
+        long memoriaAntes = memoriaUsada();
+        RepositorioUsuarios usuarios = new RepositorioUsuarios();
+        Usuario[] todos = new Usuario[numUsuarios];
+        for (int j = 0; j < numUsuarios; j++) {
+            todos[j] = new Usuario("Usuario " + j, "ID" + j, String.format(Locale.ROOT, "%02d/%02d/%d", 1 + j % 28, 1 + j % 12, 1990 + j % 15),
+                    18 + j % 40, new String(j % 2 == 0 ? "F" : "M"), "u" + j + "@test.com", "usuario" + j, "clave" + j);
+            usuarios.registrar(todos[j]);
+        }
+        System.out.printf(Locale.ROOT, "%-28s %10d %10d %14d%n", "bytes/usuario", numLibros, numUsuarios,
+                (memoriaUsada() - memoriaAntes) / numUsuarios);
+        ServicioPrestamos servicio = new ServicioPrestamos(catalogo, usuarios, null); // Sin persistencia: solo la lógica.
+        GestorSesiones sesiones = new GestorSesiones(usuarios, servicio.getReloj());
+
+        // Secuencias pseudoaleatorias fijas, para que todas las ejecuciones hagan exactamente el mismo trabajo.
+        int[] librosAleatorios = aleatorios(1 << 16, numLibros, 1);
+        int[] usuariosAleatorios = aleatorios(1 << 16, numUsuarios, 2);
+        int mascara = (1 << 16) - 1;
+
+        // 1. Buscar un libro por código (acierto y fallo).
+        medir("buscarLibroPorCodigo", numLibros, numUsuarios,
+                i -> catalogo.buscarPorCodigo(codigos[librosAleatorios[i & mascara]]) != null ? 1 : 0);
+        medir("buscarLibroPorCodigo (fallo)", numLibros, numUsuarios,
+                i -> catalogo.buscarPorCodigo("NO" + (i & mascara)) != null ? 1 : 0);
+
+        // 2. Iniciar sesión con un usuario existente (tras el calentamiento, sus credenciales están en la caché).
+        medir("login", numLibros, numUsuarios, i -> {
+            int j = usuariosAleatorios[i & mascara];
+            return sesiones.autenticar("usuario" + j, "clave" + j) != null ? 1 : 0;
+        });
+
+        // 3. Recorrer todos los usuarios (como los informes o las invariantes del simulador); ns por recorrido completo.
+        medir("recorrerUsuarios", numLibros, numUsuarios, i -> {
+            long total = 0;
+            for (Usuario u : usuarios.todos()) {
+                total += u.getNumeroPrestamos() + (u.isEstaVetado() ? 1 : 0) + u.getEdad();
+            }
+            return total;
+        });
+
+        // 4. Prestar y devolver (el ciclo completo deja el estado como estaba).
+        medir("prestar + devolver", numLibros, numUsuarios, i -> {
+            Usuario u = todos[usuariosAleatorios[i & mascara]];
+            ResultadoCirculacion prestamo = servicio.prestar(u, codigos[librosAleatorios[i & mascara]]);
+            if (prestamo.getTipo() == ResultadoCirculacion.Tipo.PRESTAMO_REALIZADO) {
+                servicio.devolver(u);
+            }
+            return prestamo.getTipo().ordinal();
+        });
+
+        // 5. Refrescar la tabla: avisar de que cambiaron los datos y leer las celdas de las filas visibles.
+        ModeloTablaInventario modelo = new ModeloTablaInventario(catalogo);
+        JTable tabla = new JTable(modelo);
+        medir("refrescoTabla", numLibros, numUsuarios, i -> {
+            modelo.filtrar(null);
+            int primera = librosAleatorios[i & mascara];
+            int ultima = Math.min(modelo.getRowCount(), primera + FILAS_VISIBLES);
+            long total = 0;
+            for (int fila = primera; fila < ultima; fila++) {
+                for (int columna = 0; columna < modelo.getColumnCount(); columna++) {
+                    total += modelo.getValueAt(fila, columna).hashCode();
+                }
+            }
+            return total;
+        });
+
+        // 6. Abrir una página cualquiera del inventario ordenado por título y leer sus filas visibles. Los órdenes
+        //    se calculan una sola vez (al arrancar, en segundo plano), así que quedan fuera de la medida.
+        OrdenCatalogo orden = new OrdenCatalogo(catalogo);
+        orden.sincronizar();
+        ModeloTablaInventario modeloOrdenado = new ModeloTablaInventario(catalogo, orden);
+        modeloOrdenado.ordenar(OrdenCatalogo.Criterio.TITULO, false);
+        medir("paginaOrdenada", numLibros, numUsuarios, i -> {
+            modeloOrdenado.irAPagina(librosAleatorios[i & mascara] / ModeloTablaInventario.FILAS_POR_PAGINA);
+            int ultima = Math.min(modeloOrdenado.getRowCount(), FILAS_VISIBLES);
+            long total = 0;
+            for (int fila = 0; fila < ultima; fila++) {
+                total += modeloOrdenado.getValueAt(fila, 1).hashCode();
+            }
+            return total;
+        });
+
+        // 7. Pintar la celda de Estado, con un usuario que tiene un libro prestado.
+        Usuario lector = todos[0];
+        servicio.prestar(lector, codigos[0]);
+        BibliotecaGUI.PrestamoCellRenderer renderizador = new BibliotecaGUI.PrestamoCellRenderer();
+        renderizador.setPosicionesResaltadas(catalogo.posicionDe(lector.getPrestamoActual().getCodigoLibro()));
+        medir("PrestamoCellRenderer", numLibros, numUsuarios, i -> {
+            int fila = librosAleatorios[i & mascara];
+            return renderizador.getTableCellRendererComponent(tabla, modelo.getValueAt(fila, 3), false, false, fila, 3)
+                    .getBackground().getRGB();
+        });
+        servicio.devolver(lector);
+    }
+
+    // Calibra, calienta y mide una operación; imprime la mediana y el mínimo de ns por operación.
+    private static void medir(String nombre, int numLibros, int numUsuarios, Operacion operacion) {
+        // Calibración: se duplica el número de operaciones hasta que una ronda dure lo previsto.
+        int porRonda = 1;
+        while (porRonda < (1 << 26) && ejecutarRonda(operacion, porRonda) < NANOS_POR_RONDA) {
+            porRonda *= 2;
+        }
+        for (int r = 0; r < RONDAS_CALENTAMIENTO; r++) {
+            ejecutarRonda(operacion, porRonda);
+        }
+        double[] nanosPorOperacion = new double[RONDAS_MEDIDAS];
+        for (int r = 0; r < RONDAS_MEDIDAS; r++) {
+            nanosPorOperacion[r] = (double) ejecutarRonda(operacion, porRonda) / porRonda;
+        }
+        Arrays.sort(nanosPorOperacion);
+        System.out.printf(Locale.ROOT, "%-28s %10d %10d %14.1f %14.1f%n", nombre, numLibros, numUsuarios,
+                nanosPorOperacion[RONDAS_MEDIDAS / 2], nanosPorOperacion[0]);
+    }
+
+    // Ejecuta una ronda de "n" operaciones y devuelve cuántos nanosegundos tardó.
+    private static long ejecutarRonda(Operacion operacion, int n) {
+        long acumulado = 0;
+        long inicio = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            acumulado += operacion.ejecutar(i);
+        }
+        long duracion = System.nanoTime() - inicio;
+        sumidero += acumulado;
+        return duracion;
+    }
+
+    // Memoria ocupada del montón tras pedir varias recolecciones (aproximada, pero estable con miles de objetos).
+    private static long memoriaUsada() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Genera "cantidad" índices pseudoaleatorios en [0, limite) con una semilla fija.
+    private static int[] aleatorios(int cantidad, int limite, long semilla) {
+        SplittableRandom azar = new SplittableRandom(semilla);
+        int[] resultado = new int[cantidad];
+        for (int i = 0; i < cantidad; i++) {
+            resultado[i] = azar.nextInt(limite);
+        }
+        return resultado;
+    }
+
+    // Convierte "10,1000,100000" en un array de enteros.
+    private static int[] leerLista(String texto) {
+        List<Integer> valores = new ArrayList<>();
+        for (String parte : texto.split(",")) {
+            if (!parte.trim().isEmpty()) {
+                valores.add(Integer.parseInt(parte.trim()));
+            }
+        }
+        return valores.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -1,12 +1,27 @@
 // Importamos las clases necesarias para la interfaz gráfica (swing), manejo de tablas, layouts, eventos, fechas y listas.
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 /*
  * =================================================================================
@@ -22,7 +37,7 @@ class Libro {
     private String codigo;       // Identificador único del libro (ej: "LIB001").
     private String titulo;       // Título del libro.
     private String autor;        // Autor del libro.
-    private boolean estaPrestado; // Estado que indica si está disponible o no.
+    private volatile boolean estaPrestado; // Estado que indica si está disponible o no (volatile: se lee desde varios hilos).
 
     // Constructor: Se ejecuta al crear un nuevo objeto Libro.
     public Libro(String codigo, String titulo, String autor) {
@@ -43,7 +58,12 @@ class Libro {
 
     // Método para obtener el estado como un texto legible ("Disponible" o "Prestado").
     public String getEstado() {
-        return estaPrestado ? "Prestado" : "Disponible"; // Operador ternario: si estaPrestado es true, devuelve "Prestado", si no, "Disponible".
+        return textoEstado(isEstaPrestado());
+    }
+
+    // Texto del estado para un valor de "prestado" (siempre las mismas dos cadenas, sin crear objetos).
+    static String textoEstado(boolean prestado) {
+        return prestado ? "Prestado" : "Disponible"; // Operador ternario: si está prestado, devuelve "Prestado", si no, "Disponible".
     }
 }
 
@@ -53,71 +73,217 @@ class Prestamo {
     private String idUsuario;        // La identificación del usuario que lo pidió.
     private LocalDate fechaPrestamo; // La fecha exacta en que se hizo el préstamo.
     private LocalDate fechaDevolucion; // La fecha límite para devolver el libro.
+    private volatile boolean vencido;  // Lo marca el planificador cuando pasa la fecha límite sin devolverlo.
+    private int registroHistorial = -1; // Registro de este préstamo en el historial empaquetado (-1 si no tiene).
 
-    // Constructor: Crea un nuevo préstamo.
+    // Constructor: Crea un nuevo préstamo con la fecha actual del sistema.
     public Prestamo(String codigoLibro, String idUsuario) {
+        this(codigoLibro, idUsuario, LocalDate.now()); // Captura la fecha actual del sistema.
+    }
+
+    // Constructor: Crea un nuevo préstamo con una fecha concreta (la del reloj del servicio).
+    public Prestamo(String codigoLibro, String idUsuario, LocalDate fechaPrestamo) {
+        this(codigoLibro, idUsuario, fechaPrestamo, fechaPrestamo.plusDays(7)); // Calcula la fecha de devolución sumando 7 días a la fecha del préstamo.
+    }
+
+    // Constructor usado al recuperar un préstamo guardado en disco: las fechas se conservan tal cual.
+    public Prestamo(String codigoLibro, String idUsuario, LocalDate fechaPrestamo, LocalDate fechaDevolucion) {
         this.codigoLibro = codigoLibro;
         this.idUsuario = idUsuario;
-        this.fechaPrestamo = LocalDate.now(); // Captura la fecha actual del sistema.
-        this.fechaDevolucion = this.fechaPrestamo.plusDays(7); // Calcula la fecha de devolución sumando 7 días a la fecha del préstamo.
+        this.fechaPrestamo = fechaPrestamo;
+        this.fechaDevolucion = fechaDevolucion;
     }
 
     // Getters para acceder a los datos del préstamo.
     public String getCodigoLibro() { return codigoLibro; }
+    public String getIdUsuario() { return idUsuario; }
+    public LocalDate getFechaPrestamo() { return fechaPrestamo; }
     public LocalDate getFechaDevolucion() { return fechaDevolucion; }
+    public boolean isVencido() { return vencido; }
+    public void marcarVencido() { this.vencido = true; }
+    public int getRegistroHistorial() { return registroHistorial; }
+    public void setRegistroHistorial(int registroHistorial) { this.registroHistorial = registroHistorial; }
 }
 
 // --- Clase Usuario: Modela a un usuario de la biblioteca. ---
+// Con cientos de miles de cuentas, cada byte por usuario cuenta: los textos que se repiten (género, fecha de
+// nacimiento) se comparten entre usuarios, la fecha de fin del veto es un epoch day, el veto es un bit y los
+// préstamos, reservas y avisos son arrays que se copian al modificarse (vacíos y compartidos mientras no hay nada).
 class Usuario {
+    private static final Prestamo[] SIN_PRESTAMOS = new Prestamo[0];
+    private static final String[] SIN_TEXTOS = new String[0];
+    private static final TextosRepetidos TEXTOS_REPETIDOS = new TextosRepetidos(1 << 16);
+    private static final int SIN_VETO = Integer.MIN_VALUE; // Valor de diaFinVeto cuando no hay fecha de fin de veto.
+    private static final byte VETADO = 1;                  // Bit de "banderas": castigado por una devolución tardía.
+
     // Atributos para los datos personales y de la cuenta.
-    private String nombreCompleto, numeroIdentificacion, fechaNacimiento, genero, correoElectronico, username, password;
+    private String nombreCompleto, numeroIdentificacion, correoElectronico, username; // Propios de cada usuario.
+    private String fechaNacimiento, genero; // Texto libre, pero muy repetido: se comparte la misma cadena entre usuarios.
+    private ClaveCifrada clave; // La contraseña, con sal y PBKDF2 (nunca se guarda en claro).
     private int edad, librosPedidosHistorial;
 
     // Atributos para gestionar el estado actual del usuario.
-    private boolean tieneLibroPrestado; // Indica si el usuario ya tiene un libro en su poder.
-    private boolean estaVetado;         // Indica si el usuario está castigado por una devolución tardía.
-    private LocalDate fechaFinVeto;     // Guarda la fecha en que termina el castigo.
-    private Prestamo prestamoActual;    // Guarda el objeto del préstamo activo.
-
-    // Constructor: Inicializa un nuevo usuario con todos sus datos.
+    private byte banderas;                // Bits de estado (VETADO).
+    private int diaFinVeto = SIN_VETO;    // Fecha en que termina el castigo (epoch day), o SIN_VETO.
+    // Préstamos activos, del más antiguo al más reciente. Son pocos y se leen desde varios hilos (ventana, API),
+    // así que se copian al modificarse y se leen sin cerrojos.
+    private volatile Prestamo[] prestamos = SIN_PRESTAMOS;
+    private volatile String[] reservas = SIN_TEXTOS; // Códigos de los libros que está esperando.
+    private volatile String[] avisos = SIN_TEXTOS;   // Avisos pendientes de mostrar (p. ej. una reserva entregada).
+    private int numero = -1;                  // Número interno (orden de registro); lo asigna el repositorio.
+    private volatile int ultimoRegistroHistorial = -1; // Último préstamo del usuario en el historial empaquetado, o -1 (volatile: se lee sin cerrojo).
+
+    // Constructor: Inicializa un nuevo usuario con todos sus datos. La contraseña se cifra aquí (tarda unos milisegundos).
     public Usuario(String nombreCompleto, String numeroIdentificacion, String fechaNacimiento, int edad, String genero, String correoElectronico, String username, String password) {
+        this(nombreCompleto, numeroIdentificacion, fechaNacimiento, edad, genero, correoElectronico, username, ClaveCifrada.cifrar(password));
+    }
+
+    // Constructor con la contraseña ya cifrada (al recuperar los datos del disco).
+    public Usuario(String nombreCompleto, String numeroIdentificacion, String fechaNacimiento, int edad, String genero, String correoElectronico, String username, ClaveCifrada clave) {
         // Asignación de los parámetros recibidos a los atributos del objeto.
         this.nombreCompleto = nombreCompleto;
         this.numeroIdentificacion = numeroIdentificacion;
-        this.fechaNacimiento = fechaNacimiento;
+        this.fechaNacimiento = TEXTOS_REPETIDOS.compartir(fechaNacimiento);
         this.edad = edad;
-        this.genero = genero;
+        this.genero = TEXTOS_REPETIDOS.compartir(genero);
         this.correoElectronico = correoElectronico;
         this.username = username;
-        this.password = password;
+        this.clave = clave;
 
         // Inicialización de los valores de estado por defecto para un usuario nuevo.
         this.librosPedidosHistorial = 0;
-        this.tieneLibroPrestado = false;
-        this.estaVetado = false;
     }
 
     // Getters y Setters para interactuar con los atributos del usuario.
     public String getUsername() { return username; }
-    public String getPassword() { return password; }
+    public ClaveCifrada getClave() { return clave; }
     public String getNumeroIdentificacion() { return numeroIdentificacion; }
-    public boolean tieneLibroPrestado() { return tieneLibroPrestado; }
-    public void setTieneLibroPrestado(boolean tieneLibroPrestado) { this.tieneLibroPrestado = tieneLibroPrestado; }
-    public Prestamo getPrestamoActual() { return prestamoActual; }
-    public void setPrestamoActual(Prestamo prestamoActual) { this.prestamoActual = prestamoActual; }
-    public boolean isEstaVetado() { return estaVetado; }
-    public void setEstaVetado(boolean estaVetado) { this.estaVetado = estaVetado; }
-    public LocalDate getFechaFinVeto() { return fechaFinVeto; }
-    public void setFechaFinVeto(LocalDate fechaFinVeto) { this.fechaFinVeto = fechaFinVeto; }
+    public String getNombreCompleto() { return nombreCompleto; }
+    public String getFechaNacimiento() { return fechaNacimiento; }
+    public int getEdad() { return edad; }
+    public String getGenero() { return genero; }
+    public String getCorreoElectronico() { return correoElectronico; }
+    public int getLibrosPedidosHistorial() { return librosPedidosHistorial; }
+    public void setLibrosPedidosHistorial(int librosPedidosHistorial) { this.librosPedidosHistorial = librosPedidosHistorial; }
+    public boolean tieneLibroPrestado() { return prestamos.length > 0; }
+    public int getNumero() { return numero; }
+    public void setNumero(int numero) { this.numero = numero; }
+    public int getUltimoRegistroHistorial() { return ultimoRegistroHistorial; }
+    public void setUltimoRegistroHistorial(int ultimoRegistroHistorial) { this.ultimoRegistroHistorial = ultimoRegistroHistorial; }
+
+    // --- Préstamos activos ---
+
+    // Préstamos activos (solo lectura), del más antiguo al más reciente. Es una foto: no cambia si después se presta o devuelve.
+    public List<Prestamo> getPrestamos() { return Collections.unmodifiableList(Arrays.asList(prestamos)); }
+    public int getNumeroPrestamos() { return prestamos.length; }
+
+    // El préstamo activo más antiguo, o null si no tiene ninguno.
+    public Prestamo getPrestamoActual() {
+        Prestamo[] actuales = prestamos;
+        return actuales.length > 0 ? actuales[0] : null;
+    }
+
+    // Busca el préstamo activo de un libro concreto. Devuelve null si el usuario no lo tiene.
+    public Prestamo buscarPrestamo(String codigoLibro) {
+        for (Prestamo p : prestamos) {
+            if (p.getCodigoLibro().equals(codigoLibro)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    // Indica si un préstamo concreto sigue activo.
+    public boolean tienePrestamo(Prestamo prestamo) {
+        for (Prestamo p : prestamos) {
+            if (p == prestamo) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void agregarPrestamo(Prestamo prestamo) { prestamos = agregado(prestamos, prestamo); }
+
+    // Quita el préstamo de un libro y lo devuelve (null si no lo tenía).
+    public synchronized Prestamo quitarPrestamo(String codigoLibro) {
+        Prestamo[] actuales = prestamos;
+        for (int i = 0; i < actuales.length; i++) {
+            if (actuales[i].getCodigoLibro().equals(codigoLibro)) {
+                prestamos = actuales.length == 1 ? SIN_PRESTAMOS : quitado(actuales, i);
+                return actuales[i];
+            }
+        }
+        return null;
+    }
+
+    // --- Reservas y avisos ---
+
+    // Códigos de los libros en cuya cola de espera está el usuario (solo lectura), en el orden en que los reservó.
+    public List<String> getReservas() { return Collections.unmodifiableList(Arrays.asList(reservas)); }
+    public boolean tieneReserva(String codigoLibro) { return Arrays.asList(reservas).contains(codigoLibro); }
+    // Las reservas se modifican con el libro bloqueado, no el usuario: dos libros distintos pueden tocarlas a la vez.
+    public synchronized void agregarReserva(String codigoLibro) { reservas = agregado(reservas, codigoLibro); }
+
+    public synchronized boolean quitarReserva(String codigoLibro) {
+        String[] actuales = reservas;
+        for (int i = 0; i < actuales.length; i++) {
+            if (actuales[i].equals(codigoLibro)) {
+                reservas = actuales.length == 1 ? SIN_TEXTOS : quitado(actuales, i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Deja un aviso para el usuario; se le mostrará la próxima vez que consulte (ventana o API).
+    public synchronized void agregarAviso(String aviso) { avisos = agregado(avisos, aviso); }
+
+    // Devuelve los avisos pendientes y los da por leídos.
+    public List<String> tomarAvisos() {
+        if (avisos.length == 0) {
+            return Collections.emptyList(); // Lo normal: nada que mostrar, sin cerrojo.
+        }
+        String[] leidos;
+        synchronized (this) {
+            leidos = avisos;
+            avisos = SIN_TEXTOS;
+        }
+        return new ArrayList<>(Arrays.asList(leidos));
+    }
+
+    // Copia de un array con un elemento más al final.
+    private static <T> T[] agregado(T[] actuales, T elemento) {
+        T[] copia = Arrays.copyOf(actuales, actuales.length + 1);
+        copia[actuales.length] = elemento;
+        return copia;
+    }
+
+    // Copia de un array sin el elemento de la posición indicada (conserva el orden del resto).
+    private static <T> T[] quitado(T[] actuales, int posicion) {
+        T[] copia = Arrays.copyOf(actuales, actuales.length - 1);
+        System.arraycopy(actuales, posicion + 1, copia, posicion, actuales.length - posicion - 1);
+        return copia;
+    }
+
+    public boolean isEstaVetado() { return (banderas & VETADO) != 0; }
+    public void setEstaVetado(boolean estaVetado) { banderas = (byte) (estaVetado ? banderas | VETADO : banderas & ~VETADO); }
+    public LocalDate getFechaFinVeto() { return diaFinVeto == SIN_VETO ? null : LocalDate.ofEpochDay(diaFinVeto); }
+    public void setFechaFinVeto(LocalDate fechaFinVeto) { this.diaFinVeto = fechaFinVeto == null ? SIN_VETO : (int) fechaFinVeto.toEpochDay(); }
     public void incrementarLibrosPedidos() { this.librosPedidosHistorial++; }
 
     // Método para comprobar si el período de veto ya ha terminado.
     public void verificarVeto() {
+        verificarVeto(LocalDate.now());
+    }
+
+    // Igual que verificarVeto(), pero con la fecha "de hoy" que indique quien llama (por ejemplo, un reloj simulado).
+    public void verificarVeto(LocalDate hoy) {
         // Si el usuario está vetado Y la fecha actual es posterior a la fecha de fin del veto...
-        if (this.estaVetado && LocalDate.now().isAfter(this.fechaFinVeto)) {
+        if (isEstaVetado() && hoy.toEpochDay() > diaFinVeto) {
             // ...entonces se le quita el veto.
-            this.estaVetado = false;
-            this.fechaFinVeto = null; // Se limpia la fecha de fin del veto.
+            setEstaVetado(false);
+            this.diaFinVeto = SIN_VETO; // Se limpia la fecha de fin del veto.
         }
     }
 }
@@ -133,47 +299,203 @@ class Usuario {
 public class BibliotecaGUI extends JFrame {
 
     // --- Atributos de la aplicación (Datos) ---
-    private ArrayList<Libro> inventario = new ArrayList<>();   // Lista para guardar todos los libros.
-    private ArrayList<Usuario> usuarios = new ArrayList<>();   // Lista para guardar todos los usuarios registrados.
+    private NucleoBiblioteca nucleo;                           // Datos y servicios compartidos con la API HTTP (sin interfaz).
+    private CatalogoLibros inventario;                         // Catálogo de libros indexado por código (en memoria o mapeado desde disco).
+    private RepositorioUsuarios usuarios;                      // Usuarios registrados, indexados por username e identificación.
     private Usuario usuarioLogueado;                           // Objeto para mantener la información del usuario que ha iniciado sesión.
+    private GestorSesiones sesiones;                           // Login con caché de credenciales; la ventana es una sesión más.
+    private String tokenSesion;                                // Token de la sesión abierta desde esta ventana (null si no hay).
+    private ServicioPrestamos servicio;                        // Reglas de préstamo, devolución y registro (seguras entre hilos).
+    private IndiceBusqueda indiceBusqueda;                     // Índice invertido por título y autor para el buscador.
+    private MetricasCirculacion metricas;                      // Contadores y latencias de cada acción (JMX y /metricas).
+    private ServidorHttpBiblioteca servidorHttp;               // API para los quioscos, si se arrancó con -Dbiblioteca.http.puerto.
+    private final EjecutorSegundoPlano trabajador = new EjecutorSegundoPlano("biblioteca-gui"); // Login, registro, préstamos... fuera del hilo de Swing.
+    private RepintadoAgrupado repintado;                        // Junta los libros cambiados y los repinta como mucho 60 veces por segundo.
+    private final CompletableFuture<NucleoBiblioteca> cargaNucleo = new CompletableFuture<>(); // Se completa al terminar de leer los datos.
+    private final TiemposArranque tiempos;                     // Fases del arranque y presupuesto para ver la ventana.
+    private static final int LIMITE_RESULTADOS = 1000;         // Máximo de libros que muestra una búsqueda.
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("dd/MM/yyyy"); // Se crea una sola vez.
 
     // --- Atributos de la Interfaz Gráfica (Componentes Swing) ---
     private CardLayout cardLayout;      // Un layout especial que permite mostrar paneles como si fueran una baraja de cartas.
     private JPanel mainPanel;           // El panel principal que contendrá los demás paneles (login, registro, app).
     private JTable tablaInventario;     // La tabla visual donde se mostrará el inventario.
-    private DefaultTableModel tableModel; // El "modelo" o "contenido" de la tabla, que gestiona las filas y columnas.
+    private ModeloTablaInventario tableModel; // El "modelo" de la tabla, que lee las filas directamente del catálogo.
+    private int librosEnTabla;                // Libros que la tabla ya conoce; los que se añadan después le llegan como filas nuevas.
+    private PrestamoCellRenderer renderEstado; // Pinta la columna Estado y resalta el libro del usuario.
     private JLabel welcomeLabel;        // Etiqueta para mostrar el mensaje de bienvenida.
+    private JTextField campoBusqueda;   // Caja de texto para buscar por título o autor.
+    private JLabel etiquetaResultados;  // Muestra cuántos libros coinciden y sugerencias para autocompletar.
+    private JLabel etiquetaPagina;      // "Página X de Y" debajo de la tabla.
+    private JLabel etiquetaCarga;       // "Cargando datos..." en el login hasta que termina la carga.
+    private boolean registroCreado;     // El panel de registro se crea la primera vez que se abre.
+    private final List<JButton> botonesOperacion = new ArrayList<>(); // Se deshabilitan mientras hay una operación en curso.
 
     // Constructor de la interfaz: Se ejecuta al crear la ventana.
     public BibliotecaGUI() {
-        // --- 1. Carga inicial de datos ---
-        inicializarInventario(); // Llama al método para cargar los libros y el usuario de prueba.
+        this(new TiemposArranque());
+    }
+
+    // Solo se construye lo que se ve al arrancar (la ventana y el login); los datos se cargan en otro hilo y los
+    // paneles de registro y de la aplicación se crean cuando hacen falta.
+    BibliotecaGUI(TiemposArranque tiempos) {
+        this.tiempos = tiempos;
 
-        // --- 2. Configuración de la ventana principal (el JFrame) ---
+        // --- 1. Configuración de la ventana principal (el JFrame) ---
         setTitle("Biblioteca del ETITC");             // Pone el título a la ventana.
         setSize(800, 600);                          // Define el tamaño inicial de la ventana en píxeles.
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); // Hace que el programa se cierre al pulsar la 'X' de la ventana.
         setLocationRelativeTo(null);                // Centra la ventana en la pantalla.
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                tiempos.marcarConPresupuesto("ventana visible");
+            }
+
+            // Antes de cerrar, se espera a que terminen la carga y las operaciones en curso, y a que el diario
+            // termine de escribirse en disco.
+            @Override
+            public void windowClosing(WindowEvent e) {
+                trabajador.cerrar();
+                NucleoBiblioteca cargado;
+                try {
+                    cargado = cargaNucleo.join();
+                } catch (CompletionException ex) {
+                    return; // No se llegó a abrir nada: no hay nada que guardar.
+                }
+                if (servidorHttp != null) {
+                    servidorHttp.detener();
+                }
+                cargado.cerrar();
+            }
+        });
 
-        // --- 3. Configuración del layout principal (CardLayout) ---
+        // --- 2. Configuración del layout principal (CardLayout) ---
         cardLayout = new CardLayout();            // Crea una nueva instancia del CardLayout.
         mainPanel = new JPanel(cardLayout);       // Crea el panel principal y le asigna el CardLayout.
 
-        // --- 4. Crear los diferentes paneles (las "cartas" de la baraja) ---
-        JPanel loginPanel = createLoginPanel();       // Panel para iniciar sesión.
-        JPanel registerPanel = createRegisterPanel(); // Panel para registrarse.
-        JPanel appPanel = createAppPanel();           // Panel principal de la aplicación.
+        // --- 3. Solo el panel de login: es el único que se ve al arrancar ---
+        mainPanel.add(createLoginPanel(), "login"); // Añade el panel de login con el nombre "login".
+        add(mainPanel);                             // Añade el panel principal a la ventana.
+        cardLayout.show(mainPanel, "login");        // Muestra el panel de login al iniciar la aplicación.
+
+        // --- 4. Carga de datos en segundo plano ---
+        // Se recupera el estado guardado en disco mientras el usuario escribe su contraseña.
+        Thread cargador = new Thread(this::cargarNucleo, "biblioteca-arranque");
+        cargador.setDaemon(true);
+        cargador.start();
+    }
+
+    // Abre el núcleo (fuera del hilo de Swing) y arranca la API si se pidió. Si los datos no se pueden leer, no se
+    // sobrescriben: se avisa y se termina.
+    private void cargarNucleo() {
+        try {
+            NucleoBiblioteca cargado = NucleoBiblioteca.abrir(AlmacenPersistente.directorioPorDefecto(), tiempos);
+            // Con -Dbiblioteca.http.puerto=8080 la misma ventana sirve también la API de los quioscos.
+            String puerto = System.getProperty("biblioteca.http.puerto");
+            if (puerto != null) {
+                servidorHttp = new ServidorHttpBiblioteca(cargado, new InetSocketAddress("127.0.0.1", Integer.parseInt(puerto)));
+                servidorHttp.iniciar();
+            }
+            // Primero se encola nucleoCargado y después se completa la carga: así, cualquier resultado de un trabajo
+            // que esperaba la carga llega al hilo de Swing después de que los campos ya estén asignados.
+            SwingUtilities.invokeLater(() -> nucleoCargado(cargado));
+            cargaNucleo.complete(cargado);
+        } catch (IOException | RuntimeException ex) {
+            cargaNucleo.completeExceptionally(ex);
+            SwingUtilities.invokeLater(() -> {
+                JOptionPane.showMessageDialog(this, "No se pudieron cargar los datos de la biblioteca:\n" + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                System.exit(1);
+            });
+        }
+    }
+
+    // Ya en el hilo de Swing: guarda los servicios del núcleo y prepara lo que depende de ellos.
+    private void nucleoCargado(NucleoBiblioteca cargado) {
+        nucleo = cargado;
+        inventario = nucleo.getInventario();
+        usuarios = nucleo.getUsuarios();
+        servicio = nucleo.getServicio();
+        indiceBusqueda = nucleo.getIndiceBusqueda();
+        metricas = nucleo.getMetricas();
+        sesiones = nucleo.getSesiones();
+        etiquetaCarga.setText(" ");
+
+        // Los préstamos, devoluciones y altas de libros pueden llegar también por la API: las filas se marcan y se
+        // repintan juntas en el hilo de Swing (una ráfaga de cambios es un solo repintado por fotograma).
+        repintado = new RepintadoAgrupado(this::repintarLibros);
+        servicio.agregarOyente(new OyenteCirculacion() {
+            @Override
+            public void libroAgregado(Libro libro, int posicion) {
+                repintado.marcar(libro.getCodigo());
+            }
+
+            @Override
+            public void prestamoRealizado(Usuario usuario, Libro libro, Prestamo prestamo) {
+                repintado.marcar(prestamo.getCodigoLibro());
+            }
 
-        // --- 5. Añadir los paneles al panel principal con un nombre identificador ---
-        mainPanel.add(loginPanel, "login");           // Añade el panel de login con el nombre "login".
-        mainPanel.add(registerPanel, "register");     // Añade el panel de registro con el nombre "register".
-        mainPanel.add(appPanel, "app");               // Añade el panel de la app con el nombre "app".
+            @Override
+            public void devolucionRealizada(Usuario usuario, Libro libro, Prestamo prestamo, LocalDate finVeto) {
+                repintado.marcar(prestamo.getCodigoLibro());
+            }
 
-        // Añade el panel principal a la ventana.
-        add(mainPanel);
+            // Si el libro reservado le llega al usuario que tiene la sesión abierta, se le avisa en ese momento.
+            @Override
+            public void reservaEntregada(Usuario usuario, Libro libro, Prestamo prestamo) {
+                SwingUtilities.invokeLater(() -> {
+                    if (usuario == usuarioLogueado) {
+                        mostrarAvisos();
+                    }
+                });
+            }
+        });
 
-        // Muestra el panel de login por defecto al iniciar la aplicación.
-        cardLayout.show(mainPanel, "login");
+        // El panel de la aplicación se crea en un evento aparte, para que las teclas que ya esperan se atiendan antes.
+        SwingUtilities.invokeLater(this::prepararPanelApp);
+        nucleo.indexarEnSegundoPlano(() -> SwingUtilities.invokeLater(this::indicesListos));
+    }
+
+    // El índice de búsqueda y los órdenes del inventario ya están construidos: termina el arranque.
+    private void indicesListos() {
+        prepararPanelApp();
+        aplicarBusqueda(); // Por si el usuario ya había escrito algo.
+        actualizarEtiquetaPagina();
+        tiempos.marcar("arranque completo");
+        tiempos.imprimirSiSePidio();
+        // Con -Dbiblioteca.arranque.entrenar=true se recorre el arranque completo y se sale, para que la JVM guarde
+        // en un archivo CDS (-XX:ArchiveClassesAtExit) todas las clases que se han cargado.
+        if (TiemposArranque.ENTRENAR) {
+            cardLayout.show(mainPanel, "app");
+            SwingUtilities.invokeLater(() -> dispatchEvent(new WindowEvent(this, WindowEvent.WINDOW_CLOSING)));
+        }
+    }
+
+    // Espera (fuera del hilo de Swing) a que termine la carga de datos. Lo usan el login y el registro, por si el
+    // usuario es más rápido que el disco.
+    private NucleoBiblioteca esperarNucleo() {
+        try {
+            return cargaNucleo.join();
+        } catch (CompletionException ex) {
+            throw new IllegalStateException("No se pudieron cargar los datos de la biblioteca.", ex.getCause());
+        }
+    }
+
+    // Crea el panel de la aplicación si aún no existe (necesita el núcleo cargado).
+    private void prepararPanelApp() {
+        if (tableModel == null) {
+            mainPanel.add(createAppPanel(), "app"); // Añade el panel de la app con el nombre "app".
+            tiempos.marcar("panel principal");
+        }
+    }
+
+    // Muestra el panel de registro, creándolo la primera vez que alguien lo pide.
+    private void mostrarRegistro() {
+        if (!registroCreado) {
+            mainPanel.add(createRegisterPanel(), "register"); // Añade el panel de registro con el nombre "register".
+            registroCreado = true;
+        }
+        cardLayout.show(mainPanel, "register");
     }
 
     // --- Método para crear el panel de Inicio de Sesión ---
@@ -191,6 +513,7 @@ public class BibliotecaGUI extends JFrame {
         JPasswordField passText = new JPasswordField(20); // Campo especial para contraseñas.
         JButton loginButton = new JButton("Iniciar Sesión");
         JButton registerButton = new JButton("¿No tienes cuenta? Regístrate");
+        etiquetaCarga = new JLabel("Cargando datos de la biblioteca...");
 
         // Posicionamiento de cada componente en la "parrilla" del GridBagLayout.
         gbc.gridx = 0; gbc.gridy = 0; panel.add(userLabel, gbc);
@@ -199,37 +522,43 @@ public class BibliotecaGUI extends JFrame {
         gbc.gridx = 1; gbc.gridy = 1; panel.add(passText, gbc);
         gbc.gridx = 1; gbc.gridy = 2; gbc.anchor = GridBagConstraints.CENTER; panel.add(loginButton, gbc);
         gbc.gridx = 1; gbc.gridy = 3; panel.add(registerButton, gbc);
+        gbc.gridx = 1; gbc.gridy = 4; panel.add(etiquetaCarga, gbc);
 
         // --- Lógica de los botones (Event Handling) ---
         // Se añade un "oyente de acción" al botón de login. El código dentro se ejecutará cuando se haga clic.
+        botonesOperacion.add(loginButton);
         loginButton.addActionListener(e -> {
             String username = userText.getText(); // Obtiene el texto del campo de usuario.
             String password = new String(passText.getPassword()); // Obtiene la contraseña del campo de contraseña.
 
-            boolean loggedIn = false; // Variable para verificar si el login fue exitoso.
-            // Recorre la lista de usuarios.
-            for (Usuario u : usuarios) {
-                // Si el usuario y la contraseña coinciden...
-                if (u.getUsername().equalsIgnoreCase(username) && u.getPassword().equals(password)) {
-                    usuarioLogueado = u; // Guarda el usuario que ha iniciado sesión.
-                    loggedIn = true;     // Marca el login como exitoso.
-                    break;               // Sale del bucle porque ya encontramos al usuario.
+            // Comprueba la contraseña (lento a propósito, salvo si está en la caché) y abre la sesión fuera del hilo de Swing.
+            // Si los datos aún se están cargando, la espera también es fuera del hilo de Swing.
+            enSegundoPlano(() -> {
+                NucleoBiblioteca cargado = esperarNucleo();
+                long inicio = System.nanoTime();
+                GestorSesiones.Sesion s = cargado.getSesiones().iniciar(username, password);
+                cargado.getMetricas().contar(s != null ? MetricasCirculacion.Contador.LOGINS : MetricasCirculacion.Contador.LOGINS_FALLIDOS);
+                cargado.getMetricas().medir(MetricasCirculacion.Operacion.LOGIN, inicio);
+                return s;
+            }, s -> {
+                if (s != null) {
+                    prepararPanelApp(); // Normalmente ya está creado mientras se escribía la contraseña.
+                    usuarioLogueado = s.usuario; // Guarda el usuario que ha iniciado sesión.
+                    tokenSesion = s.token;
+                    // Si el login fue exitoso:
+                    welcomeLabel.setText("¡Bienvenido, " + usuarioLogueado.getUsername() + "!"); // Actualiza el mensaje de bienvenida.
+                    actualizarTablaInventario(); // Carga los datos en la tabla.
+                    cardLayout.show(mainPanel, "app"); // Cambia al panel principal de la aplicación.
+                    mostrarAvisos(); // Por ejemplo, reservas que se le entregaron mientras no estaba.
+                } else {
+                    // Si no, muestra una ventana emergente de error.
+                    JOptionPane.showMessageDialog(this, "Usuario o contraseña incorrectos.", "Error", JOptionPane.ERROR_MESSAGE);
                 }
-            }
-
-            if (loggedIn) {
-                // Si el login fue exitoso:
-                welcomeLabel.setText("¡Bienvenido, " + usuarioLogueado.getUsername() + "!"); // Actualiza el mensaje de bienvenida.
-                actualizarTablaInventario(); // Carga los datos en la tabla.
-                cardLayout.show(mainPanel, "app"); // Cambia al panel principal de la aplicación.
-            } else {
-                // Si no, muestra una ventana emergente de error.
-                JOptionPane.showMessageDialog(this, "Usuario o contraseña incorrectos.", "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            });
         });
 
-        // Al hacer clic en el botón de registrar, simplemente cambiamos al panel de registro.
-        registerButton.addActionListener(e -> cardLayout.show(mainPanel, "register"));
+        // Al hacer clic en el botón de registrar, cambiamos al panel de registro (se crea la primera vez).
+        registerButton.addActionListener(e -> mostrarRegistro());
 
         return panel; // Devuelve el panel ya creado y configurado.
     }
@@ -279,24 +608,48 @@ public class BibliotecaGUI extends JFrame {
         gbc.gridx = 1; gbc.gridy = 8; gbc.anchor = GridBagConstraints.CENTER; panel.add(buttonPanel, gbc);
 
         // Lógica para el botón de confirmar registro.
+        botonesOperacion.add(confirmButton);
         confirmButton.addActionListener(e -> {
+            // Validación simple para asegurarse de que los campos clave no estén vacíos.
+            if(userText.getText().isEmpty() || idText.getText().isEmpty()){
+                JOptionPane.showMessageDialog(this, "Usuario e Identificación no pueden estar vacíos.", "Error", JOptionPane.ERROR_MESSAGE);
+                return; // Detiene la ejecución del método si hay un error.
+            }
+            int edad;
             try {
-                // Validación simple para asegurarse de que los campos clave no estén vacíos.
-                if(userText.getText().isEmpty() || idText.getText().isEmpty()){
-                    JOptionPane.showMessageDialog(this, "Usuario e Identificación no pueden estar vacíos.", "Error", JOptionPane.ERROR_MESSAGE);
-                    return; // Detiene la ejecución del método si hay un error.
-                }
-
-                // Crea un nuevo objeto Usuario con los datos de los campos de texto.
-                Usuario newUser = new Usuario(nombreText.getText(), idText.getText(), fechaText.getText(), Integer.parseInt(edadText.getText()), generoText.getText(), emailText.getText(), userText.getText(), new String(passText.getPassword()));
-                usuarios.add(newUser); // Añade el nuevo usuario a la lista de usuarios.
-
-                JOptionPane.showMessageDialog(this, "¡Registro exitoso!", "Éxito", JOptionPane.INFORMATION_MESSAGE);
-                cardLayout.show(mainPanel, "login"); // Vuelve a la pantalla de login.
+                edad = Integer.parseInt(edadText.getText());
             } catch (NumberFormatException ex) {
                 // Si el texto en "Edad" no es un número, salta este error.
                 JOptionPane.showMessageDialog(this, "La edad debe ser un número válido.", "Error de Formato", JOptionPane.ERROR_MESSAGE);
+                return;
             }
+
+            // Los campos de texto se leen aquí, en el hilo de Swing; el resto del registro se hace en segundo plano.
+            String nombre = nombreText.getText(), id = idText.getText(), fecha = fechaText.getText(), genero = generoText.getText();
+            String email = emailText.getText(), username = userText.getText(), password = new String(passText.getPassword());
+            enSegundoPlano(() -> {
+                NucleoBiblioteca cargado = esperarNucleo();
+                // El username y la identificación deben ser únicos. Se comprueba antes de cifrar la contraseña,
+                // para que un registro repetido no pague el cálculo lento.
+                if (cargado.getUsuarios().existeUsername(username)) {
+                    return "Ese nombre de usuario ya está registrado.";
+                }
+                if (cargado.getUsuarios().existeIdentificacion(id)) {
+                    return "Ya existe una cuenta con esa identificación.";
+                }
+                // Crea un nuevo objeto Usuario con los datos del formulario (aquí se cifra la contraseña).
+                Usuario newUser = new Usuario(nombre, id, fecha, edad, genero, email, username, password);
+                // Añade el nuevo usuario al registro y lo guarda en el diario. Si otro mostrador registró
+                // el mismo username o identificación justo ahora, el servicio lo rechaza.
+                return cargado.getServicio().registrarUsuario(newUser) ? null : "Ese nombre de usuario o identificación ya está registrado.";
+            }, error -> {
+                if (error != null) {
+                    JOptionPane.showMessageDialog(this, error, "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                JOptionPane.showMessageDialog(this, "¡Registro exitoso!", "Éxito", JOptionPane.INFORMATION_MESSAGE);
+                cardLayout.show(mainPanel, "login"); // Vuelve a la pantalla de login.
+            });
         });
 
         // El botón "Volver" simplemente cambia al panel de login.
@@ -327,27 +680,76 @@ public class BibliotecaGUI extends JFrame {
         actionPanel.add(pedirButton);
         actionPanel.add(devolverButton);
         actionPanel.add(estadoButton);
+        botonesOperacion.add(pedirButton);
+        botonesOperacion.add(devolverButton);
+        botonesOperacion.add(estadoButton);
+
+        // Buscador: filtra la tabla mientras se escribe, usando el índice (no recorre el catálogo).
+        JPanel busquedaPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        busquedaPanel.setBackground(new Color(200, 200, 200));
+        campoBusqueda = new JTextField(25);
+        etiquetaResultados = new JLabel(" ");
+        busquedaPanel.add(new JLabel("Buscar título o autor:"));
+        busquedaPanel.add(campoBusqueda);
+        busquedaPanel.add(etiquetaResultados);
+        campoBusqueda.getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { aplicarBusqueda(); }
+            @Override public void removeUpdate(DocumentEvent e) { aplicarBusqueda(); }
+            @Override public void changedUpdate(DocumentEvent e) { aplicarBusqueda(); }
+        });
+        JPanel topPanel = new JPanel(new BorderLayout()); // Botones arriba y buscador debajo.
+        topPanel.add(actionPanel, BorderLayout.NORTH);
+        topPanel.add(busquedaPanel, BorderLayout.SOUTH);
 
         // Configuración de la tabla del inventario.
-        String[] columnNames = {"Código", "Título", "Autor", "Estado"}; // Nombres de las columnas.
-        tableModel = new DefaultTableModel(columnNames, 0) {
-            // Hacemos que las celdas de la tabla no sean editables por el usuario.
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new ModeloTablaInventario(inventario, nucleo.getOrden()); // El modelo lee los libros del catálogo; las celdas no son editables.
+        librosEnTabla = inventario.tamano();
+        nucleo.getOrden().agregarAviso(() -> SwingUtilities.invokeLater(tableModel::ordenActualizado)); // Libros nuevos ya ordenados: se repinta.
         tablaInventario = new JTable(tableModel); // Creamos la tabla con el modelo definido.
         JScrollPane scrollPane = new JScrollPane(tablaInventario); // Añadimos la tabla a un panel con barras de scroll.
 
+        // Un clic en la cabecera ordena por esa columna y otro clic en la misma invierte el orden. No se usa un
+        // TableRowSorter: ordenaría copiando todas las filas, y los órdenes del catálogo ya están calculados.
+        tablaInventario.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int columna = tablaInventario.columnAtPoint(e.getPoint());
+                if (columna >= 0) {
+                    ordenarPorColumna(tablaInventario.convertColumnIndexToModel(columna));
+                }
+            }
+        });
+
+        // Barra de páginas debajo de la tabla.
+        JPanel paginasPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        paginasPanel.setBackground(new Color(200, 200, 200));
+        JButton primeraButton = new JButton("<<");
+        JButton anteriorButton = new JButton("< Anterior");
+        JButton siguienteButton = new JButton("Siguiente >");
+        JButton ultimaButton = new JButton(">>");
+        etiquetaPagina = new JLabel(" ");
+        paginasPanel.add(primeraButton);
+        paginasPanel.add(anteriorButton);
+        paginasPanel.add(etiquetaPagina);
+        paginasPanel.add(siguienteButton);
+        paginasPanel.add(ultimaButton);
+        primeraButton.addActionListener(e -> irAPagina(0));
+        anteriorButton.addActionListener(e -> irAPagina(tableModel.getPagina() - 1));
+        siguienteButton.addActionListener(e -> irAPagina(tableModel.getPagina() + 1));
+        ultimaButton.addActionListener(e -> irAPagina(tableModel.getPaginas() - 1));
+        tableModel.addTableModelListener(e -> actualizarEtiquetaPagina()); // Cambia al buscar, ordenar o pasar de página.
+        actualizarEtiquetaPagina();
+
         // Asignar el renderer personalizado a la columna "Estado" (índice 3).
-        tablaInventario.getColumnModel().getColumn(3).setCellRenderer(new PrestamoCellRenderer());
+        renderEstado = new PrestamoCellRenderer();
+        tablaInventario.getColumnModel().getColumn(3).setCellRenderer(renderEstado);
 
 
         // Creamos un panel central para organizar los botones arriba y la tabla abajo.
         JPanel centerPanel = new JPanel(new BorderLayout());
-        centerPanel.add(actionPanel, BorderLayout.NORTH);
+        centerPanel.add(topPanel, BorderLayout.NORTH);
         centerPanel.add(scrollPane, BorderLayout.CENTER);
+        centerPanel.add(paginasPanel, BorderLayout.SOUTH);
         panel.add(centerPanel, BorderLayout.CENTER);
 
         // --- Sección SUR: Botón de Cerrar Sesión ---
@@ -363,6 +765,9 @@ public class BibliotecaGUI extends JFrame {
         estadoButton.addActionListener(e -> consultarEstado());
         logoutButton.addActionListener(e -> {
             usuarioLogueado = null; // Borra la información del usuario logueado.
+            sesiones.cerrar(tokenSesion);
+            tokenSesion = null;
+            actualizarResaltado();
             cardLayout.show(mainPanel, "login"); // Vuelve a la pantalla de login.
         });
 
@@ -371,181 +776,397 @@ public class BibliotecaGUI extends JFrame {
 
     // --- Métodos que conectan la GUI con la Lógica ---
 
-    // Lógica para realizar un préstamo.
+    // Lógica para realizar un préstamo. Las reglas (veto, límite, disponibilidad) las aplica el servicio.
+    // Si el libro está prestado, se ofrece reservarlo.
     private void realizarPrestamo() {
-        usuarioLogueado.verificarVeto(); // Primero, comprueba si el veto del usuario ha expirado.
-
-        // 1. Validar si el usuario está vetado.
-        if (usuarioLogueado.isEstaVetado()) {
-            JOptionPane.showMessageDialog(this, "No puedes pedir libros. Estás vetado hasta: " +
-                usuarioLogueado.getFechaFinVeto().format(DateTimeFormatter.ofPattern("dd/MM/yyyy")), "Veto Activo", JOptionPane.WARNING_MESSAGE);
-            return;
-        }
-
-        // 2. Validar si el usuario ya tiene un libro.
-        if (usuarioLogueado.tieneLibroPrestado()) {
-            JOptionPane.showMessageDialog(this, "Ya tienes un libro prestado. Debes devolverlo primero.", "Error", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
-
-        // 3. Obtener la fila seleccionada por el usuario en la tabla.
+        // 1. Obtener la fila seleccionada por el usuario en la tabla.
         int selectedRow = tablaInventario.getSelectedRow();
         if (selectedRow == -1) { // Si es -1, significa que no hay ninguna fila seleccionada.
             JOptionPane.showMessageDialog(this, "Por favor, selecciona un libro de la tabla para pedirlo.", "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
-        // 4. Obtener el código del libro de la fila seleccionada.
-        String codigoLibro = (String) tableModel.getValueAt(selectedRow, 0); // Fila seleccionada, columna 0 (código).
-        Libro libroAPrestar = buscarLibroPorCodigo(codigoLibro);
+        // 2. Obtener el código del libro de la fila seleccionada y pedir el préstamo al servicio en segundo plano.
+        //    Solo se mide el trabajo, no el tiempo que el usuario pasa leyendo los diálogos.
+        Usuario usuario = usuarioLogueado;
+        String codigo = tableModel.getLibroEnFila(tablaInventario.convertRowIndexToModel(selectedRow)).getCodigo();
+        enSegundoPlano(() -> {
+            long inicio = System.nanoTime();
+            ResultadoCirculacion resultado = servicio.prestar(usuario, codigo);
+            metricas.medir(MetricasCirculacion.Operacion.PRESTAMO, inicio);
+            if (resultado.getTipo() != ResultadoCirculacion.Tipo.PRESTAMO_REALIZADO) {
+                metricas.contar(MetricasCirculacion.Contador.PRESTAMOS_RECHAZADOS);
+            }
+            return resultado;
+        }, this::mostrarResultadoPrestamo); // 3. Mostrar el resultado (de vuelta en el hilo de Swing).
+    }
 
-        // 5. Validar si el libro está disponible y proceder con el préstamo.
-        if (libroAPrestar != null && !libroAPrestar.isEstaPrestado()) {
-            // Actualizar el estado del libro.
-            libroAPrestar.setEstaPrestado(true);
-            // Crear el objeto préstamo.
-            Prestamo nuevoPrestamo = new Prestamo(libroAPrestar.getCodigo(), usuarioLogueado.getNumeroIdentificacion());
-            // Actualizar el estado del usuario.
-            usuarioLogueado.setTieneLibroPrestado(true);
-            usuarioLogueado.setPrestamoActual(nuevoPrestamo);
-            usuarioLogueado.incrementarLibrosPedidos();
+    // Muestra al usuario el resultado de pedir un libro.
+    private void mostrarResultadoPrestamo(ResultadoCirculacion resultado) {
+        switch (resultado.getTipo()) {
+            case USUARIO_VETADO:
+                JOptionPane.showMessageDialog(this, "No puedes pedir libros. Estás vetado hasta: " +
+                    resultado.getFinVeto().format(FORMATO_FECHA), "Veto Activo", JOptionPane.WARNING_MESSAGE);
+                break;
+            case LIMITE_PRESTAMOS:
+                JOptionPane.showMessageDialog(this, "Ya tienes " + servicio.getMaxPrestamos() + " libros prestados. Devuelve alguno primero.", "Error", JOptionPane.ERROR_MESSAGE);
+                break;
+            case PRESTAMO_REALIZADO:
+                JOptionPane.showMessageDialog(this, "¡Préstamo exitoso!\nLibro: " + resultado.getLibro().getTitulo() + "\nDevolver antes de: " +
+                    resultado.getPrestamo().getFechaDevolucion().format(FORMATO_FECHA), "Préstamo Realizado", JOptionPane.INFORMATION_MESSAGE);
+                break;
+            default:
+                if (resultado.getLibro() != null) {
+                    ofrecerReserva(resultado.getLibro()); // Está prestado: se le ofrece entrar en la cola de espera.
+                } else {
+                    JOptionPane.showMessageDialog(this, "El libro seleccionado no está disponible.", "Error", JOptionPane.ERROR_MESSAGE);
+                }
+                break;
+        }
+    }
 
-            // Mostrar mensaje de éxito.
-            JOptionPane.showMessageDialog(this, "¡Préstamo exitoso!\nLibro: " + libroAPrestar.getTitulo() + "\nDevolver antes de: " +
-                nuevoPrestamo.getFechaDevolucion().format(DateTimeFormatter.ofPattern("dd/MM/yyyy")), "Préstamo Realizado", JOptionPane.INFORMATION_MESSAGE);
+    // Ofrece reservar un libro que no está disponible y muestra el puesto en la cola.
+    private void ofrecerReserva(Libro libro) {
+        int enEspera = servicio.reservasPendientes(libro.getCodigo());
+        int respuesta = JOptionPane.showConfirmDialog(this, "\"" + libro.getTitulo() + "\" no está disponible ahora.\n" +
+                (enEspera == 0 ? "Nadie lo está esperando." : "Hay " + enEspera + " persona(s) esperándolo.") +
+                "\n¿Quieres reservarlo? Se te prestará automáticamente cuando te toque.", "Libro no disponible", JOptionPane.YES_NO_OPTION);
+        if (respuesta != JOptionPane.YES_OPTION) {
+            return;
+        }
+        Usuario usuario = usuarioLogueado;
+        enSegundoPlano(() -> servicio.reservar(usuario, libro.getCodigo()), this::mostrarResultadoReserva);
+    }
 
-            // Actualizar la tabla para que el libro aparezca como "Prestado".
-            actualizarTablaInventario();
-        } else {
-            JOptionPane.showMessageDialog(this, "El libro seleccionado no está disponible.", "Error", JOptionPane.ERROR_MESSAGE);
+    // Muestra al usuario el resultado de reservar un libro.
+    private void mostrarResultadoReserva(ResultadoCirculacion resultado) {
+        switch (resultado.getTipo()) {
+            case RESERVA_REALIZADA:
+                JOptionPane.showMessageDialog(this, "Reserva hecha. Eres el número " + resultado.getPuesto() + " de la cola.", "Reserva", JOptionPane.INFORMATION_MESSAGE);
+                break;
+            case YA_RESERVADO:
+                JOptionPane.showMessageDialog(this, resultado.getPuesto() > 0 ? "Ya estás en la cola de este libro (puesto " + resultado.getPuesto() + ")."
+                        : "Ya tienes este libro.", "Reserva", JOptionPane.INFORMATION_MESSAGE);
+                break;
+            case LIBRO_DISPONIBLE:
+                JOptionPane.showMessageDialog(this, "El libro acaba de quedar libre: puedes pedirlo directamente.", "Reserva", JOptionPane.INFORMATION_MESSAGE);
+                break;
+            case USUARIO_VETADO:
+                JOptionPane.showMessageDialog(this, "No puedes reservar libros. Estás vetado hasta: " +
+                    resultado.getFinVeto().format(FORMATO_FECHA), "Veto Activo", JOptionPane.WARNING_MESSAGE);
+                break;
+            default:
+                JOptionPane.showMessageDialog(this, "No se pudo reservar el libro.", "Error", JOptionPane.ERROR_MESSAGE);
+                break;
         }
     }
 
-    // Lógica para realizar una devolución.
+    // Muestra (y da por leídos) los avisos pendientes del usuario con sesión.
+    private void mostrarAvisos() {
+        List<String> avisos = usuarioLogueado == null ? Collections.emptyList() : usuarioLogueado.tomarAvisos();
+        if (!avisos.isEmpty()) {
+            actualizarResaltado();
+            JOptionPane.showMessageDialog(this, String.join("\n", avisos), "Avisos", JOptionPane.INFORMATION_MESSAGE);
+        }
+    }
+
+    // Lógica para realizar una devolución. Si es tardía, el servicio aplica el veto.
     private void realizarDevolucion() {
-        // 1. Validar si el usuario realmente tiene un libro para devolver.
-        if (!usuarioLogueado.tieneLibroPrestado()) {
+        List<Prestamo> prestamos = usuarioLogueado.getPrestamos();
+        if (prestamos.isEmpty()) {
             JOptionPane.showMessageDialog(this, "No tienes ningún libro prestado para devolver.", "Información", JOptionPane.INFORMATION_MESSAGE);
             return;
         }
 
-        Prestamo prestamo = usuarioLogueado.getPrestamoActual();
-        Libro libroADevolver = buscarLibroPorCodigo(prestamo.getCodigoLibro());
-
-        if (libroADevolver != null) {
-            // 2. Comprobar si la fecha actual es posterior a la fecha de devolución.
-            if (LocalDate.now().isAfter(prestamo.getFechaDevolucion())) {
-                // Si la devolución es tardía, se aplica el veto.
-                usuarioLogueado.setEstaVetado(true);
-                usuarioLogueado.setFechaFinVeto(LocalDate.now().plusDays(3)); // El veto dura 3 días desde hoy.
-                JOptionPane.showMessageDialog(this, "¡Devolución TARDÍA!\nComo castigo, estarás vetado por 3 días.", "Devolución", JOptionPane.WARNING_MESSAGE);
-            } else {
-                JOptionPane.showMessageDialog(this, "Libro devuelto a tiempo. ¡Gracias!", "Devolución", JOptionPane.INFORMATION_MESSAGE);
+        // 1. Elegir qué libro se devuelve: el seleccionado en la tabla si es uno de los suyos, el único que tiene,
+        //    o el que elija de una lista.
+        String codigo = null;
+        int selectedRow = tablaInventario.getSelectedRow();
+        if (selectedRow != -1) {
+            String seleccionado = tableModel.getLibroEnFila(tablaInventario.convertRowIndexToModel(selectedRow)).getCodigo();
+            if (usuarioLogueado.buscarPrestamo(seleccionado) != null) {
+                codigo = seleccionado;
             }
-
-            // 3. Actualizar los estados del libro y del usuario.
-            libroADevolver.setEstaPrestado(false); // El libro vuelve a estar disponible.
-            usuarioLogueado.setTieneLibroPrestado(false); // El usuario ya no tiene un libro.
-            usuarioLogueado.setPrestamoActual(null); // Se elimina el préstamo actual.
-            actualizarTablaInventario(); // Se actualiza la tabla para reflejar el cambio.
         }
+        if (codigo == null && prestamos.size() == 1) {
+            codigo = prestamos.get(0).getCodigoLibro();
+        }
+        if (codigo == null) {
+            String[] opciones = new String[prestamos.size()];
+            for (int i = 0; i < opciones.length; i++) {
+                Libro libro = buscarLibroPorCodigo(prestamos.get(i).getCodigoLibro());
+                opciones[i] = prestamos.get(i).getCodigoLibro() + " - " + (libro != null ? libro.getTitulo() : "?");
+            }
+            Object elegido = JOptionPane.showInputDialog(this, "¿Qué libro quieres devolver?", "Devolución",
+                    JOptionPane.QUESTION_MESSAGE, null, opciones, opciones[0]);
+            if (elegido == null) {
+                return; // Canceló.
+            }
+            codigo = prestamos.get(Arrays.asList(opciones).indexOf(elegido)).getCodigoLibro();
+        }
+
+        // 2. Devolver en segundo plano y mostrar el resultado.
+        Usuario usuario = usuarioLogueado;
+        String codigoDevuelto = codigo;
+        enSegundoPlano(() -> {
+            long inicio = System.nanoTime();
+            ResultadoCirculacion resultado = servicio.devolver(usuario, codigoDevuelto);
+            metricas.medir(MetricasCirculacion.Operacion.DEVOLUCION, inicio);
+            return resultado;
+        }, resultado -> {
+            switch (resultado.getTipo()) {
+                case SIN_PRESTAMO:
+                    JOptionPane.showMessageDialog(this, "No tienes ningún libro prestado para devolver.", "Información", JOptionPane.INFORMATION_MESSAGE);
+                    return;
+                case DEVUELTO_TARDE:
+                    JOptionPane.showMessageDialog(this, "¡Devolución TARDÍA!\nComo castigo, estarás vetado por 3 días.", "Devolución", JOptionPane.WARNING_MESSAGE);
+                    break;
+                default:
+                    JOptionPane.showMessageDialog(this, "Libro devuelto a tiempo. ¡Gracias!", "Devolución", JOptionPane.INFORMATION_MESSAGE);
+                    break;
+            }
+        });
     }
 
     // Lógica para mostrar el estado del usuario.
     private void consultarEstado() {
-        usuarioLogueado.verificarVeto(); // Asegurarse de que el estado de veto esté actualizado.
+        Usuario usuario = usuarioLogueado;
+        enSegundoPlano(() -> textoEstado(usuario), estado ->
+            JOptionPane.showMessageDialog(this, estado, "Estado de Usuario", JOptionPane.INFORMATION_MESSAGE));
+    }
+
+    // Arma el texto del estado de un usuario (se llama en segundo plano: lee el historial y el catálogo).
+    private String textoEstado(Usuario usuario) {
+        long inicioNanos = System.nanoTime();
+        servicio.verificarVeto(usuario); // Asegurarse de que el estado de veto esté actualizado.
         String estado = "Estado: ACTIVO ✅\nNo tienes ninguna multa o veto."; // Mensaje por defecto.
 
         // Si está vetado, se cambia el mensaje.
-        if (usuarioLogueado.isEstaVetado()) {
+        if (usuario.isEstaVetado()) {
             estado = "Estado: VETADO ❌\nNo podrás pedir libros hasta el: " +
-                usuarioLogueado.getFechaFinVeto().format(DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+                usuario.getFechaFinVeto().format(FORMATO_FECHA);
         }
 
-        // Si tiene un libro prestado, se añade esa información al mensaje.
-        if (usuarioLogueado.tieneLibroPrestado()) {
-            Libro libroActual = buscarLibroPorCodigo(usuarioLogueado.getPrestamoActual().getCodigoLibro());
-            estado += "\n\n--- Libro en Préstamo ---\nTítulo: " + libroActual.getTitulo() +
-                      "\nFecha límite: " + usuarioLogueado.getPrestamoActual().getFechaDevolucion().format(DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+        // Si tiene libros prestados, se añade la información de cada uno al mensaje.
+        if (usuario.tieneLibroPrestado()) {
+            estado += "\n\n--- Libros en Préstamo (" + usuario.getNumeroPrestamos() + " de " + servicio.getMaxPrestamos() + ") ---";
+            for (Prestamo prestamo : usuario.getPrestamos()) {
+                Libro libroActual = buscarLibroPorCodigo(prestamo.getCodigoLibro());
+                estado += "\nTítulo: " + libroActual.getTitulo() +
+                          " | Fecha límite: " + prestamo.getFechaDevolucion().format(FORMATO_FECHA);
+                if (prestamo.isVencido()) {
+                    estado += "  ⚠ vencido: al devolverlo se aplicará un veto.";
+                }
+            }
         } else {
             estado += "\n\nNo tienes libros en préstamo actualmente.";
         }
 
-        // Se muestra toda la información en una ventana emergente.
-        JOptionPane.showMessageDialog(this, estado, "Estado de Usuario", JOptionPane.INFORMATION_MESSAGE);
+        // Libros que está esperando, con su puesto en cada cola.
+        if (!usuario.getReservas().isEmpty()) {
+            estado += "\n\n--- Reservas ---";
+            for (String codigo : usuario.getReservas()) {
+                estado += "\n" + buscarLibroPorCodigo(codigo).getTitulo() + " | puesto " + servicio.puestoEnReserva(usuario, codigo) +
+                          " de " + servicio.reservasPendientes(codigo);
+            }
+        }
+
+        // Últimos préstamos del historial (se leen del historial empaquetado, sin recorrer a los demás usuarios).
+        StringBuilder historial = new StringBuilder();
+        int mostrados = usuarios.getHistorial().recorrer(usuario, 5, (registro, libro, inicio, vence, devolucion) -> {
+            historial.append("\n").append(inventario.obtener(libro).getTitulo())
+                     .append(" | ").append(LocalDate.ofEpochDay(inicio).format(FORMATO_FECHA))
+                     .append(" → ").append(devolucion == HistorialPrestamos.SIN_DEVOLVER ? "en préstamo"
+                             : LocalDate.ofEpochDay(devolucion).format(FORMATO_FECHA));
+        });
+        if (mostrados > 0) {
+            estado += "\n\n--- Últimos préstamos (" + usuario.getLibrosPedidosHistorial() + " en total) ---" + historial;
+        }
+
+        // La ventana emergente con toda la información se muestra en el hilo de Swing.
+        metricas.medir(MetricasCirculacion.Operacion.CONSULTA_ESTADO, inicioNanos);
+        return estado;
     }
 
     // --- Métodos Utilitarios ---
 
+    // Filtra la tabla con el texto del buscador. Si está vacío, se vuelve a mostrar todo el catálogo.
+    private void aplicarBusqueda() {
+        if (campoBusqueda == null) {
+            return; // El panel de la aplicación aún no se ha creado.
+        }
+        String consulta = campoBusqueda.getText().trim();
+        if (consulta.isEmpty()) {
+            tableModel.filtrar(null);
+            etiquetaResultados.setText(" ");
+            return;
+        }
+
+        long inicio = System.nanoTime();
+        int[] resultados = indiceBusqueda.buscar(consulta, LIMITE_RESULTADOS);
+        tableModel.filtrar(resultados);
+        metricas.contar(MetricasCirculacion.Contador.BUSQUEDAS);
+        metricas.medir(MetricasCirculacion.Operacion.BUSQUEDA, inicio);
+
+        // Mensaje con el número de resultados y sugerencias para completar la última palabra.
+        String texto = resultados.length >= LIMITE_RESULTADOS ? "Primeros " + LIMITE_RESULTADOS + " resultados" : resultados.length + " resultado(s)";
+        List<String> palabras = IndiceBusqueda.palabras(IndiceBusqueda.normalizar(consulta));
+        String textoCompleto = campoBusqueda.getText();
+        if (!palabras.isEmpty() && !Character.isWhitespace(textoCompleto.charAt(textoCompleto.length() - 1))) {
+            List<String> sugerencias = indiceBusqueda.sugerir(palabras.get(palabras.size() - 1), 5);
+            if (!sugerencias.isEmpty()) {
+                texto += "  —  ¿" + String.join(", ", sugerencias) + "?";
+            }
+        }
+        if (indiceBusqueda.getIndexados() < inventario.tamano()) {
+            texto += "  (indexando catálogo...)";
+        }
+        etiquetaResultados.setText(texto);
+    }
+
     // Actualiza el contenido de la tabla del inventario.
+    // El modelo ya lee del catálogo, así que basta con recalcular qué libro se resalta y repintar lo visible
+    // (por ejemplo, para resaltar los libros del usuario que acaba de iniciar sesión).
     private void actualizarTablaInventario() {
-        tableModel.setRowCount(0); // Borra todas las filas existentes en la tabla.
+        long inicio = System.nanoTime();
+        actualizarResaltado();
+        tablaInventario.repaint();
+        metricas.medir(MetricasCirculacion.Operacion.REFRESCO_TABLA, inicio);
+    }
 
-        // Recorre la lista de libros del inventario.
-        for (Libro libro : inventario) {
-            // Crea un array de objetos con los datos de cada libro.
-            Object[] row = {
-                libro.getCodigo(),
-                libro.getTitulo(),
-                libro.getAutor(),
-                libro.getEstado()
-            };
-            tableModel.addRow(row); // Añade la nueva fila al modelo de la tabla.
+    // Ordena la tabla por una columna; si ya estaba ordenada por ella, invierte el orden.
+    private void ordenarPorColumna(int columna) {
+        long inicio = System.nanoTime();
+        OrdenCatalogo.Criterio criterio = OrdenCatalogo.Criterio.deColumna(columna);
+        boolean descendente = criterio == tableModel.getCriterio() && !tableModel.isDescendente();
+        tableModel.ordenar(criterio, descendente);
+        // La flecha de la cabecera indica la columna y el sentido del orden.
+        for (int i = 0; i < tableModel.getColumnCount(); i++) {
+            String flecha = i != columna ? "" : descendente ? " ▼" : " ▲";
+            tablaInventario.getColumnModel().getColumn(tablaInventario.convertColumnIndexToView(i))
+                    .setHeaderValue(tableModel.getColumnName(i) + flecha);
         }
+        tablaInventario.getTableHeader().repaint();
+        irAPagina(0);
+        metricas.medir(MetricasCirculacion.Operacion.REFRESCO_TABLA, inicio);
     }
 
-    // Busca un libro en el inventario por su código.
-    private Libro buscarLibroPorCodigo(String codigo) {
-        for (Libro libro : inventario) {
-            if (libro.getCodigo().equals(codigo)) {
-                return libro; // Devuelve el objeto libro si lo encuentra.
+    // Muestra otra página del inventario, desde su primera fila.
+    private void irAPagina(int pagina) {
+        tableModel.irAPagina(pagina);
+        tablaInventario.scrollRectToVisible(new Rectangle(0, 0, 1, 1));
+    }
+
+    // Actualiza el texto "Página X de Y" (y avisa si los órdenes del catálogo aún se están calculando).
+    private void actualizarEtiquetaPagina() {
+        String texto = "Página " + (tableModel.getPagina() + 1) + " de " + tableModel.getPaginas()
+                + "  (" + tableModel.totalFilas() + " libros)";
+        if (tableModel.getCriterio() != OrdenCatalogo.Criterio.CATALOGO && !nucleo.getOrden().listo()) {
+            texto += "  (ordenando catálogo...)";
+        }
+        etiquetaPagina.setText(texto);
+    }
+
+    // Calcula una sola vez, cuando cambia el estado, qué posiciones del catálogo tiene prestadas el usuario con sesión.
+    // Así el renderer solo compara unos pocos enteros por celda en lugar de buscar los préstamos y comparar códigos.
+    private void actualizarResaltado() {
+        if (renderEstado == null) {
+            return;
+        }
+        Usuario usuario = usuarioLogueado;
+        List<Prestamo> prestamos = usuario == null ? Collections.emptyList() : usuario.getPrestamos();
+        int[] posiciones = new int[prestamos.size()];
+        int cuantas = 0;
+        for (Prestamo prestamo : prestamos) {
+            int posicion = inventario.posicionDe(prestamo.getCodigoLibro());
+            if (posicion >= 0 && cuantas < posiciones.length) {
+                posiciones[cuantas++] = posicion;
+            }
+        }
+        posiciones = Arrays.copyOf(posiciones, cuantas);
+        if (!Arrays.equals(posiciones, renderEstado.getPosicionesResaltadas())) {
+            renderEstado.setPosicionesResaltadas(posiciones);
+            tablaInventario.repaint();
+        }
+    }
+
+    // Repinta de una vez los libros que cambiaron de estado o se dieron de alta desde el último fotograma (desde la
+    // ventana o desde la API). La llama RepintadoAgrupado en el hilo de Swing.
+    private void repintarLibros(Set<String> codigos) {
+        if (tableModel != null) {
+            int total = inventario.tamano();
+            if (total > librosEnTabla) {
+                tableModel.librosAgregados(librosEnTabla, total - 1); // Las altas siempre van al final del catálogo.
+                librosEnTabla = total;
+                actualizarEtiquetaPagina(); // Aunque las filas nuevas caigan en otra página, cambia el total.
             }
+            actualizarResaltado();
+            tableModel.librosActualizados(codigos);
         }
-        return null; // Devuelve null si no encuentra ningún libro con ese código.
     }
 
-    // Carga los datos iniciales de la aplicación.
-    private void inicializarInventario() {
-        // Añade los 10 libros al inventario.
-        inventario.add(new Libro("LIB001", "Satanás", "Mario Mendoza"));
-        inventario.add(new Libro("LIB002", "Cosas que piensas...", "Amalia Andrade"));
-        inventario.add(new Libro("LIB003", "Los siete maridos de Evelyn Hugo", "Taylor Jenkins Reid"));
-        inventario.add(new Libro("LIB004", "Blue sisters", "Coco Mellors"));
-        inventario.add(new Libro("LIB005", "Cadáver exquisito", "Agustina Bazterrica"));
-        inventario.add(new Libro("LIB006", "Lo que la nieve susurra...", "María Martinez"));
-        inventario.add(new Libro("LIB007", "Lady masacre", "Mario Mendoza"));
-        inventario.add(new Libro("LIB008", "Amarilla", "R. F. Kuang"));
-        inventario.add(new Libro("LIB009", "La cúpula", "Stephen King"));
-        inventario.add(new Libro("LIB010", "Relato de un asesino", "Mario Mendoza"));
+    // Ejecuta "trabajo" fuera del hilo de Swing (para que la ventana no se congele si el servicio espera a un cerrojo
+    // o al disco) y después aplica su resultado en el hilo de Swing. Mientras tanto, los botones de operación quedan
+    // deshabilitados, así que un doble clic no lanza dos veces la misma operación.
+    private <T> void enSegundoPlano(Supplier<T> trabajo, Consumer<T> alTerminar) {
+        habilitarOperaciones(false);
+        trabajador.ejecutar(trabajo, resultado -> {
+            habilitarOperaciones(true);
+            alTerminar.accept(resultado);
+        }, error -> {
+            habilitarOperaciones(true);
+            JOptionPane.showMessageDialog(this, "No se pudo completar la operación:\n" + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+
+    private void habilitarOperaciones(boolean habilitadas) {
+        for (JButton boton : botonesOperacion) {
+            boton.setEnabled(habilitadas);
+        }
+    }
 
-        // Añade un usuario de prueba para facilitar el acceso.
-        Usuario usuarioDePrueba = new Usuario("Usuario Admin", "0000", "01/01/2000", 25, "N/A", "admin@test.com", "admin", "admin");
-        usuarios.add(usuarioDePrueba);
+    // Busca un libro en el inventario por su código (consulta O(1) en el índice del repositorio).
+    private Libro buscarLibroPorCodigo(String codigo) {
+        metricas.contar(MetricasCirculacion.Contador.CONSULTAS_CODIGO);
+        return inventario.buscarPorCodigo(codigo); // Devuelve null si no encuentra ningún libro con ese código.
     }
 
-    // --- Clase interna para personalizar el renderizado de la celda de Estado ---
-    class PrestamoCellRenderer extends javax.swing.table.DefaultTableCellRenderer {
+    // --- Clase anidada para personalizar el renderizado de la celda de Estado ---
+    // Pintar una celda no crea ningún objeto: el color es una constante y los libros del usuario se conocen
+    // de antemano por su posición en el catálogo (la ventana las actualiza con cada cambio de estado).
+    static class PrestamoCellRenderer extends javax.swing.table.DefaultTableCellRenderer {
+        private static final Color VERDE_CLARO = new Color(144, 238, 144);
+
+        private static final int[] NINGUNA = new int[0];
+
+        // Posiciones en el catálogo de los libros prestados al usuario con sesión (pocas: como mucho el límite de préstamos).
+        private int[] posicionesResaltadas = NINGUNA;
+
+        public int[] getPosicionesResaltadas() { return posicionesResaltadas; }
+        public void setPosicionesResaltadas(int... posicionesResaltadas) { this.posicionesResaltadas = posicionesResaltadas; }
+
+        // Indica si una posición es de un libro del usuario (recorrido lineal: el array tiene muy pocos elementos).
+        private boolean resaltada(int posicion) {
+            for (int resaltada : posicionesResaltadas) {
+                if (resaltada == posicion) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         @Override
         public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
             // 1. Llama al método de la superclase para obtener el componente de celda por defecto.
             Component cellComponent = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
 
-            // 2. Obtiene el código del libro de la fila actual (convertida a la vista por si se ordena la tabla).
+            // 2. Obtiene la posición en el catálogo del libro de la fila (convertida a la vista por si se ordena la tabla).
             int modelRow = table.convertRowIndexToModel(row);
-            String codigoLibro = (String) table.getModel().getValueAt(modelRow, 0);
-
-            // 3. Comprueba si el usuario actual tiene este libro prestado.
-            boolean esLibroDelUsuario = false;
-            if (usuarioLogueado != null && usuarioLogueado.tieneLibroPrestado()) {
-                if (usuarioLogueado.getPrestamoActual().getCodigoLibro().equals(codigoLibro)) {
-                    esLibroDelUsuario = true;
-                }
-            }
+            int posicion = ((ModeloTablaInventario) table.getModel()).posicionDeFila(modelRow);
 
-            // 4. Establece el color de fondo basado en el estado y la selección.
-            if (esLibroDelUsuario) {
-                // Si es el libro del usuario, píntalo de verde claro, incluso si está seleccionado.
-                cellComponent.setBackground(new Color(144, 238, 144)); // Verde claro
+            // 3. Establece el color de fondo: verde si es el libro del usuario, incluso si está seleccionado.
+            if (resaltada(posicion)) {
+                cellComponent.setBackground(VERDE_CLARO);
                 cellComponent.setForeground(Color.BLACK); // Texto en negro para legibilidad.
             } else {
                 // Si no es el libro del usuario, usa los colores por defecto.
@@ -566,8 +1187,10 @@ public class BibliotecaGUI extends JFrame {
     public static void main(String[] args) {
         // SwingUtilities.invokeLater es una forma segura de iniciar aplicaciones Swing.
         // Asegura que todo el código de la interfaz gráfica se ejecute en el hilo correcto (Event Dispatch Thread).
+        TiemposArranque tiempos = new TiemposArranque();
+        tiempos.marcar("main");
         SwingUtilities.invokeLater(() -> {
-            BibliotecaGUI ex = new BibliotecaGUI(); // Crea una instancia de nuestra ventana.
+            BibliotecaGUI ex = new BibliotecaGUI(tiempos); // Crea una instancia de nuestra ventana.
             ex.setVisible(true);                  // La hace visible.
         });
     }
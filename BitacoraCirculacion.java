@@ -0,0 +1,308 @@
+// Importamos el reloj (para fechar los eventos) y las colecciones concurrentes de las vistas suscritas.
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * =================================================================================
+ * BITÁCORA DE CIRCULACIÓN (EVENTOS INMUTABLES)
+ * Cada cambio de estado de la circulación queda apuntado como un evento que ya no
+ * se modifica nunca: se registró un usuario, se abrió o se cerró un préstamo, se
+ * aplicó o terminó un veto. Con la secuencia completa se puede saber cómo estaba
+ * todo en cualquier momento, reproduciendo los eventos hasta ese punto.
+ *
+ * El estado "actual" que hace falta consultar a menudo (qué libros están prestados,
+ * qué tiene cada usuario, qué vence cada día) lo mantienen las vistas: cada vista
+ * recibe los eventos según se anotan y actualiza sus propios índices (ver
+ * VistasCirculacion). Una vista nueva se construye reproduciendo la bitácora sin
+ * bloquear a quien anota.
+ *
+ * Anotar no toma ningún cerrojo: cada evento reserva su número de secuencia con
+ * una operación atómica, escribe sus campos y se publica en orden (espera, un
+ * instante, a que se publiquen los reservados antes). Después, el mismo hilo se
+ * lo pasa a las vistas. Los eventos de un mismo libro o usuario llegan a las
+ * vistas en orden, porque el servicio avisa con ese libro o usuario bloqueado;
+ * los de libros y usuarios distintos pueden llegar a la vez.
+ *
+ * Como el historial de préstamos, los eventos se guardan empaquetados: 5 enteros
+ * por evento en segmentos de tamaño fijo, sin un objeto por evento. Los objetos
+ * Evento solo se crean cuando alguien los lee uno a uno.
+ *
+ * La bitácora vive en memoria. Al arrancar se siembra con lo recuperado del disco
+ * (usuarios, el historial de préstamos completo y los vetos en curso), así que las
+ * vistas siempre parten del estado real.
+ * =================================================================================
+ */
+
+// --- Clase BitacoraCirculacion: Secuencia de eventos inmutables y vistas que se mantienen con ellos. ---
+class BitacoraCirculacion implements OyenteCirculacion {
+    // Los tipos de evento.
+    enum Tipo {
+        USUARIO_REGISTRADO, // usuario, día del registro.
+        PRESTAMO_ABIERTO,   // libro, usuario, día del préstamo, fecha límite.
+        PRESTAMO_CERRADO,   // libro, usuario, día de la devolución, fecha límite que tenía.
+        VETO_APLICADO,      // usuario, día en que se aplicó, día en que termina.
+        VETO_EXPIRADO       // usuario, día en que se levantó.
+    }
+
+    private static final Tipo[] TIPOS = Tipo.values();
+    static final int SIN_DATO = -1; // Valor de los campos que un tipo de evento no usa.
+
+    // Lo que recibe una vista por cada evento: los campos sueltos, sin crear objetos.
+    // Las fechas son epoch days; libro es la posición en el catálogo y usuario su número interno.
+    @FunctionalInterface
+    interface Vista {
+        void aplicar(long secuencia, Tipo tipo, int libro, int usuario, int dia, int extra);
+    }
+
+    // Un evento leído de la bitácora (inmutable).
+    static final class Evento {
+        final long secuencia;
+        final Tipo tipo;
+        final int libro, usuario, dia, extra;
+
+        Evento(long secuencia, Tipo tipo, int libro, int usuario, int dia, int extra) {
+            this.secuencia = secuencia;
+            this.tipo = tipo;
+            this.libro = libro;
+            this.usuario = usuario;
+            this.dia = dia;
+            this.extra = extra;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + secuencia + " " + tipo + " libro=" + libro + " usuario=" + usuario +
+                   " dia=" + LocalDate.ofEpochDay(dia) + (extra == SIN_DATO ? "" : " extra=" + LocalDate.ofEpochDay(extra));
+        }
+    }
+
+    private static final int CAMPOS = 5;                   // tipo, libro, usuario, día, extra.
+    private static final int BITS_SEGMENTO = 13;           // 8192 eventos por segmento.
+    private static final int EVENTOS_POR_SEGMENTO = 1 << BITS_SEGMENTO;
+
+    private final CatalogoLibros catalogo; // Para traducir códigos de libro a posiciones.
+    private final Clock reloj;             // Fecha de los eventos que no traen la suya (devoluciones, vetos).
+    private static final long PENDIENTE = Long.MAX_VALUE; // "desde" de una suscripción que aún se está poniendo al día.
+
+    // Una vista suscrita y el primer evento que le toca recibir de quien lo anota (los anteriores los reproduce
+    // agregarVista). Mientras vale PENDIENTE, quien anota espera a que termine de ponerse al día.
+    private static final class Suscripcion {
+        final Vista vista;
+        volatile long desde = PENDIENTE;
+
+        Suscripcion(Vista vista) { this.vista = vista; }
+    }
+
+    private volatile int[][] segmentos = new int[8][];
+    private final AtomicLong reservados = new AtomicLong(); // Números de secuencia ya repartidos.
+    private volatile long total;           // Eventos publicados: los anteriores ya no cambian y se leen sin cerrojo.
+    private final List<Suscripcion> vistas = new CopyOnWriteArrayList<>();
+
+    public BitacoraCirculacion(CatalogoLibros catalogo, Clock reloj) {
+        this.catalogo = catalogo;
+        this.reloj = reloj;
+    }
+
+    // --- Anotar ---
+
+    // Añade un evento al final y se lo pasa a las vistas suscritas. Devuelve su número de secuencia.
+    // No toma cerrojos: el número se reserva con una operación atómica y las vistas se aplican desde este hilo.
+    public long anotar(Tipo tipo, int libro, int usuario, int dia, int extra) {
+        long secuencia = reservados.getAndIncrement();
+        int[] datos = segmento((int) (secuencia >>> BITS_SEGMENTO));
+        int base = (int) (secuencia & (EVENTOS_POR_SEGMENTO - 1)) * CAMPOS;
+        datos[base] = tipo.ordinal();
+        datos[base + 1] = libro;
+        datos[base + 2] = usuario;
+        datos[base + 3] = dia;
+        datos[base + 4] = extra;
+        // Se publica después de escribirlo y en orden: los reservados justo antes están terminando sus cinco campos.
+        for (int vueltas = 0; total != secuencia; vueltas++) {
+            esperar(vueltas);
+        }
+        total = secuencia + 1;
+        for (Suscripcion suscripcion : vistas) {
+            long desde;
+            for (int vueltas = 0; (desde = suscripcion.desde) == PENDIENTE; vueltas++) {
+                esperar(vueltas); // Solo mientras una vista recién suscrita se pone al día.
+            }
+            if (secuencia >= desde) {
+                suscripcion.vista.aplicar(secuencia, tipo, libro, usuario, dia, extra);
+            }
+        }
+        return secuencia;
+    }
+
+    // Espera activa corta: unas vueltas sin soltar la CPU y después cediéndola, porque con pocos núcleos el hilo al
+    // que se espera puede no estar corriendo.
+    static void esperar(int vueltas) {
+        if (vueltas < 64) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+    // Segmento número "indice", creándolo si aún no existe. Los existentes no se copian: solo el array que los apunta.
+    private int[] segmento(int indice) {
+        int[][] actuales = segmentos;
+        return indice < actuales.length && actuales[indice] != null ? actuales[indice] : crearSegmento(indice);
+    }
+
+    private synchronized int[] crearSegmento(int indice) {
+        int[][] actuales = segmentos;
+        if (indice >= actuales.length) {
+            actuales = Arrays.copyOf(actuales, Math.max(indice + 1, actuales.length * 2));
+        } else if (actuales[indice] != null) {
+            return actuales[indice];
+        } else {
+            actuales = actuales.clone();
+        }
+        actuales[indice] = new int[EVENTOS_POR_SEGMENTO * CAMPOS];
+        segmentos = actuales;
+        return actuales[indice];
+    }
+
+    // --- Leer (sin cerrojos) ---
+
+    // Número de eventos anotados.
+    public long tamano() { return total; }
+
+    // Lee un evento ya anotado.
+    public Evento leer(long secuencia) {
+        if (secuencia < 0 || secuencia >= total) {
+            throw new IndexOutOfBoundsException("Evento " + secuencia + " fuera de la bitácora (" + total + " eventos).");
+        }
+        int[] datos = segmentos[(int) (secuencia >>> BITS_SEGMENTO)];
+        int base = (int) (secuencia & (EVENTOS_POR_SEGMENTO - 1)) * CAMPOS;
+        return new Evento(secuencia, TIPOS[datos[base]], datos[base + 1], datos[base + 2], datos[base + 3], datos[base + 4]);
+    }
+
+    // Pasa a una vista los eventos [desde, hasta). No bloquea a quien anota: solo lee eventos ya publicados.
+    public void reproducir(long desde, long hasta, Vista vista) {
+        long limite = Math.min(hasta, total);
+        int[][] actuales = segmentos;
+        for (long secuencia = Math.max(0, desde); secuencia < limite; secuencia++) {
+            int[] datos = actuales[(int) (secuencia >>> BITS_SEGMENTO)];
+            int base = (int) (secuencia & (EVENTOS_POR_SEGMENTO - 1)) * CAMPOS;
+            vista.aplicar(secuencia, TIPOS[datos[base]], datos[base + 1], datos[base + 2], datos[base + 3], datos[base + 4]);
+        }
+    }
+
+    // Construye una vista con el estado que había justo antes del evento "hasta" (reconstrucción en el tiempo).
+    public <V extends Vista> V reconstruir(long hasta, V vista) {
+        reproducir(0, hasta, vista);
+        return vista;
+    }
+
+    // Suscribe una vista nueva: primero se pone al día reproduciendo la bitácora (lo largo), sin frenar a nadie.
+    // Después se suscribe y fija un corte: los eventos anteriores los reproduce ella misma y los siguientes se los
+    // pasa quien los anota, que espera a que termine la reproducción para que no le lleguen desordenados.
+    public <V extends Vista> V agregarVista(V vista) {
+        long hecho = total;
+        reproducir(0, hecho, vista);
+        Suscripcion suscripcion = new Suscripcion(vista);
+        vistas.add(suscripcion);
+        long corte = reservados.get(); // Quien reserve a partir de aquí ya ve la suscripción.
+        for (int vueltas = 0; total < corte; vueltas++) {
+            esperar(vueltas); // Los eventos anteriores al corte ya reservados terminan de publicarse.
+        }
+        reproducir(hecho, corte, vista);
+        suscripcion.desde = corte;
+        return vista;
+    }
+
+    // --- Sembrar con el estado recuperado del disco ---
+
+    // Anota el estado de partida: cada usuario, todos sus préstamos pasados y activos (sacados del historial
+    // empaquetado, para que las vistas que cuentan préstamos no empiecen de cero en cada arranque) y los vetos
+    // en curso. Se llama al arrancar, antes de que empiece la circulación.
+    public void sembrar(RepositorioUsuarios usuarios) {
+        int hoy = hoy();
+        List<Usuario> todos = usuarios.todos();
+        for (Usuario u : todos) {
+            anotar(Tipo.USUARIO_REGISTRADO, SIN_DATO, u.getNumero(), hoy, SIN_DATO);
+        }
+
+        // Los registros del historial están en orden de préstamo; las devoluciones se ordenan aparte por
+        // (día, registro) y se van intercalando, para que cada libro se cierre antes de volver a prestarse.
+        HistorialPrestamos historial = usuarios.getHistorial();
+        int registros = historial.tamano();
+        long[] cierres = new long[registros];
+        int totalCierres = 0;
+        for (int r = 0; r < registros; r++) {
+            int devolucion = historial.leer(r, HistorialPrestamos.DEVOLUCION);
+            if (devolucion != HistorialPrestamos.SIN_DEVOLVER) {
+                cierres[totalCierres++] = ((long) devolucion << 32) | r;
+            }
+        }
+        Arrays.sort(cierres, 0, totalCierres);
+        int siguienteCierre = 0;
+        for (int r = 0; r < registros; r++) {
+            long limite = ((long) historial.leer(r, HistorialPrestamos.INICIO) << 32) | r;
+            while (siguienteCierre < totalCierres && cierres[siguienteCierre] < limite) {
+                anotarCierre(historial, cierres[siguienteCierre++]);
+            }
+            anotar(Tipo.PRESTAMO_ABIERTO, historial.leer(r, HistorialPrestamos.LIBRO), historial.leer(r, HistorialPrestamos.USUARIO),
+                    historial.leer(r, HistorialPrestamos.INICIO), historial.leer(r, HistorialPrestamos.VENCE));
+        }
+        while (siguienteCierre < totalCierres) {
+            anotarCierre(historial, cierres[siguienteCierre++]);
+        }
+
+        for (Usuario u : todos) {
+            // Préstamos sin registro en el historial (datos guardados antes de que existiera).
+            for (Prestamo p : u.getPrestamos()) {
+                if (p.getRegistroHistorial() < 0) {
+                    anotar(Tipo.PRESTAMO_ABIERTO, catalogo.posicionDe(p.getCodigoLibro()), u.getNumero(),
+                            (int) p.getFechaPrestamo().toEpochDay(), (int) p.getFechaDevolucion().toEpochDay());
+                }
+            }
+            LocalDate finVeto = u.getFechaFinVeto();
+            if (u.isEstaVetado() && finVeto != null) {
+                anotar(Tipo.VETO_APLICADO, SIN_DATO, u.getNumero(), hoy, (int) finVeto.toEpochDay());
+            }
+        }
+    }
+
+    // Anota la devolución de un registro del historial; "cierre" es (día << 32 | registro).
+    private void anotarCierre(HistorialPrestamos historial, long cierre) {
+        int registro = (int) cierre;
+        anotar(Tipo.PRESTAMO_CERRADO, historial.leer(registro, HistorialPrestamos.LIBRO), historial.leer(registro, HistorialPrestamos.USUARIO),
+                (int) (cierre >>> 32), historial.leer(registro, HistorialPrestamos.VENCE));
+    }
+
+    private int hoy() { return (int) LocalDate.now(reloj).toEpochDay(); }
+
+    // --- Oyente: el servicio avisa de cada cambio con el libro o el usuario aún bloqueado ---
+
+    @Override
+    public void usuarioRegistrado(Usuario usuario) {
+        anotar(Tipo.USUARIO_REGISTRADO, SIN_DATO, usuario.getNumero(), hoy(), SIN_DATO);
+    }
+
+    @Override
+    public void prestamoRealizado(Usuario usuario, Libro libro, Prestamo prestamo) {
+        anotar(Tipo.PRESTAMO_ABIERTO, catalogo.posicionDe(prestamo.getCodigoLibro()), usuario.getNumero(),
+                (int) prestamo.getFechaPrestamo().toEpochDay(), (int) prestamo.getFechaDevolucion().toEpochDay());
+    }
+
+    @Override
+    public void devolucionRealizada(Usuario usuario, Libro libro, Prestamo prestamo, LocalDate finVeto) {
+        int hoy = hoy();
+        anotar(Tipo.PRESTAMO_CERRADO, catalogo.posicionDe(prestamo.getCodigoLibro()), usuario.getNumero(),
+                hoy, (int) prestamo.getFechaDevolucion().toEpochDay());
+        if (finVeto != null) {
+            anotar(Tipo.VETO_APLICADO, SIN_DATO, usuario.getNumero(), hoy, (int) finVeto.toEpochDay());
+        }
+    }
+
+    @Override
+    public void vetoExpirado(Usuario usuario) {
+        anotar(Tipo.VETO_EXPIRADO, SIN_DATO, usuario.getNumero(), hoy(), SIN_DATO);
+    }
+}
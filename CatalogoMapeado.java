@@ -0,0 +1,365 @@
+// Importamos las clases de E/S y de ficheros mapeados en memoria que usa el catálogo en disco.
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * =================================================================================
+ * CATÁLOGO COLUMNAR MAPEADO EN MEMORIA
+ * Para catálogos de millones de títulos, los libros no se guardan como objetos en
+ * el heap. El fichero "catalogo.img" se mapea en memoria y contiene:
+ *   - una cabecera,
+ *   - una tabla de entradas de ancho fijo (desplazamiento y longitudes de
+ *     código, título y autor de cada libro),
+ *   - una tabla hash por código (direccionamiento abierto),
+ *   - los órdenes por código, título y autor ya calculados (desde la versión 2),
+ *   - un montón ("heap") con todos los textos en UTF-8.
+ * Con los órdenes en el fichero, el inventario se puede mostrar ordenado nada más
+ * arrancar, sin ordenar un millón de títulos cada vez que se abre la aplicación.
+ * El estado de préstamo vive en un bitset compacto en memoria. Los objetos Libro
+ * solo se crean como vistas ligeras cuando se muestran o se prestan, y abrir el
+ * catálogo no requiere leer ni interpretar el fichero.
+ * =================================================================================
+ */
+
+// --- Clase CatalogoMapeado: Catálogo de solo lectura en disco + libros añadidos después en memoria. ---
+class CatalogoMapeado implements CatalogoLibros {
+    static final String NOMBRE_FICHERO = "catalogo.img";
+
+    private static final int MAGIA = 0x42494243;  // "BIBC": identifica el fichero de catálogo.
+    private static final int VERSION = 2;         // La versión 1 no trae los órdenes; se sigue pudiendo abrir.
+    private static final int TAM_CABECERA = 16;   // magia, versión, número de libros y capacidad de la tabla hash.
+    private static final int TAM_ENTRADA = 12;    // int desplazamiento + 3 short de longitudes + 2 bytes de relleno.
+    private static final int MAX_LONGITUD = 0xFFFF; // Cada texto puede ocupar como máximo 65535 bytes en UTF-8.
+
+    private final MappedByteBuffer mapa;      // El fichero completo mapeado en memoria.
+    private final int totalImagen;            // Número de libros que hay en el fichero.
+    private final int capacidadHash;          // Tamaño (potencia de 2) de la tabla hash por código.
+    private final int inicioHash;             // Posición de la tabla hash dentro del fichero.
+    private final int inicioOrdenes;          // Posición de los órdenes por campo, o -1 si la imagen no los trae.
+    private final int inicioTextos;           // Posición del montón de textos dentro del fichero.
+    private final AtomicLongArray prestados;  // Bitset: el bit N indica si el libro N de la imagen está prestado.
+    private final RepositorioLibros anadidos = new RepositorioLibros(); // Libros dados de alta después de generar la imagen.
+
+    // Constructor privado: se usa abrir() para mapear un fichero existente.
+    private CatalogoMapeado(MappedByteBuffer mapa) throws IOException {
+        this.mapa = mapa;
+        int version = mapa.getInt(4);
+        if (mapa.getInt(0) != MAGIA || version < 1 || version > VERSION) {
+            throw new IOException("El fichero no es un catálogo de la biblioteca reconocido.");
+        }
+        this.totalImagen = mapa.getInt(8);
+        this.capacidadHash = mapa.getInt(12);
+        this.inicioHash = TAM_CABECERA + totalImagen * TAM_ENTRADA;
+        int finHash = inicioHash + capacidadHash * 4;
+        this.inicioOrdenes = version >= 2 ? finHash : -1;
+        this.inicioTextos = version >= 2 ? finHash + 3 * totalImagen * 4 : finHash;
+        this.prestados = new AtomicLongArray((totalImagen + 63) / 64);
+    }
+
+    // Mapea un fichero de catálogo. No se lee nada más que la cabecera, así que es instantáneo.
+    public static CatalogoMapeado abrir(Path fichero) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            return new CatalogoMapeado(canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()));
+        }
+    }
+
+    // Devuelve el catálogo del directorio de datos: el mapeado si existe "catalogo.img", o uno vacío en memoria.
+    public static CatalogoLibros abrirODefecto(Path directorio) throws IOException {
+        Path fichero = directorio.resolve(NOMBRE_FICHERO);
+        return Files.exists(fichero) ? abrir(fichero) : new RepositorioLibros();
+    }
+
+    // --- Operaciones del catálogo ---
+
+    @Override
+    public boolean agregar(Libro libro) {
+        if (buscarEnImagen(libro.getCodigo()) >= 0) {
+            return false; // El código ya existe en la imagen.
+        }
+        return anadidos.agregar(libro);
+    }
+
+    @Override
+    public Libro buscarPorCodigo(String codigo) {
+        int posicion = posicionDe(codigo);
+        return posicion < 0 ? null : obtener(posicion);
+    }
+
+    @Override
+    public int posicionDe(String codigo) {
+        int posicion = buscarEnImagen(codigo);
+        if (posicion >= 0) {
+            return posicion;
+        }
+        int enAnadidos = anadidos.posicionDe(codigo);
+        return enAnadidos < 0 ? -1 : totalImagen + enAnadidos;
+    }
+
+    // Las posiciones de la imagen devuelven una vista; las posteriores, el libro guardado en memoria.
+    @Override
+    public Libro obtener(int posicion) {
+        if (posicion < totalImagen) {
+            return new LibroMapeado(this, posicion);
+        }
+        return anadidos.obtener(posicion - totalImagen);
+    }
+
+    @Override
+    public int tamano() { return totalImagen + anadidos.tamano(); }
+
+    @Override
+    public int librosEnImagen() { return totalImagen; }
+
+    // Otro catálogo sobre el mismo mapeo (no se vuelve a abrir el fichero), con sus propios préstamos y añadidos.
+    @Override
+    public CatalogoLibros nuevoVacio() {
+        try {
+            return new CatalogoMapeado(mapa);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // No ocurre: la cabecera ya se comprobó al abrirlo.
+        }
+    }
+
+    // Copia del orden guardado en el fichero (unos milisegundos incluso con un millón de libros).
+    @Override
+    public int[] ordenEnImagen(int campo) {
+        if (inicioOrdenes < 0) {
+            return null;
+        }
+        int[] orden = new int[totalImagen];
+        mapa.slice(inicioOrdenes + campo * totalImagen * 4, totalImagen * 4).asIntBuffer().get(orden);
+        return orden;
+    }
+
+    // --- Acceso a las columnas del fichero ---
+
+    // Lee el texto número "campo" (0 = código, 1 = título, 2 = autor) del libro en una posición de la imagen.
+    String leerCampo(int posicion, int campo) {
+        int entrada = TAM_CABECERA + posicion * TAM_ENTRADA;
+        int desplazamiento = inicioTextos + mapa.getInt(entrada);
+        for (int i = 0; i < campo; i++) {
+            desplazamiento += Short.toUnsignedInt(mapa.getShort(entrada + 4 + i * 2)); // Salta los campos anteriores.
+        }
+        byte[] bytes = new byte[Short.toUnsignedInt(mapa.getShort(entrada + 4 + campo * 2))];
+        mapa.get(desplazamiento, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Consulta el bit de préstamo de un libro de la imagen.
+    boolean prestadoEnImagen(int posicion) {
+        return (prestados.get(posicion >>> 6) & (1L << posicion)) != 0;
+    }
+
+    // Estado de préstamo sin crear la vista del libro: en la imagen basta con leer el bit.
+    @Override
+    public boolean estaPrestado(int posicion) {
+        return posicion < totalImagen ? prestadoEnImagen(posicion) : anadidos.obtener(posicion - totalImagen).isEstaPrestado();
+    }
+
+    // Autor sin crear la vista del libro: en la imagen solo se decodifica esa columna.
+    @Override
+    public String autorDe(int posicion) {
+        return posicion < totalImagen ? leerCampo(posicion, 2) : anadidos.obtener(posicion - totalImagen).getAutor();
+    }
+
+    // Cambia el bit de préstamo de un libro de la imagen (CAS, porque varios libros comparten la misma palabra).
+    void marcarPrestado(int posicion, boolean prestado) {
+        int palabra = posicion >>> 6;
+        long bit = 1L << posicion;
+        long actual;
+        do {
+            actual = prestados.get(palabra);
+        } while (!prestados.compareAndSet(palabra, actual, prestado ? actual | bit : actual & ~bit));
+    }
+
+    // Busca un código en la tabla hash del fichero. Devuelve su posición o -1.
+    private int buscarEnImagen(String codigo) {
+        if (totalImagen == 0) {
+            return -1;
+        }
+        byte[] clave = codigo.getBytes(StandardCharsets.UTF_8);
+        int mascara = capacidadHash - 1;
+        for (int ranura = hash(clave) & mascara; ; ranura = (ranura + 1) & mascara) {
+            int valor = mapa.getInt(inicioHash + ranura * 4); // Posición + 1; 0 significa ranura vacía.
+            if (valor == 0) {
+                return -1;
+            }
+            if (codigoIgual(valor - 1, clave)) {
+                return valor - 1;
+            }
+        }
+    }
+
+    // Compara el código de un libro de la imagen con una clave en UTF-8, sin crear objetos String.
+    private boolean codigoIgual(int posicion, byte[] clave) {
+        int entrada = TAM_CABECERA + posicion * TAM_ENTRADA;
+        if (Short.toUnsignedInt(mapa.getShort(entrada + 4)) != clave.length) {
+            return false;
+        }
+        int desplazamiento = inicioTextos + mapa.getInt(entrada);
+        for (int i = 0; i < clave.length; i++) {
+            if (mapa.get(desplazamiento + i) != clave[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Hash FNV-1a sobre los bytes del código.
+    private static int hash(byte[] bytes) {
+        int h = 0x811C9DC5;
+        for (byte b : bytes) {
+            h ^= b & 0xFF;
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    // --- Generación de la imagen ---
+
+    // Escribe un fichero de catálogo con todos los libros de "fuente", en el mismo orden, y sus órdenes por campo.
+    // Se escribe en un temporal y se renombra al final, para no dejar nunca una imagen a medias.
+    public static void escribirImagen(Path fichero, CatalogoLibros fuente) throws IOException {
+        int total = fuente.tamano();
+        int capacidad = Integer.highestOneBit(Math.max(2, total * 2 - 1)) << 1; // Factor de carga <= 0.5.
+        int[] desplazamientos = new int[total];
+        short[] longitudes = new short[total * 3];
+        int[] tablaHash = new int[capacidad];
+
+        // Primera pasada: longitudes, desplazamientos en el montón y tabla hash.
+        long tamMonton = 0;
+        for (int i = 0; i < total; i++) {
+            Libro libro = fuente.obtener(i);
+            byte[] codigo = libro.getCodigo().getBytes(StandardCharsets.UTF_8);
+            int lc = codigo.length;
+            int lt = longitudUtf8(libro.getTitulo());
+            int la = longitudUtf8(libro.getAutor());
+            desplazamientos[i] = (int) tamMonton;
+            longitudes[i * 3] = (short) lc;
+            longitudes[i * 3 + 1] = (short) lt;
+            longitudes[i * 3 + 2] = (short) la;
+            tamMonton += lc + lt + la;
+            if (tamMonton > Integer.MAX_VALUE) {
+                throw new IOException("El catálogo es demasiado grande para una sola imagen.");
+            }
+            int ranura = hash(codigo) & (capacidad - 1);
+            while (tablaHash[ranura] != 0) {
+                ranura = (ranura + 1) & (capacidad - 1);
+            }
+            tablaHash[ranura] = i + 1;
+        }
+        // Los órdenes se calculan igual que al arrancar, así que el resultado es idéntico al de ordenar en memoria.
+        OrdenCatalogo orden = new OrdenCatalogo(fuente);
+        orden.sincronizar();
+
+        Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal), 1 << 16))) {
+            out.writeInt(MAGIA);
+            out.writeInt(VERSION);
+            out.writeInt(total);
+            out.writeInt(capacidad);
+            for (int i = 0; i < total; i++) {
+                out.writeInt(desplazamientos[i]);
+                out.writeShort(longitudes[i * 3]);
+                out.writeShort(longitudes[i * 3 + 1]);
+                out.writeShort(longitudes[i * 3 + 2]);
+                out.writeShort(0); // Relleno para que cada entrada ocupe 12 bytes.
+            }
+            for (int valor : tablaHash) {
+                out.writeInt(valor);
+            }
+            for (int campo = 0; campo < 3; campo++) {
+                for (int posicion : orden.permutacion(campo)) {
+                    out.writeInt(posicion);
+                }
+            }
+            // Segunda pasada: los textos, uno detrás de otro.
+            for (int i = 0; i < total; i++) {
+                Libro libro = fuente.obtener(i);
+                out.write(libro.getCodigo().getBytes(StandardCharsets.UTF_8));
+                out.write(libro.getTitulo().getBytes(StandardCharsets.UTF_8));
+                out.write(libro.getAutor().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+            canal.force(true);
+        }
+        Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Longitud en bytes UTF-8 de un texto, comprobando que cabe en una entrada.
+    private static int longitudUtf8(String texto) throws IOException {
+        int longitud = texto.getBytes(StandardCharsets.UTF_8).length;
+        if (longitud > MAX_LONGITUD) {
+            throw new IOException("Texto demasiado largo para el catálogo: " + texto.substring(0, 40) + "...");
+        }
+        return longitud;
+    }
+
+    // --- Herramienta de línea de comandos ---
+
+    // Genera "catalogo.img" en el directorio de datos con todos los libros actuales y reescribe la instantánea
+    // para que ya no los incluya. Debe ejecutarse con la aplicación cerrada:
+    //   java CatalogoMapeado [directorio-de-datos]
+    public static void main(String[] args) throws IOException {
+        Path directorio = args.length > 0 ? Path.of(args[0]) : AlmacenPersistente.directorioPorDefecto();
+        CatalogoLibros actual = abrirODefecto(directorio);
+        RepositorioUsuarios usuarios = new RepositorioUsuarios();
+        AlmacenPersistente almacen = new AlmacenPersistente(directorio, actual, usuarios);
+        almacen.recuperar();
+
+        Path fichero = directorio.resolve(NOMBRE_FICHERO);
+        Path nuevo = directorio.resolve(NOMBRE_FICHERO + ".nuevo");
+        escribirImagen(nuevo, actual);
+        CatalogoMapeado mapeado = abrir(nuevo);
+        for (int i = 0; i < actual.tamano(); i++) {
+            if (actual.obtener(i).isEstaPrestado()) {
+                mapeado.marcarPrestado(i, true); // Se conserva qué libros están prestados.
+            }
+        }
+
+        // Primero se cierra el almacén viejo (vacía el diario) y luego la instantánea pasa a referirse a la imagen nueva.
+        almacen.cerrar();
+        Files.move(nuevo, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        new AlmacenPersistente(directorio, mapeado, usuarios).escribirInstantaneaDirecta();
+        System.out.println("Catálogo generado: " + mapeado.tamano() + " libros en " + fichero);
+    }
+}
+
+// --- Clase LibroMapeado: Vista ligera de un libro guardado en el catálogo mapeado. ---
+// No copia los textos: cada getter los lee del fichero en el momento en que se necesitan.
+class LibroMapeado extends Libro {
+    private final CatalogoMapeado catalogo; // Catálogo del que se leen los datos.
+    private final int posicion;             // Posición del libro dentro de la imagen.
+
+    LibroMapeado(CatalogoMapeado catalogo, int posicion) {
+        super(null, null, null);
+        this.catalogo = catalogo;
+        this.posicion = posicion;
+    }
+
+    @Override
+    public String getCodigo() { return catalogo.leerCampo(posicion, 0); }
+
+    @Override
+    public String getTitulo() { return catalogo.leerCampo(posicion, 1); }
+
+    @Override
+    public String getAutor() { return catalogo.leerCampo(posicion, 2); }
+
+    @Override
+    public boolean isEstaPrestado() { return catalogo.prestadoEnImagen(posicion); }
+
+    @Override
+    public void setEstaPrestado(boolean estaPrestado) { catalogo.marcarPrestado(posicion, estaPrestado); }
+}
@@ -0,0 +1,113 @@
+// Importamos Swing (para volver a su hilo), los ejecutores y las colecciones concurrentes que usan las dos clases.
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/*
+ * =================================================================================
+ * TRABAJO FUERA DEL HILO DE SWING
+ * Todo lo que pinta la ventana ocurre en un único hilo (el Event Dispatch Thread).
+ * Si un botón hace ahí mismo el préstamo, la devolución, el login o el registro,
+ * la ventana se congela mientras el servicio espera a un cerrojo o al disco.
+ *
+ * EjecutorSegundoPlano lleva ese trabajo a otros hilos (virtuales si la JVM los
+ * tiene) y devuelve el resultado al hilo de Swing para mostrarlo. Ese hilo solo lee
+ * los campos del formulario antes y enseña el resultado después.
+ *
+ * RepintadoAgrupado junta los cambios de filas que llegan seguidos (desde la
+ * ventana, desde la API HTTP o desde el planificador) y los aplica en un solo
+ * repintado cada 16 ms como mucho (60 por segundo): una ráfaga de mil préstamos no
+ * son mil eventos de la tabla sino unos pocos repintados.
+ * =================================================================================
+ */
+
+// --- Clase EjecutorSegundoPlano: Ejecuta trabajos en otros hilos y aplica su resultado en el de Swing. ---
+class EjecutorSegundoPlano {
+    private final ExecutorService hilos;
+
+    public EjecutorSegundoPlano(String nombreHilos) {
+        this.hilos = crearEjecutor(nombreHilos);
+    }
+
+    // Un hilo virtual por tarea si la JVM los soporta (se busca por reflexión para compilar también en Java 17);
+    // si no, un pool de hilos normales que crece según la demanda. Lo usa también el servidor HTTP.
+    static ExecutorService crearEjecutor(String nombreHilos) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, nombreHilos);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // Ejecuta "trabajo" en otro hilo y, en el hilo de Swing, pasa su resultado a "alTerminar"
+    // (o la excepción a "alFallar" si el trabajo falló).
+    public <T> void ejecutar(Supplier<T> trabajo, Consumer<T> alTerminar, Consumer<RuntimeException> alFallar) {
+        hilos.execute(() -> {
+            T resultado;
+            try {
+                resultado = trabajo.get();
+            } catch (RuntimeException e) {
+                SwingUtilities.invokeLater(() -> alFallar.accept(e));
+                return;
+            }
+            SwingUtilities.invokeLater(() -> alTerminar.accept(resultado));
+        });
+    }
+
+    // Deja de aceptar trabajos y espera un poco a que terminen los que están en marcha
+    // (por ejemplo, un préstamo que aún se está anotando en el diario al cerrar la ventana).
+    public void cerrar() {
+        hilos.shutdown();
+        try {
+            hilos.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// --- Clase RepintadoAgrupado: Junta los libros cambiados y los repinta de una vez, como mucho cada 16 ms. ---
+class RepintadoAgrupado {
+    static final int PERIODO_MS = 16; // Un repintado por fotograma a 60 fps.
+
+    private final Set<String> pendientes = ConcurrentHashMap.newKeySet(); // Códigos de libros cambiados desde el último repintado.
+    private final AtomicBoolean programado = new AtomicBoolean();         // Hay un repintado esperando al temporizador.
+    private final Timer temporizador;                                     // Temporizador de Swing: dispara en su hilo.
+
+    // "aplicar" recibe, en el hilo de Swing, los códigos que cambiaron desde la vez anterior.
+    public RepintadoAgrupado(Consumer<Set<String>> aplicar) {
+        temporizador = new Timer(PERIODO_MS, e -> {
+            programado.set(false); // Antes de vaciar: lo que se marque a partir de aquí programa otro repintado.
+            Set<String> lote = new HashSet<>(pendientes);
+            pendientes.removeAll(lote);
+            if (!lote.isEmpty()) {
+                aplicar.accept(lote);
+            }
+        });
+        temporizador.setRepeats(false);
+        // Sin esto, si el temporizador vuelve a vencer mientras aún se aplica un lote grande, Swing descarta ese
+        // disparo y lo marcado después se quedaría sin repintar.
+        temporizador.setCoalesce(false);
+    }
+
+    // Marca un libro como cambiado. Se puede llamar desde cualquier hilo; varios cambios seguidos
+    // (del mismo libro o de otros) se aplican juntos en el siguiente repintado.
+    public void marcar(String codigo) {
+        pendientes.add(codigo);
+        if (programado.compareAndSet(false, true)) {
+            temporizador.restart();
+        }
+    }
+}
@@ -0,0 +1,306 @@
+// Importamos la derivación de claves, los resúmenes criptográficos, el reloj y los mapas que usan las sesiones.
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * =================================================================================
+ * SESIONES Y CREDENCIALES
+ * Las contraseñas ya no se guardan en claro: ClaveCifrada guarda una sal aleatoria
+ * y el resultado de PBKDF2 (HMAC-SHA256, muchas iteraciones), que es lo que se
+ * escribe en el diario y en la instantánea. Comprobar una contraseña cuesta a
+ * propósito unos milisegundos de CPU.
+ *
+ * Para que una avalancha de logins (la apertura de la biblioteca, los quioscos
+ * reconectando) no repita ese cálculo con cada petición, GestorSesiones recuerda
+ * las últimas credenciales que verificó en una caché acotada (se expulsa la usada
+ * hace más tiempo). En la caché no está la contraseña, solo un resumen rápido con
+ * un secreto del proceso. Los intentos fallidos no se guardan: una contraseña
+ * incorrecta paga siempre el cálculo completo.
+ *
+ * Cada login abre una sesión con un token aleatorio; puede haber tantas sesiones
+ * a la vez como se quiera (varias por usuario, por ejemplo la ventana y un
+ * quiosco). Una sesión caduca tras un rato sin usarse; cada uso la renueva. El
+ * reloj es el del servicio, así que en el simulador las sesiones también envejecen.
+ * =================================================================================
+ */
+
+// --- Clase ClaveCifrada: Contraseña guardada con sal y PBKDF2, nunca en claro. ---
+final class ClaveCifrada {
+    private static final String ALGORITMO = "PBKDF2WithHmacSHA256";
+    private static final String PREFIJO = "pbkdf2-sha256$"; // Forma guardada: pbkdf2-sha256$iteraciones$sal$hash (Base64).
+    // Iteraciones para las claves nuevas; se puede cambiar con -Dbiblioteca.clave.iteraciones=N. Cada clave guarda las
+    // suyas, así que subirlas no invalida las que ya existen.
+    static final int ITERACIONES = Integer.getInteger("biblioteca.clave.iteraciones", 100_000);
+    private static final int BYTES_SAL = 16;
+    private static final int BYTES_HASH = 32;
+    private static final SecureRandom AZAR = new SecureRandom();
+
+    private final int iteraciones;
+    private final byte[] sal;
+    private final byte[] hash;
+
+    private ClaveCifrada(int iteraciones, byte[] sal, byte[] hash) {
+        this.iteraciones = iteraciones;
+        this.sal = sal;
+        this.hash = hash;
+    }
+
+    // Cifra una contraseña nueva con una sal aleatoria.
+    static ClaveCifrada cifrar(String password) {
+        byte[] sal = new byte[BYTES_SAL];
+        AZAR.nextBytes(sal);
+        return new ClaveCifrada(ITERACIONES, sal, derivar(password, sal, ITERACIONES));
+    }
+
+    // Clave con sal y hash al azar, que ninguna contraseña cumple. Comprobarla cuesta lo mismo que una clave real,
+    // pero crearla no deriva nada (no retrasa el arranque).
+    static ClaveCifrada deRelleno() {
+        byte[] sal = new byte[BYTES_SAL];
+        byte[] hash = new byte[BYTES_HASH];
+        AZAR.nextBytes(sal);
+        AZAR.nextBytes(hash);
+        return new ClaveCifrada(ITERACIONES, sal, hash);
+    }
+
+    // Reconstruye la clave a partir de su forma guardada. Devuelve null si el texto no tiene esa forma: es una
+    // contraseña en claro de una versión anterior, y quien la lee decide cifrarla.
+    static ClaveCifrada decodificar(String guardada) {
+        if (!guardada.startsWith(PREFIJO)) {
+            return null;
+        }
+        String[] partes = guardada.substring(PREFIJO.length()).split("\\$");
+        try {
+            int iteraciones = Integer.parseInt(partes[0]);
+            byte[] sal = Base64.getDecoder().decode(partes[1]);
+            byte[] hash = Base64.getDecoder().decode(partes[2]);
+            return partes.length == 3 && iteraciones > 0 && hash.length == BYTES_HASH ? new ClaveCifrada(iteraciones, sal, hash) : null;
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) { // NumberFormatException es una IllegalArgumentException.
+            return null;
+        }
+    }
+
+    // Forma en que se guarda en disco.
+    String codificar() {
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIJO + iteraciones + "$" + base64.encodeToString(sal) + "$" + base64.encodeToString(hash);
+    }
+
+    // Comprueba una contraseña (lento a propósito). La comparación tarda lo mismo acierte o no.
+    boolean comprobar(String password) {
+        return MessageDigest.isEqual(hash, derivar(password, sal, iteraciones));
+    }
+
+    // Sal de la clave (la caché de credenciales la mezcla en su resumen rápido).
+    byte[] getSal() { return sal; }
+
+    private static byte[] derivar(String password, byte[] sal, int iteraciones) {
+        char[] caracteres = password.toCharArray();
+        PBEKeySpec especificacion = new PBEKeySpec(caracteres, sal, iteraciones, BYTES_HASH * 8);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITMO).generateSecret(especificacion).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("La JVM no ofrece " + ALGORITMO, e); // Todas las JVM de Java 8+ lo incluyen.
+        } finally {
+            especificacion.clearPassword();
+            Arrays.fill(caracteres, '\0');
+        }
+    }
+}
+
+// --- Clase CacheCredenciales: Últimas credenciales verificadas, con expulsión de la menos usada recientemente. ---
+class CacheCredenciales {
+    // Lo que se recuerda de una credencial correcta: la clave contra la que se verificó y un resumen rápido de la contraseña.
+    private static final class Verificada {
+        final ClaveCifrada clave;
+        final byte[] resumen;
+
+        Verificada(ClaveCifrada clave, byte[] resumen) {
+            this.clave = clave;
+            this.resumen = resumen;
+        }
+    }
+
+    private final byte[] secreto = new byte[32]; // Secreto aleatorio del proceso: el resumen no sirve fuera de él.
+    private final Map<Integer, Verificada> entradas; // Número de usuario -> credencial verificada, en orden de uso (LRU).
+
+    public CacheCredenciales(int capacidad) {
+        new SecureRandom().nextBytes(secreto);
+        this.entradas = new LinkedHashMap<Integer, Verificada>(Math.min(capacidad, 1024) * 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Verificada> eldest) {
+                return size() > capacidad;
+            }
+        };
+    }
+
+    // Comprueba la contraseña de un usuario: si ya se verificó hace poco con la misma clave guardada y el resumen
+    // rápido coincide, se acepta; en cualquier otro caso se hace la comprobación lenta y, si acierta, se recuerda.
+    // La caché solo sirve para aceptar: una contraseña incorrecta cuesta lo mismo esté o no el usuario en ella, así
+    // que ni se puede probar contraseñas a la velocidad del resumen ni se nota quién inició sesión hace poco.
+    public boolean comprobar(Usuario usuario, String password) {
+        ClaveCifrada clave = usuario.getClave();
+        byte[] resumen = resumir(clave, password);
+        Verificada conocida;
+        synchronized (entradas) {
+            conocida = entradas.get(usuario.getNumero());
+        }
+        if (conocida != null && conocida.clave == clave && MessageDigest.isEqual(conocida.resumen, resumen)) {
+            return true; // Si la clave guardada cambió, la entrada ya no vale.
+        }
+        if (!clave.comprobar(password)) { // Fuera del cerrojo: varios logins lentos pueden ir a la vez.
+            return false;
+        }
+        synchronized (entradas) {
+            entradas.put(usuario.getNumero(), new Verificada(clave, resumen));
+        }
+        return true;
+    }
+
+    // Olvida la credencial de un usuario (por ejemplo, al cambiar su contraseña).
+    public void olvidar(Usuario usuario) {
+        synchronized (entradas) {
+            entradas.remove(usuario.getNumero());
+        }
+    }
+
+    public int tamano() {
+        synchronized (entradas) {
+            return entradas.size();
+        }
+    }
+
+    // SHA-256 de secreto + sal + contraseña: microsegundos frente a los milisegundos de PBKDF2.
+    private byte[] resumir(ClaveCifrada clave, String password) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(secreto);
+            sha.update(clave.getSal());
+            return sha.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e); // SHA-256 está en todas las JVM.
+        }
+    }
+}
+
+// --- Clase GestorSesiones: Login con caché de credenciales y sesiones con token y caducidad. ---
+class GestorSesiones {
+    static final Duration INACTIVIDAD_MAXIMA = Duration.ofMinutes(30); // Sin usarse este tiempo, la sesión caduca.
+    static final int CREDENCIALES_EN_CACHE = 10_000;                     // Usuarios cuya contraseña se recuerda verificada.
+    private static final int ALTAS_ENTRE_LIMPIEZAS = 1024;              // Cada cuántas sesiones nuevas se retiran las caducadas.
+
+    // Una sesión abierta: el usuario y hasta cuándo vale si no se vuelve a usar.
+    static final class Sesion {
+        final String token;
+        final Usuario usuario;
+        volatile long caducaEn; // Milisegundos del reloj del servicio.
+
+        Sesion(String token, Usuario usuario, long caducaEn) {
+            this.token = token;
+            this.usuario = usuario;
+            this.caducaEn = caducaEn;
+        }
+    }
+
+    private final RepositorioUsuarios usuarios;
+    private final Clock reloj;
+    private final long inactividadMaxima; // En milisegundos.
+    private final CacheCredenciales credenciales;
+    private final ConcurrentHashMap<String, Sesion> sesiones = new ConcurrentHashMap<>(); // Token -> sesión abierta.
+    private final AtomicInteger altasDesdeLimpieza = new AtomicInteger();
+    private final SecureRandom azar = new SecureRandom();
+    // Clave de relleno para los usernames que no existen: así un login tarda lo mismo exista o no el usuario.
+    private final ClaveCifrada claveDeRelleno = ClaveCifrada.deRelleno();
+
+    public GestorSesiones(RepositorioUsuarios usuarios, Clock reloj) {
+        this(usuarios, reloj, INACTIVIDAD_MAXIMA, CREDENCIALES_EN_CACHE);
+    }
+
+    public GestorSesiones(RepositorioUsuarios usuarios, Clock reloj, Duration inactividadMaxima, int credencialesEnCache) {
+        this.usuarios = usuarios;
+        this.reloj = reloj;
+        this.inactividadMaxima = inactividadMaxima.toMillis();
+        this.credenciales = new CacheCredenciales(credencialesEnCache);
+    }
+
+    // Comprueba usuario y contraseña (con la caché). Devuelve el usuario, o null si no coinciden.
+    public Usuario autenticar(String username, String password) {
+        Usuario usuario = usuarios.buscarPorUsername(username);
+        if (usuario == null) {
+            claveDeRelleno.comprobar(password); // Mismo coste que un usuario real con la contraseña equivocada.
+            return null;
+        }
+        return credenciales.comprobar(usuario, password) ? usuario : null;
+    }
+
+    // Comprueba las credenciales y, si son correctas, abre una sesión nueva. Devuelve null si no lo son.
+    public Sesion iniciar(String username, String password) {
+        Usuario usuario = autenticar(username, password);
+        if (usuario == null) {
+            return null;
+        }
+        byte[] bytes = new byte[24];
+        azar.nextBytes(bytes);
+        Sesion sesion = new Sesion(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes), usuario,
+                reloj.millis() + inactividadMaxima);
+        sesiones.put(sesion.token, sesion);
+        if (altasDesdeLimpieza.incrementAndGet() >= ALTAS_ENTRE_LIMPIEZAS) {
+            altasDesdeLimpieza.set(0);
+            retirarCaducadas(); // Las sesiones que nadie cerró no se acumulan para siempre.
+        }
+        return sesion;
+    }
+
+    // Usuario de una sesión abierta, o null si el token no existe o la sesión caducó. Cada uso renueva la sesión.
+    public Usuario usuarioDe(String token) {
+        Sesion sesion = token == null ? null : sesiones.get(token);
+        if (sesion == null) {
+            return null;
+        }
+        long ahora = reloj.millis();
+        if (sesion.caducaEn <= ahora) {
+            sesiones.remove(token, sesion);
+            return null;
+        }
+        sesion.caducaEn = ahora + inactividadMaxima; // Si dos peticiones la renuevan a la vez, gana cualquiera: valen casi lo mismo.
+        return sesion.usuario;
+    }
+
+    // Cierra una sesión. Devuelve false si no existía (o ya había caducado).
+    public boolean cerrar(String token) {
+        Sesion sesion = token == null ? null : sesiones.remove(token);
+        return sesion != null && sesion.caducaEn > reloj.millis();
+    }
+
+    // Quita todas las sesiones caducadas y devuelve cuántas eran.
+    public int retirarCaducadas() {
+        long ahora = reloj.millis();
+        int retiradas = 0;
+        for (Iterator<Sesion> it = sesiones.values().iterator(); it.hasNext(); ) {
+            if (it.next().caducaEn <= ahora) {
+                it.remove();
+                retiradas++;
+            }
+        }
+        return retiradas;
+    }
+
+    // Sesiones abiertas (puede incluir alguna caducada que aún no se ha retirado).
+    public int sesionesAbiertas() { return sesiones.size(); }
+
+    public CacheCredenciales getCredenciales() { return credenciales; }
+}
@@ -0,0 +1,170 @@
+// Importamos la E/S binaria (para guardarlo en la instantánea), las utilidades de arrays para crecer y los
+// atómicos con los que se añade sin cerrojo.
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/*
+ * =================================================================================
+ * HISTORIAL DE PRÉSTAMOS EMPAQUETADO
+ * Guarda todos los préstamos que se han hecho, sin un objeto por préstamo: cada
+ * registro son 6 enteros seguidos dentro de segmentos de tamaño fijo:
+ *
+ *   [libro, usuario, inicio, vence, devolución, anterior]
+ *
+ *   libro      posición del libro en el catálogo (estable entre arranques).
+ *   usuario    número interno del usuario (orden de registro).
+ *   inicio     día del préstamo (epoch day).
+ *   vence      fecha límite (epoch day).
+ *   devolución día en que se devolvió, o SIN_DEVOLVER si sigue prestado.
+ *   anterior   registro anterior del mismo usuario, o -1 (lista enlazada por usuario).
+ *
+ * Son 24 bytes por préstamo, así que años de circulación caben en unos pocos MB.
+ * Para ver el historial de un usuario se parte de su último registro (lo guarda el
+ * propio Usuario) y se siguen los enlaces hacia atrás: solo se tocan sus préstamos.
+ * Los segmentos nunca se copian al crecer; solo crece el array que los apunta.
+ *
+ * No hay un cerrojo común: cada préstamo reserva su número de registro con una
+ * operación atómica, escribe sus campos y lo publica en orden (espera, un
+ * instante, a que se publiquen los reservados antes). Las lecturas solo ven
+ * registros publicados y no bloquean a nadie. Solo crear un segmento nuevo (uno
+ * cada 4096 préstamos) toma un cerrojo.
+ * =================================================================================
+ */
+
+// --- Clase HistorialPrestamos: Registros de préstamo empaquetados en arrays de enteros. ---
+class HistorialPrestamos {
+    static final int SIN_DEVOLVER = -1;                // Valor de "devolución" mientras el libro sigue prestado.
+    static final int CAMPOS = 6;                       // Enteros por registro.
+    static final int LIBRO = 0, USUARIO = 1, INICIO = 2, VENCE = 3, DEVOLUCION = 4, ANTERIOR = 5;
+
+    private static final int BITS_SEGMENTO = 12;                      // 4096 registros por segmento.
+    private static final int REGISTROS_POR_SEGMENTO = 1 << BITS_SEGMENTO;
+
+    private volatile AtomicIntegerArray[] segmentos = new AtomicIntegerArray[8]; // Segmentos de REGISTROS_POR_SEGMENTO * CAMPOS enteros.
+    private final AtomicInteger reservados = new AtomicInteger(); // Números de registro ya repartidos.
+    private volatile int total;                                   // Registros publicados (0..total-1 ya están escritos).
+
+    // Lo que recibe quien recorre el historial de un usuario: un registro cada vez, sin crear objetos.
+    @FunctionalInterface
+    interface Visitante {
+        void visitar(int registro, int libro, int inicio, int vence, int devolucion);
+    }
+
+    // --- Escritura ---
+
+    // Añade un préstamo al final del historial del usuario y devuelve el número de registro.
+    // Quien llama debe tener bloqueado al usuario (ServicioPrestamos lo hace), para que su lista no se cruce.
+    public int registrarPrestamo(Usuario usuario, int libro, int inicio, int vence) {
+        int registro = agregar(libro, usuario.getNumero(), inicio, vence, SIN_DEVOLVER, usuario.getUltimoRegistroHistorial());
+        usuario.setUltimoRegistroHistorial(registro);
+        return registro;
+    }
+
+    // Añade un registro completo (lo usa también la recuperación desde una instantánea).
+    int agregar(int libro, int usuario, int inicio, int vence, int devolucion, int anterior) {
+        int registro = reservados.getAndIncrement();
+        AtomicIntegerArray datos = segmento(registro >>> BITS_SEGMENTO);
+        int base = (registro & (REGISTROS_POR_SEGMENTO - 1)) * CAMPOS;
+        datos.set(base + LIBRO, libro);
+        datos.set(base + USUARIO, usuario);
+        datos.set(base + INICIO, inicio);
+        datos.set(base + VENCE, vence);
+        datos.set(base + DEVOLUCION, devolucion);
+        datos.set(base + ANTERIOR, anterior);
+        // Se publica en orden: los reservados justo antes están terminando de escribir sus seis campos.
+        for (int vueltas = 0; total != registro; vueltas++) {
+            BitacoraCirculacion.esperar(vueltas);
+        }
+        total = registro + 1;
+        return registro;
+    }
+
+    // Segmento número "indice", creándolo si aún no existe. Los existentes no se copian: solo el array que los apunta.
+    private AtomicIntegerArray segmento(int indice) {
+        AtomicIntegerArray[] actuales = segmentos;
+        return indice < actuales.length && actuales[indice] != null ? actuales[indice] : crearSegmento(indice);
+    }
+
+    private synchronized AtomicIntegerArray crearSegmento(int indice) {
+        AtomicIntegerArray[] actuales = segmentos;
+        if (indice >= actuales.length) {
+            actuales = Arrays.copyOf(actuales, Math.max(indice + 1, actuales.length * 2));
+        } else if (actuales[indice] != null) {
+            return actuales[indice];
+        } else {
+            actuales = actuales.clone();
+        }
+        actuales[indice] = new AtomicIntegerArray(REGISTROS_POR_SEGMENTO * CAMPOS);
+        segmentos = actuales;
+        return actuales[indice];
+    }
+
+    // Anota el día en que se devolvió el libro de un registro.
+    public void registrarDevolucion(int registro, int dia) {
+        if (registro >= 0 && registro < total) {
+            segmentos[registro >>> BITS_SEGMENTO].set((registro & (REGISTROS_POR_SEGMENTO - 1)) * CAMPOS + DEVOLUCION, dia);
+        }
+    }
+
+    // --- Lectura ---
+
+    // Lee un campo de un registro.
+    public int leer(int registro, int campo) {
+        return segmentos[registro >>> BITS_SEGMENTO].get((registro & (REGISTROS_POR_SEGMENTO - 1)) * CAMPOS + campo);
+    }
+
+    // Recorre los préstamos de un usuario del más reciente al más antiguo (como mucho "limite").
+    // Devuelve cuántos visitó.
+    public int recorrer(Usuario usuario, int limite, Visitante visitante) {
+        int visitados = 0;
+        int registro = usuario.getUltimoRegistroHistorial();
+        AtomicIntegerArray[] actuales = segmentos;
+        while (registro >= 0 && visitados < limite) {
+            AtomicIntegerArray datos = actuales[registro >>> BITS_SEGMENTO];
+            int base = (registro & (REGISTROS_POR_SEGMENTO - 1)) * CAMPOS;
+            visitante.visitar(registro, datos.get(base + LIBRO), datos.get(base + INICIO), datos.get(base + VENCE), datos.get(base + DEVOLUCION));
+            visitados++;
+            registro = datos.get(base + ANTERIOR);
+        }
+        return visitados;
+    }
+
+    // --- Persistencia (la usa AlmacenPersistente dentro de la instantánea) ---
+
+    // Escribe el número de registros y después los registros, campo a campo. Quien llama debe asegurarse de que
+    // no se añaden préstamos mientras tanto (la instantánea se toma con el servicio bloqueado).
+    void escribir(DataOutputStream out) throws IOException {
+        int cuantos = total;
+        AtomicIntegerArray[] actuales = segmentos;
+        out.writeInt(cuantos);
+        for (int registro = 0; registro < cuantos; registro++) {
+            AtomicIntegerArray datos = actuales[registro >>> BITS_SEGMENTO];
+            int base = (registro & (REGISTROS_POR_SEGMENTO - 1)) * CAMPOS;
+            for (int campo = 0; campo < CAMPOS; campo++) {
+                out.writeInt(datos.get(base + campo));
+            }
+        }
+    }
+
+    // Lee registros escritos con escribir() y los añade al final (el historial debe estar vacío para
+    // que los números de registro coincidan con los guardados).
+    void leer(ByteBuffer in) {
+        int cuantos = in.getInt();
+        for (int i = 0; i < cuantos; i++) {
+            agregar(in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt());
+        }
+    }
+
+    // Número total de préstamos registrados.
+    public int tamano() { return total; }
+
+    // Bytes reservados por los segmentos (para vigilar cuánto ocupa el historial).
+    public long bytesReservados() {
+        long segmentosCreados = (total + REGISTROS_POR_SEGMENTO - 1) >>> BITS_SEGMENTO;
+        return segmentosCreados * REGISTROS_POR_SEGMENTO * CAMPOS * 4L + segmentos.length * 8L;
+    }
+}
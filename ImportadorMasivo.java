@@ -0,0 +1,327 @@
+// Importamos la E/S de ficheros, las colecciones y los ejecutores que usa la importación masiva.
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/*
+ * =================================================================================
+ * IMPORTACIÓN MASIVA DE CATÁLOGOS Y USUARIOS
+ * Carga ficheros CSV (separados por comas) o TSV (por tabuladores, extensión .tsv)
+ * sin leerlos enteros en memoria:
+ *   1. Un solo hilo lee el fichero por trozos de FILAS_POR_LOTE líneas.
+ *   2. Cada trozo se analiza y valida en paralelo en un pool de hilos.
+ *   3. Los trozos ya analizados se cargan EN ORDEN, cada uno de una vez, a través
+ *      del servicio (que los anota en el diario y actualiza índices y oyentes).
+ * Como mucho hay 2 trozos por hilo esperando, así que la memoria no crece con el
+ * tamaño del fichero. Las filas mal formadas o con código / username repetido no
+ * se cargan: van a un informe de rechazos con su número de línea y el motivo.
+ *
+ * Cada fila de usuario cifra su contraseña con PBKDF2 (ver ClaveCifrada), que es
+ * con diferencia lo más caro de la importación: unas decenas de milisegundos por
+ * fila con las 100.000 iteraciones por defecto, repartidas entre los hilos de
+ * análisis. Las filas cuyo username o identificación ya están registrados se
+ * rechazan antes de cifrar nada; las repetidas dentro del mismo fichero se
+ * detectan al cargar. Para pruebas con muchos usuarios se pueden bajar las
+ * iteraciones con -Dbiblioteca.clave.iteraciones=N (cada clave guarda las suyas,
+ * así que el login sigue funcionando después).
+ *
+ * Columnas esperadas (la primera línea puede ser una cabecera):
+ *   libros:   codigo, titulo, autor
+ *   usuarios: nombreCompleto, numeroIdentificacion, fechaNacimiento, edad, genero,
+ *             correoElectronico, username, password
+ *
+ * Uso (con la aplicación cerrada, porque escribe en el mismo directorio de datos):
+ *     java ImportadorMasivo libros|usuarios fichero.csv [rechazos.txt]
+ * =================================================================================
+ */
+
+// --- Clase ImportadorMasivo: Carga por lotes y en paralelo de libros y usuarios desde CSV/TSV. ---
+class ImportadorMasivo {
+    static final int FILAS_POR_LOTE = 10_000; // Líneas que se analizan y se cargan juntas.
+
+    private final ServicioPrestamos servicio;
+    private final int hilos; // Hilos que analizan trozos en paralelo.
+
+    // Resultado de una importación.
+    static final class Informe {
+        final long leidas;      // Filas de datos leídas (sin cabecera ni líneas vacías).
+        final long cargadas;    // Filas que se añadieron.
+        final long rechazadas;  // Filas que fueron al informe de rechazos.
+        final long milisegundos;
+
+        Informe(long leidas, long cargadas, long rechazadas, long milisegundos) {
+            this.leidas = leidas;
+            this.cargadas = cargadas;
+            this.rechazadas = rechazadas;
+            this.milisegundos = milisegundos;
+        }
+
+        @Override
+        public String toString() {
+            return leidas + " filas leídas, " + cargadas + " cargadas, " + rechazadas + " rechazadas en " + milisegundos + " ms";
+        }
+    }
+
+    // Convierte los campos de una fila en un objeto; lanza IllegalArgumentException con el motivo si no es válida.
+    @FunctionalInterface
+    private interface Analizador<T> {
+        T analizar(String[] campos);
+    }
+
+    // Carga un lote ya validado y devuelve, para cada elemento, si se añadió.
+    @FunctionalInterface
+    private interface Cargador<T> {
+        boolean[] cargar(List<T> lote);
+    }
+
+    // Un trozo del fichero: las líneas crudas y, tras analizarlo, los objetos válidos y los rechazos.
+    private static final class Lote<T> {
+        final List<String> lineas = new ArrayList<>(FILAS_POR_LOTE);
+        final List<Integer> numeros = new ArrayList<>(FILAS_POR_LOTE); // Número de línea de cada una en el fichero.
+        final List<T> validos = new ArrayList<>();
+        final List<Integer> indicesValidos = new ArrayList<>();         // Qué línea del trozo dio cada objeto válido.
+        final List<String> rechazos = new ArrayList<>();                // Entradas ya formateadas para el informe.
+    }
+
+    // Constructor: usa tantos hilos de análisis como procesadores haya.
+    public ImportadorMasivo(ServicioPrestamos servicio) {
+        this(servicio, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ImportadorMasivo(ServicioPrestamos servicio, int hilos) {
+        this.servicio = servicio;
+        this.hilos = Math.max(1, hilos);
+    }
+
+    // --- Importaciones ---
+
+    // Importa libros (codigo, titulo, autor). Los códigos repetidos van al informe de rechazos.
+    public Informe importarLibros(Path origen, Path rechazos) throws IOException {
+        return importar(origen, rechazos, "codigo", 3, ImportadorMasivo::libroDe, servicio::agregarLibros,
+                "código duplicado", servicio.getCatalogo()::reservar);
+    }
+
+    // Importa usuarios. Los username o números de identificación repetidos van al informe de rechazos.
+    public Informe importarUsuarios(Path origen, Path rechazos) throws IOException {
+        return importar(origen, rechazos, "nombre", 8, this::usuarioDe, servicio::registrarUsuarios,
+                "username o identificación duplicados", servicio.getUsuarios()::reservar);
+    }
+
+    // Lee el fichero por trozos, los analiza en paralelo y los carga en orden.
+    private <T> Informe importar(Path origen, Path rechazos, String cabecera, int columnas, Analizador<T> analizador,
+                                 Cargador<T> cargador, String motivoDuplicado, IntConsumer reservar) throws IOException {
+        long inicio = System.nanoTime();
+        char separador = origen.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".tsv") ? '\t' : ',';
+        long tamanoFichero = Files.size(origen);
+        long[] contadores = new long[3]; // leídas, cargadas, rechazadas.
+
+        ExecutorService pool = Executors.newFixedThreadPool(hilos, r -> {
+            Thread t = new Thread(r, "biblioteca-importacion");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<Lote<T>>> enCurso = new ArrayDeque<>();
+        try (BufferedReader lector = Files.newBufferedReader(origen, StandardCharsets.UTF_8);
+             BufferedWriter informe = Files.newBufferedWriter(rechazos, StandardCharsets.UTF_8)) {
+            informe.write("linea\tmotivo\tcontenido");
+            informe.newLine();
+
+            Lote<T> actual = new Lote<>();
+            long bytesLeidos = 0;
+            boolean reservado = reservar == null;
+            int numeroLinea = 0;
+            String linea;
+            while ((linea = lector.readLine()) != null) {
+                numeroLinea++;
+                bytesLeidos += linea.length() + 1;
+                if (linea.trim().isEmpty() || (numeroLinea == 1 && esCabecera(linea, cabecera))) {
+                    continue;
+                }
+                actual.lineas.add(linea);
+                actual.numeros.add(numeroLinea);
+                if (actual.lineas.size() == FILAS_POR_LOTE) {
+                    if (!reservado) {
+                        // Con el primer trozo se estima cuántas filas tiene el fichero y se reserva espacio una sola vez.
+                        reservar.accept((int) Math.min(Integer.MAX_VALUE / 2, tamanoFichero * FILAS_POR_LOTE / Math.max(1, bytesLeidos)));
+                        reservado = true;
+                    }
+                    enCurso.add(analizarEnPool(pool, actual, separador, columnas, analizador));
+                    actual = new Lote<>();
+                    // Si ya hay bastantes trozos en vuelo, se carga el más antiguo antes de seguir leyendo.
+                    if (enCurso.size() >= 2 * hilos) {
+                        cargar(enCurso.poll(), cargador, motivoDuplicado, informe, contadores);
+                    }
+                }
+            }
+            if (!actual.lineas.isEmpty()) {
+                enCurso.add(analizarEnPool(pool, actual, separador, columnas, analizador));
+            }
+            while (!enCurso.isEmpty()) {
+                cargar(enCurso.poll(), cargador, motivoDuplicado, informe, contadores);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Una sola instantánea al final deja el diario vacío y el próximo arranque no tiene que reproducir la importación.
+        servicio.tomarInstantanea();
+        return new Informe(contadores[0], contadores[1], contadores[2], (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    // Encarga al pool el análisis de un trozo.
+    private static <T> Future<Lote<T>> analizarEnPool(ExecutorService pool, Lote<T> lote, char separador, int columnas,
+                                                       Analizador<T> analizador) {
+        return pool.submit(() -> {
+            for (int i = 0; i < lote.lineas.size(); i++) {
+                String linea = lote.lineas.get(i);
+                try {
+                    String[] campos = separar(linea, separador);
+                    if (campos.length != columnas) {
+                        throw new IllegalArgumentException("se esperaban " + columnas + " columnas y hay " + campos.length);
+                    }
+                    lote.validos.add(analizador.analizar(campos));
+                    lote.indicesValidos.add(i);
+                } catch (IllegalArgumentException e) {
+                    lote.rechazos.add(lote.numeros.get(i) + "\t" + e.getMessage() + "\t" + linea);
+                }
+            }
+            return lote;
+        });
+    }
+
+    // Espera a que un trozo esté analizado, lo carga de una vez y anota en el informe lo que no se pudo cargar.
+    private static <T> void cargar(Future<Lote<T>> pendiente, Cargador<T> cargador, String motivoDuplicado,
+                                   BufferedWriter informe, long[] contadores) throws IOException {
+        Lote<T> lote;
+        try {
+            lote = pendiente.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Importación interrumpida", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error analizando el fichero: " + e.getCause(), e.getCause());
+        }
+        boolean[] cargados = cargador.cargar(lote.validos);
+        contadores[0] += lote.lineas.size();
+        for (String rechazo : lote.rechazos) {
+            informe.write(rechazo);
+            informe.newLine();
+        }
+        contadores[2] += lote.rechazos.size();
+        for (int i = 0; i < cargados.length; i++) {
+            if (cargados[i]) {
+                contadores[1]++;
+            } else {
+                int indice = lote.indicesValidos.get(i);
+                informe.write(lote.numeros.get(indice) + "\t" + motivoDuplicado + "\t" + lote.lineas.get(indice));
+                informe.newLine();
+                contadores[2]++;
+            }
+        }
+    }
+
+    // --- Análisis de filas ---
+
+    // Indica si la primera línea es una cabecera (su primera columna empieza por el nombre esperado).
+    private static boolean esCabecera(String linea, String cabecera) {
+        return IndiceBusqueda.normalizar(linea.trim()).replace("\"", "").startsWith(cabecera);
+    }
+
+    // Separa una línea en campos. Admite campos entre comillas (con el separador dentro y "" para una comilla).
+    static String[] separar(String linea, char separador) {
+        List<String> campos = new ArrayList<>();
+        StringBuilder campo = new StringBuilder();
+        boolean entreComillas = false;
+        for (int i = 0; i < linea.length(); i++) {
+            char c = linea.charAt(i);
+            if (entreComillas) {
+                if (c == '"' && i + 1 < linea.length() && linea.charAt(i + 1) == '"') {
+                    campo.append('"');
+                    i++;
+                } else if (c == '"') {
+                    entreComillas = false;
+                } else {
+                    campo.append(c);
+                }
+            } else if (c == '"' && campo.length() == 0) {
+                entreComillas = true;
+            } else if (c == separador) {
+                campos.add(campo.toString().trim());
+                campo.setLength(0);
+            } else {
+                campo.append(c);
+            }
+        }
+        if (entreComillas) {
+            throw new IllegalArgumentException("comillas sin cerrar");
+        }
+        campos.add(campo.toString().trim());
+        return campos.toArray(new String[0]);
+    }
+
+    // Fila de libro: codigo, titulo, autor (los tres obligatorios).
+    private static Libro libroDe(String[] campos) {
+        for (String campo : campos) {
+            if (campo.isEmpty()) {
+                throw new IllegalArgumentException("hay campos vacíos");
+            }
+        }
+        return new Libro(campos[0], campos[1], campos[2]);
+    }
+
+    // Fila de usuario, validada igual que el formulario de registro: también se comprueba, antes de crear el
+    // Usuario (que cifra la contraseña), que el username y la identificación no estén ya registrados.
+    private Usuario usuarioDe(String[] campos) {
+        for (int i : new int[] {0, 1, 2, 3, 6, 7}) {
+            if (campos[i].isEmpty()) {
+                throw new IllegalArgumentException("faltan campos obligatorios");
+            }
+        }
+        int edad;
+        try {
+            edad = Integer.parseInt(campos[3]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("la edad debe ser un número");
+        }
+        if (edad < 0 || edad > 150) {
+            throw new IllegalArgumentException("edad fuera de rango");
+        }
+        RepositorioUsuarios usuarios = servicio.getUsuarios();
+        if (usuarios.existeUsername(campos[6]) || usuarios.existeIdentificacion(campos[1])) {
+            throw new IllegalArgumentException("username o identificación duplicados");
+        }
+        return new Usuario(campos[0], campos[1], campos[2], edad, campos[4], campos[5], campos[6], campos[7]);
+    }
+
+    // --- Uso desde la línea de comandos ---
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !(args[0].equals("libros") || args[0].equals("usuarios"))) {
+            System.err.println("Uso: java ImportadorMasivo libros|usuarios fichero.csv [rechazos.txt]");
+            System.exit(2);
+        }
+        Path origen = Paths.get(args[1]);
+        Path rechazos = Paths.get(args.length > 2 ? args[2] : args[1] + ".rechazos.txt");
+        NucleoBiblioteca nucleo = NucleoBiblioteca.abrir(AlmacenPersistente.directorioPorDefecto());
+        try {
+            ImportadorMasivo importador = new ImportadorMasivo(nucleo.getServicio());
+            Informe informe = args[0].equals("libros") ? importador.importarLibros(origen, rechazos)
+                                                       : importador.importarUsuarios(origen, rechazos);
+            System.out.println(informe + " (rechazos en " + rechazos + ")");
+        } finally {
+            nucleo.cerrar();
+        }
+    }
+}
@@ -0,0 +1,338 @@
+// Importamos las colecciones, la normalización de texto y los cerrojos que usa el índice.
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/*
+ * =================================================================================
+ * ÍNDICE DE BÚSQUEDA POR TÍTULO Y AUTOR
+ * Índice invertido en memoria: cada palabra (normalizada a minúsculas y sin
+ * tildes, así "Satanás" se encuentra buscando "satanas") apunta a la lista
+ * ordenada de posiciones del catálogo donde aparece. El vocabulario se guarda
+ * ordenado, de modo que todas las palabras que empiezan por un prefijo forman
+ * un rango contiguo: eso permite autocompletar mientras se escribe.
+ *
+ * El índice siempre cubre un prefijo del catálogo (las posiciones 0..N-1);
+ * sincronizar() indexa los libros añadidos desde la última vez, así que se
+ * actualiza de forma incremental sin reconstruir nada. Lo hace por tandas: las
+ * palabras de cada tanda se sacan sin cerrojo y solo su inserción toma el de
+ * escritura, así que las búsquedas (y los libros nuevos) esperan como mucho una
+ * tanda, y durante la construcción inicial ya encuentran lo indexado hasta ahí.
+ * =================================================================================
+ */
+
+// --- Clase IndiceBusqueda: Índice invertido + vocabulario ordenado para prefijos. ---
+class IndiceBusqueda {
+    private static final Pattern MARCAS_DIACRITICAS = Pattern.compile("\\p{M}+");
+    private static final char[] PLEGADO = crearPlegado(); // Para los caracteres latinos: su letra base en minúscula.
+
+    private final CatalogoLibros catalogo;
+    private final HashMap<String, ListaPosiciones> indice = new HashMap<>(); // Palabra -> posiciones donde aparece.
+    private final TreeMap<String, ListaPosiciones> vocabulario = new TreeMap<>(); // Las mismas palabras, ordenadas (para prefijos).
+    private static final int LIBROS_POR_TANDA = 4096; // Libros que se insertan con cada toma del cerrojo de escritura.
+
+    private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock(); // Muchas búsquedas a la vez, una sola escritura.
+    private volatile int indexadosHasta; // Número de libros del catálogo ya indexados (se escribe con el cerrojo de escritura).
+
+    // --- Clase ListaPosiciones: Lista creciente de enteros sin objetos Integer. ---
+    static final class ListaPosiciones {
+        int[] datos = new int[4];
+        int tamano;
+
+        void agregar(int posicion) {
+            if (tamano > 0 && datos[tamano - 1] == posicion) {
+                return; // La palabra aparece dos veces en el mismo libro: se guarda una sola vez.
+            }
+            if (tamano == datos.length) {
+                datos = Arrays.copyOf(datos, tamano * 2);
+            }
+            datos[tamano++] = posicion;
+        }
+    }
+
+    // Constructor: el índice empieza vacío; hay que llamar a sincronizar() para llenarlo.
+    public IndiceBusqueda(CatalogoLibros catalogo) {
+        this.catalogo = catalogo;
+    }
+
+    // --- Normalización ---
+
+    // Pasa un texto a minúsculas y le quita las tildes ("Cadáver" -> "cadaver").
+    // Los textos en alfabeto latino (casi todos) se resuelven con una tabla, carácter a carácter; el resto
+    // pasa por la descomposición Unicode completa, que es bastante más lenta.
+    static String normalizar(String texto) {
+        char[] resultado = null;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c >= PLEGADO.length) {
+                return MARCAS_DIACRITICAS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("")
+                        .toLowerCase(Locale.ROOT);
+            }
+            if (PLEGADO[c] != c && resultado == null) {
+                resultado = texto.toCharArray();
+            }
+            if (resultado != null) {
+                resultado[i] = PLEGADO[c];
+            }
+        }
+        return resultado == null ? texto : new String(resultado);
+    }
+
+    // Precalcula, para los caracteres latinos (hasta U+017F), el resultado de quitar la tilde y pasar a minúscula.
+    private static char[] crearPlegado() {
+        char[] tabla = new char[0x180];
+        for (char c = 0; c < tabla.length; c++) {
+            String base = MARCAS_DIACRITICAS.matcher(Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD))
+                    .replaceAll("").toLowerCase(Locale.ROOT);
+            tabla[c] = base.length() == 1 ? base.charAt(0) : c;
+        }
+        return tabla;
+    }
+
+    // Divide un texto normalizado en palabras (secuencias de letras o dígitos).
+    static List<String> palabras(String textoNormalizado) {
+        List<String> resultado = new ArrayList<>();
+        int inicio = -1;
+        for (int i = 0; i <= textoNormalizado.length(); i++) {
+            boolean esParteDePalabra = i < textoNormalizado.length() && Character.isLetterOrDigit(textoNormalizado.charAt(i));
+            if (esParteDePalabra && inicio < 0) {
+                inicio = i;
+            } else if (!esParteDePalabra && inicio >= 0) {
+                resultado.add(textoNormalizado.substring(inicio, i));
+                inicio = -1;
+            }
+        }
+        return resultado;
+    }
+
+    // --- Actualización ---
+
+    // Indexa los libros que se añadieron al catálogo desde la última llamada, tanda a tanda, hasta alcanzar el
+    // final del catálogo (también los que se añadan mientras tanto). Devuelve cuántos indexó.
+    public int sincronizar() {
+        int indexados = 0;
+        while (true) {
+            int desde = indexadosHasta;
+            int hasta = Math.min(catalogo.tamano(), desde + LIBROS_POR_TANDA);
+            if (desde >= hasta) {
+                return indexados;
+            }
+            // Normalizar y partir en palabras es lo caro: se hace sin cerrojo.
+            List<List<String>> tanda = new ArrayList<>(hasta - desde);
+            for (int posicion = desde; posicion < hasta; posicion++) {
+                Libro libro = catalogo.obtener(posicion);
+                List<String> palabras = palabras(normalizar(libro.getTitulo()));
+                palabras.addAll(palabras(normalizar(libro.getAutor())));
+                tanda.add(palabras);
+            }
+            cerrojo.writeLock().lock();
+            try {
+                if (indexadosHasta == desde) { // Si otro hilo indexó esta tanda mientras tanto, se pasa a la siguiente.
+                    for (int i = 0; i < tanda.size(); i++) {
+                        indexarPalabras(tanda.get(i), desde + i);
+                    }
+                    indexadosHasta = hasta; // Se publica tras cada tanda: las búsquedas ya la encuentran.
+                    indexados += hasta - desde;
+                }
+            } finally {
+                cerrojo.writeLock().unlock();
+            }
+        }
+    }
+
+    // Indexa un libro recién añadido. Si el índice ya llega hasta él (lo normal), solo se indexa ese libro; si la
+    // construcción inicial aún va lejos, no se la espera: sigue hasta el final del catálogo y lo alcanzará.
+    public void indexarNuevo(int posicion) {
+        if (posicion - indexadosHasta < LIBROS_POR_TANDA) {
+            sincronizar();
+        }
+    }
+
+    // Añade cada palabra al índice para una posición.
+    private void indexarPalabras(List<String> palabras, int posicion) {
+        for (String palabra : palabras) {
+            ListaPosiciones lista = indice.get(palabra);
+            if (lista == null) {
+                lista = new ListaPosiciones();
+                indice.put(palabra, lista);
+                vocabulario.put(palabra, lista);
+            }
+            lista.agregar(posicion);
+        }
+    }
+
+    // Número de libros que ya están cubiertos por el índice.
+    public int getIndexados() { return indexadosHasta; }
+
+    // --- Consultas ---
+
+    // Busca libros cuyo título o autor contengan todas las palabras de la consulta. La última palabra se
+    // trata como prefijo (para buscar mientras se escribe). Devuelve como máximo "limite" posiciones, ordenadas.
+    public int[] buscar(String consulta, int limite) {
+        List<String> terminos = palabras(normalizar(consulta));
+        if (terminos.isEmpty() || limite <= 0) {
+            return new int[0];
+        }
+        String prefijo = terminos.remove(terminos.size() - 1);
+
+        cerrojo.readLock().lock();
+        try {
+            // 1. Listas de las palabras completas, de la más corta a la más larga.
+            List<ListaPosiciones> listas = new ArrayList<>();
+            for (String termino : terminos) {
+                ListaPosiciones lista = indice.get(termino);
+                if (lista == null) {
+                    return new int[0]; // Una palabra que no está en el índice no puede coincidir.
+                }
+                listas.add(lista);
+            }
+            listas.sort((a, b) -> Integer.compare(a.tamano, b.tamano));
+
+            // 2. Palabras del vocabulario que empiezan por el prefijo (un rango contiguo del mapa ordenado).
+            Map<String, ListaPosiciones> completas = vocabulario.subMap(prefijo, true, prefijo + Character.MAX_VALUE, false);
+            if (completas.isEmpty()) {
+                return new int[0];
+            }
+
+            int[] resultado;
+            if (listas.isEmpty()) {
+                resultado = unirPrefijo(completas, limite);
+            } else {
+                // Si las palabras que completan el prefijo aparecen en pocos libros, se unen sus listas y se
+                // intersecan como una más; si no, se comprueba el prefijo solo sobre los candidatos.
+                long totalPrefijo = 0;
+                for (ListaPosiciones lista : completas.values()) {
+                    totalPrefijo += lista.tamano;
+                }
+                if (totalPrefijo <= listas.get(0).tamano) {
+                    listas.add(unirTodas(completas, (int) totalPrefijo));
+                    listas.sort((a, b) -> Integer.compare(a.tamano, b.tamano));
+                    resultado = intersecar(listas, null, null, limite);
+                } else {
+                    resultado = intersecar(listas, completas, prefijo, limite);
+                }
+            }
+            Arrays.sort(resultado);
+            return resultado;
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    // Solo hay un prefijo: se toman posiciones de las palabras que lo completan hasta llegar al límite.
+    private static int[] unirPrefijo(Map<String, ListaPosiciones> completas, int limite) {
+        Set<Integer> vistos = new HashSet<>();
+        int[] resultado = new int[Math.min(limite, 64)];
+        int n = 0;
+        for (ListaPosiciones lista : completas.values()) {
+            for (int i = 0; i < lista.tamano && n < limite; i++) {
+                if (vistos.add(lista.datos[i])) {
+                    if (n == resultado.length) {
+                        resultado = Arrays.copyOf(resultado, Math.min(limite, n * 2));
+                    }
+                    resultado[n++] = lista.datos[i];
+                }
+            }
+            if (n >= limite) {
+                break;
+            }
+        }
+        return Arrays.copyOf(resultado, n);
+    }
+
+    // Une todas las listas de un prefijo en una sola lista ordenada y sin repetidos.
+    private static ListaPosiciones unirTodas(Map<String, ListaPosiciones> completas, int total) {
+        int[] todas = new int[total];
+        int n = 0;
+        for (ListaPosiciones lista : completas.values()) {
+            System.arraycopy(lista.datos, 0, todas, n, lista.tamano);
+            n += lista.tamano;
+        }
+        Arrays.sort(todas);
+        ListaPosiciones union = new ListaPosiciones();
+        union.datos = todas;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || todas[i] != todas[i - 1]) {
+                todas[union.tamano++] = todas[i]; // Compacta en el mismo array quitando repetidos.
+            }
+        }
+        return union;
+    }
+
+    // Recorre la lista más corta y comprueba cada candidato en las demás (búsqueda binaria) y, si se
+    // indica, contra el prefijo: con pocas palabras que lo completen se buscan en sus listas; con muchas,
+    // se mira el texto del libro.
+    private int[] intersecar(List<ListaPosiciones> listas, Map<String, ListaPosiciones> completas, String prefijo, int limite) {
+        ListaPosiciones[] pocas = completas != null && completas.size() <= 8
+                ? completas.values().toArray(new ListaPosiciones[0]) : null;
+        ListaPosiciones menor = listas.get(0);
+        int[] resultado = new int[Math.min(limite, menor.tamano)];
+        int n = 0;
+        for (int i = 0; i < menor.tamano && n < limite; i++) {
+            int candidato = menor.datos[i];
+            boolean enTodas = true;
+            for (int j = 1; j < listas.size() && enTodas; j++) {
+                ListaPosiciones otra = listas.get(j);
+                enTodas = Arrays.binarySearch(otra.datos, 0, otra.tamano, candidato) >= 0;
+            }
+            if (enTodas && prefijo != null) {
+                enTodas = pocas != null ? apareceEnAlguna(pocas, candidato) : contienePrefijo(candidato, prefijo);
+            }
+            if (enTodas) {
+                resultado[n++] = candidato;
+            }
+        }
+        return Arrays.copyOf(resultado, n);
+    }
+
+    // Indica si una posición aparece en alguna de las listas.
+    private static boolean apareceEnAlguna(ListaPosiciones[] listas, int posicion) {
+        for (ListaPosiciones lista : listas) {
+            if (Arrays.binarySearch(lista.datos, 0, lista.tamano, posicion) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Comprueba si el título o el autor de un libro tiene alguna palabra que empiece por el prefijo.
+    private boolean contienePrefijo(int posicion, String prefijo) {
+        Libro libro = catalogo.obtener(posicion);
+        for (String palabra : palabras(normalizar(libro.getTitulo() + " " + libro.getAutor()))) {
+            if (palabra.startsWith(prefijo)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Sugerencias para autocompletar: hasta "limite" palabras del vocabulario que empiezan por el prefijo.
+    public List<String> sugerir(String prefijo, int limite) {
+        String normalizado = normalizar(prefijo).trim();
+        List<String> sugerencias = new ArrayList<>();
+        if (normalizado.isEmpty()) {
+            return sugerencias;
+        }
+        cerrojo.readLock().lock();
+        try {
+            for (String palabra : vocabulario.subMap(normalizado, true, normalizado + Character.MAX_VALUE, false).keySet()) {
+                if (sugerencias.size() >= limite) {
+                    break;
+                }
+                sugerencias.add(palabra);
+            }
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+        return sugerencias;
+    }
+}
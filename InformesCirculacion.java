@@ -0,0 +1,60 @@
+// Importamos las fechas y las listas con las que se devuelven los informes.
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * =================================================================================
+ * INFORMES DE CIRCULACIÓN
+ * Responde a "¿qué préstamos están vencidos hoy?" y "¿cuáles son los libros o
+ * autores más prestados este mes?" sin recorrer todos los usuarios: los vencidos
+ * salen del índice por fecha límite (VistaVencimientos) y la popularidad de los
+ * contadores que se mantienen con cada préstamo (VistaPopularidad). Solo se crean
+ * objetos para las filas que se devuelven.
+ * =================================================================================
+ */
+
+// --- Clase InformesCirculacion: Préstamos vencidos y clasificaciones de popularidad. ---
+class InformesCirculacion {
+    private final CatalogoLibros catalogo;
+    private final RepositorioUsuarios usuarios;
+    private final VistaVencimientos vencimientos;
+    private final VistaPopularidad popularidad;
+
+    public InformesCirculacion(CatalogoLibros catalogo, RepositorioUsuarios usuarios,
+                               VistaVencimientos vencimientos, VistaPopularidad popularidad) {
+        this.catalogo = catalogo;
+        this.usuarios = usuarios;
+        this.vencimientos = vencimientos;
+        this.popularidad = popularidad;
+    }
+
+    // Préstamos cuya fecha límite es anterior a "hoy", del más atrasado al menos (como mucho "limite").
+    public List<Prestamo> vencidos(LocalDate hoy, int limite) {
+        List<Prestamo> lista = new ArrayList<>(Math.min(limite, 1024));
+        vencimientos.recorrerVencidos((int) hoy.toEpochDay(), limite, (vence, libro, usuario) -> {
+            Usuario u = usuarios.buscarPorNumero(usuario);
+            Prestamo p = u == null ? null : u.buscarPrestamo(catalogo.obtener(libro).getCodigo());
+            if (p != null) { // Puede haberse devuelto justo mientras se recorría.
+                lista.add(p);
+            }
+        });
+        return lista;
+    }
+
+    // Número total de préstamos vencidos a fecha de "hoy".
+    public int totalVencidos(LocalDate hoy) {
+        return vencimientos.vencidos((int) hoy.toEpochDay());
+    }
+
+    // Los "n" libros más prestados en un mes (o en total si mes es null); el nombre de cada puesto es el código.
+    public List<VistaPopularidad.Puesto> librosMasPrestados(YearMonth mes, int n) {
+        return popularidad.librosMasPrestados(mes, n);
+    }
+
+    // Los "n" autores más prestados en un mes (o en total si mes es null).
+    public List<VistaPopularidad.Puesto> autoresMasPrestados(YearMonth mes, int n) {
+        return popularidad.autoresMasPrestados(mes, n);
+    }
+}
@@ -0,0 +1,361 @@
+// Importamos los contadores concurrentes y las clases de JMX con las que se publican las métricas.
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * =================================================================================
+ * MÉTRICAS DE CIRCULACIÓN
+ * Cuenta lo que pasa en la biblioteca (préstamos, devoluciones, vetos, logins
+ * fallidos, búsquedas...) y cuánto tarda cada paso, para poder verlo mientras la
+ * aplicación está en marcha:
+ *   - por JMX (jconsole, VisualVM...), en el MBean "biblioteca:type=MetricasCirculacion";
+ *   - en texto plano, en GET /metricas de la API HTTP (formato de Prometheus).
+ *
+ * Apuntar una métrica cuesta muy poco: los contadores son LongAdder (cada hilo suma
+ * en su propia celda) y cada latencia es un incremento en un histograma de cubetas
+ * log-lineales, al estilo de HdrHistogram. Nada se calcula hasta que alguien lee,
+ * así que si nadie mira las métricas no hay más coste que esos incrementos.
+ * =================================================================================
+ */
+
+// --- Clase MetricasCirculacion: Contadores e histogramas de latencia de la circulación. ---
+class MetricasCirculacion implements OyenteCirculacion {
+    static final String NOMBRE_JMX = "biblioteca:type=MetricasCirculacion";
+
+    // Lo que se cuenta. El nombre es el que se publica (en JMX y en /metricas).
+    enum Contador {
+        PRESTAMOS("prestamos"),
+        PRESTAMOS_RECHAZADOS("prestamosRechazados"),
+        DEVOLUCIONES("devoluciones"),
+        DEVOLUCIONES_TARDIAS("devolucionesTardias"),   // Cada una genera un veto.
+        PRESTAMOS_VENCIDOS("prestamosVencidos"),
+        RESERVAS("reservas"),
+        RESERVAS_ENTREGADAS("reservasEntregadas"),
+        RESERVAS_CANCELADAS("reservasCanceladas"),
+        LOGINS("logins"),
+        LOGINS_FALLIDOS("loginsFallidos"),
+        BUSQUEDAS("busquedas"),
+        CONSULTAS_CODIGO("consultasCodigo");           // Búsquedas de un libro por su código.
+
+        final String nombre;
+
+        Contador(String nombre) { this.nombre = nombre; }
+    }
+
+    // Los pasos cuya duración se mide.
+    enum Operacion {
+        PRESTAMO("prestamo"),
+        DEVOLUCION("devolucion"),
+        CONSULTA_ESTADO("consultaEstado"),
+        LOGIN("login"),
+        REFRESCO_TABLA("refrescoTabla"),
+        BUSQUEDA("busqueda"),
+        PETICION_HTTP("peticionHttp");
+
+        final String nombre;
+
+        Operacion(String nombre) { this.nombre = nombre; }
+    }
+
+    private final LongAdder[] contadores = new LongAdder[Contador.values().length];
+    private final HistogramaLatencias[] latencias = new HistogramaLatencias[Operacion.values().length];
+    private ObjectName nombreRegistrado; // Nombre con el que se publicó en JMX (null si no se publicó).
+
+    public MetricasCirculacion() {
+        for (int i = 0; i < contadores.length; i++) {
+            contadores[i] = new LongAdder();
+        }
+        for (int i = 0; i < latencias.length; i++) {
+            latencias[i] = new HistogramaLatencias();
+        }
+    }
+
+    // --- Apuntar ---
+
+    public void contar(Contador contador) {
+        contadores[contador.ordinal()].increment();
+    }
+
+    // Apunta la duración de una operación que empezó en "inicioNanos" (un valor de System.nanoTime()).
+    public void medir(Operacion operacion, long inicioNanos) {
+        latencias[operacion.ordinal()].registrar(System.nanoTime() - inicioNanos);
+    }
+
+    // --- Leer ---
+
+    public long valor(Contador contador) {
+        return contadores[contador.ordinal()].sum();
+    }
+
+    public HistogramaLatencias latencia(Operacion operacion) {
+        return latencias[operacion.ordinal()];
+    }
+
+    // --- Oyente: los cambios que hace el servicio (desde la ventana o desde la API) se cuentan aquí ---
+
+    @Override
+    public void prestamoRealizado(Usuario usuario, Libro libro, Prestamo prestamo) { contar(Contador.PRESTAMOS); }
+
+    @Override
+    public void devolucionRealizada(Usuario usuario, Libro libro, Prestamo prestamo, LocalDate finVeto) {
+        contar(Contador.DEVOLUCIONES);
+        if (finVeto != null) {
+            contar(Contador.DEVOLUCIONES_TARDIAS);
+        }
+    }
+
+    @Override
+    public void prestamoVencido(Usuario usuario, Prestamo prestamo) { contar(Contador.PRESTAMOS_VENCIDOS); }
+
+    @Override
+    public void reservaRealizada(Usuario usuario, Libro libro, int puesto) { contar(Contador.RESERVAS); }
+
+    @Override
+    public void reservaEntregada(Usuario usuario, Libro libro, Prestamo prestamo) { contar(Contador.RESERVAS_ENTREGADAS); }
+
+    @Override
+    public void reservaCancelada(Usuario usuario, Libro libro) { contar(Contador.RESERVAS_CANCELADAS); }
+
+    // --- Exposición en texto (formato de Prometheus) ---
+
+    // Todas las métricas en el formato de texto de Prometheus. Las latencias van en segundos.
+    public String textoExposicion() {
+        StringBuilder texto = new StringBuilder(4096);
+        for (Contador contador : Contador.values()) {
+            String nombre = "biblioteca_" + aSerpiente(contador.nombre) + "_total";
+            texto.append("# TYPE ").append(nombre).append(" counter\n")
+                 .append(nombre).append(' ').append(valor(contador)).append('\n');
+        }
+        texto.append("# TYPE biblioteca_latencia_segundos summary\n");
+        for (Operacion operacion : Operacion.values()) {
+            HistogramaLatencias h = latencia(operacion);
+            String etiqueta = "{operacion=\"" + operacion.nombre + "\"";
+            for (double cuantil : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                texto.append("biblioteca_latencia_segundos").append(etiqueta).append(",quantile=\"").append(cuantil).append("\"} ")
+                     .append(segundos(h.percentil(cuantil))).append('\n');
+            }
+            texto.append("biblioteca_latencia_segundos_count").append(etiqueta).append("} ").append(h.cuenta()).append('\n')
+                 .append("biblioteca_latencia_segundos_sum").append(etiqueta).append("} ").append(segundos(h.suma())).append('\n');
+        }
+        texto.append("# TYPE biblioteca_latencia_maxima_segundos gauge\n");
+        for (Operacion operacion : Operacion.values()) {
+            texto.append("biblioteca_latencia_maxima_segundos{operacion=\"").append(operacion.nombre).append("\"} ")
+                 .append(segundos(latencia(operacion).maximo())).append('\n');
+        }
+        return texto.toString();
+    }
+
+    // "devolucionesTardias" -> "devoluciones_tardias".
+    private static String aSerpiente(String nombre) {
+        StringBuilder resultado = new StringBuilder();
+        for (char c : nombre.toCharArray()) {
+            if (Character.isUpperCase(c)) {
+                resultado.append('_').append(Character.toLowerCase(c));
+            } else {
+                resultado.append(c);
+            }
+        }
+        return resultado.toString();
+    }
+
+    private static String segundos(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    // --- JMX ---
+
+    // Publica las métricas en el servidor de MBeans de la plataforma. Si ya hay otras publicadas con el mismo
+    // nombre (por ejemplo, dos núcleos en la misma JVM), se deja el primero y se devuelve false.
+    public boolean registrarJmx() {
+        try {
+            ObjectName nombre = new ObjectName(NOMBRE_JMX);
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            if (servidor.isRegistered(nombre)) {
+                return false;
+            }
+            servidor.registerMBean(new MBean(), nombre);
+            nombreRegistrado = nombre;
+            return true;
+        } catch (JMException e) {
+            return false;
+        }
+    }
+
+    // Retira el MBean publicado con registrarJmx().
+    public void desregistrarJmx() {
+        if (nombreRegistrado == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(nombreRegistrado);
+        } catch (JMException e) {
+            // Ya no estaba publicado: no hay nada que retirar.
+        }
+        nombreRegistrado = null;
+    }
+
+    // MBean dinámico: sus atributos salen de los enumerados, así que un contador nuevo aparece solo en JMX.
+    // Los valores se calculan al leerlos; mientras nadie los consulta, no cuestan nada.
+    private final class MBean implements DynamicMBean {
+        private static final String SUFIJO_CUENTA = "Cuenta";
+        private final String[] sufijos = {"P50Micros", "P99Micros", "P999Micros", "MaxMicros", SUFIJO_CUENTA};
+
+        @Override
+        public Object getAttribute(String atributo) throws AttributeNotFoundException {
+            for (Contador contador : Contador.values()) {
+                if (contador.nombre.equals(atributo)) {
+                    return valor(contador);
+                }
+            }
+            for (Operacion operacion : Operacion.values()) {
+                String prefijo = "latencia" + Character.toUpperCase(operacion.nombre.charAt(0)) + operacion.nombre.substring(1);
+                if (atributo.startsWith(prefijo)) {
+                    HistogramaLatencias h = latencia(operacion);
+                    switch (atributo.substring(prefijo.length())) {
+                        case "P50Micros": return h.percentil(0.5) / 1000;
+                        case "P99Micros": return h.percentil(0.99) / 1000;
+                        case "P999Micros": return h.percentil(0.999) / 1000;
+                        case "MaxMicros": return h.maximo() / 1000;
+                        case SUFIJO_CUENTA: return h.cuenta();
+                        default: break;
+                    }
+                }
+            }
+            throw new AttributeNotFoundException(atributo);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] atributos) {
+            AttributeList lista = new AttributeList();
+            for (String atributo : atributos) {
+                try {
+                    lista.add(new Attribute(atributo, getAttribute(atributo)));
+                } catch (AttributeNotFoundException e) {
+                    // Los atributos que no existen simplemente no se devuelven.
+                }
+            }
+            return lista;
+        }
+
+        @Override
+        public void setAttribute(Attribute atributo) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Las métricas son de solo lectura: " + atributo.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList atributos) {
+            return new AttributeList(); // Solo lectura.
+        }
+
+        @Override
+        public Object invoke(String accion, Object[] parametros, String[] firma) {
+            throw new UnsupportedOperationException("Las métricas no tienen operaciones: " + accion);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> atributos = new ArrayList<>();
+            for (Contador contador : Contador.values()) {
+                atributos.add(new MBeanAttributeInfo(contador.nombre, "long", "Contador de " + contador.nombre, true, false, false));
+            }
+            for (Operacion operacion : Operacion.values()) {
+                String prefijo = "latencia" + Character.toUpperCase(operacion.nombre.charAt(0)) + operacion.nombre.substring(1);
+                for (String sufijo : sufijos) {
+                    atributos.add(new MBeanAttributeInfo(prefijo + sufijo, "long", "Latencia de " + operacion.nombre, true, false, false));
+                }
+            }
+            return new MBeanInfo(MetricasCirculacion.class.getName(), "Métricas de circulación de la biblioteca",
+                    atributos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+
+    // --- Clase HistogramaLatencias: Histograma de cubetas log-lineales (al estilo de HdrHistogram). ---
+    // Cada potencia de 2 se divide en 16 cubetas iguales, así que cualquier valor se guarda con un error
+    // menor del 6,25 % en cualquier rango (de nanosegundos a horas) con un array fijo de menos de 1000 contadores.
+    static final class HistogramaLatencias {
+        private static final int BITS_SUBCUBETA = 4;
+        private static final int SUBCUBETAS = 1 << BITS_SUBCUBETA;
+        private static final int CUBETAS = (63 - BITS_SUBCUBETA + 1) * SUBCUBETAS; // Hasta Long.MAX_VALUE (bit 62).
+
+        private final AtomicLongArray cubetas = new AtomicLongArray(CUBETAS);
+        private final LongAdder cuenta = new LongAdder();
+        private final LongAdder suma = new LongAdder();
+        private final AtomicLong maximo = new AtomicLong();
+
+        // Apunta una duración en nanosegundos.
+        void registrar(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            cubetas.incrementAndGet(indice(nanos));
+            cuenta.increment();
+            suma.add(nanos);
+            if (nanos > maximo.get()) { // Casi nunca se cumple: el máximo apenas genera escrituras compartidas.
+                maximo.accumulateAndGet(nanos, Math::max);
+            }
+        }
+
+        // Cubeta de un valor: los menores de 16 van exactos; el resto, según su potencia de 2 y sus 4 bits siguientes.
+        static int indice(long valor) {
+            if (valor < SUBCUBETAS) {
+                return (int) valor;
+            }
+            int exponente = 63 - Long.numberOfLeadingZeros(valor);
+            int sub = (int) (valor >>> (exponente - BITS_SUBCUBETA)) & (SUBCUBETAS - 1);
+            return (exponente - BITS_SUBCUBETA + 1) * SUBCUBETAS + sub;
+        }
+
+        // Menor valor que cae en una cubeta.
+        static long limiteInferior(int indice) {
+            if (indice < SUBCUBETAS) {
+                return indice;
+            }
+            int exponente = indice / SUBCUBETAS - 1 + BITS_SUBCUBETA;
+            long sub = indice % SUBCUBETAS;
+            return (SUBCUBETAS + sub) << (exponente - BITS_SUBCUBETA);
+        }
+
+        // Valor por debajo del cual queda la fracción "cuantil" de las muestras (0.99 = percentil 99).
+        // Se devuelve el límite superior de la cubeta, sin pasar del máximo real observado.
+        public long percentil(double cuantil) {
+            long total = 0;
+            long[] copia = new long[CUBETAS];
+            for (int i = 0; i < CUBETAS; i++) {
+                copia[i] = cubetas.get(i);
+                total += copia[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long objetivo = Math.max(1, (long) Math.ceil(cuantil * total));
+            long acumulado = 0;
+            for (int i = 0; i < CUBETAS; i++) {
+                acumulado += copia[i];
+                if (acumulado >= objetivo) {
+                    long superior = i + 1 < CUBETAS ? limiteInferior(i + 1) - 1 : Long.MAX_VALUE;
+                    return Math.min(superior, maximo());
+                }
+            }
+            return maximo();
+        }
+
+        public long cuenta() { return cuenta.sum(); }
+        public long suma() { return suma.sum(); }
+        public long maximo() { return maximo.get(); }
+    }
+}
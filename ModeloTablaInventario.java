@@ -0,0 +1,224 @@
+// Importamos la clase base de Swing para modelos de tabla propios y las utilidades de colecciones.
+import javax.swing.table.AbstractTableModel;
+import java.util.Arrays;
+
+/*
+ * =================================================================================
+ * MODELO DE LA TABLA DEL INVENTARIO
+ * En lugar de copiar cada libro a una fila (como hacía DefaultTableModel), este
+ * modelo lee las celdas directamente del catálogo. La tabla solo pide las filas
+ * que están visibles en pantalla, así que refrescarla no depende del tamaño del
+ * catálogo.
+ *
+ * El inventario se ve por páginas de FILAS_POR_PAGINA libros y se puede ordenar
+ * por cualquier columna. El orden sale de OrdenCatalogo (permutaciones calculadas
+ * una sola vez), así que ordenar o cambiar de página solo cambia a qué posición del
+ * catálogo apunta cada fila: no se copia ni se ordena nada, y los textos de una
+ * fila se leen del catálogo cuando la fila aparece en pantalla al desplazarse.
+ * =================================================================================
+ */
+
+// --- Clase ModeloTablaInventario: Modelo "virtual" que se apoya en el catálogo de libros. ---
+class ModeloTablaInventario extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    // Nombres de las columnas que verá el usuario.
+    private static final String[] COLUMNAS = {"Código", "Título", "Autor", "Estado"};
+
+    // Libros por página: bastantes para desplazarse con la rueda sin cambiar de página a cada momento.
+    static final int FILAS_POR_PAGINA = 1000;
+
+    // Caché de textos de las filas pintadas hace poco (potencia de 2, bastante mayor que las filas visibles).
+    // El código, el título y el autor no cambian nunca, así que repintar o volver a una fila ya vista no crea
+    // objetos, aunque el catálogo esté mapeado desde disco y cada lectura tuviera que decodificar el texto.
+    private static final int FILAS_EN_CACHE = 512;
+    private static final int SIN_FILA_CONOCIDA = -2; // Ver filaDe().
+
+    private final CatalogoLibros catalogo; // Fuente de los datos.
+    private final OrdenCatalogo orden;     // Órdenes precalculados del catálogo (por código, título, autor y estado).
+    private OrdenCatalogo.Criterio criterio = OrdenCatalogo.Criterio.CATALOGO; // Sin ordenar: la fila N es el libro N.
+    private boolean descendente;
+    private int pagina;                    // Página que se muestra (desde 0).
+    private int[] filtro;                  // Posiciones del catálogo que se muestran (ordenadas), o null para mostrar todo.
+    private int[] filtroEnOrden;           // Las mismas posiciones en el orden elegido (es filtro si no se ordenó).
+    private final int[] posicionEnCache = new int[FILAS_EN_CACHE];         // Qué posición del catálogo ocupa cada hueco (-1 = vacío).
+    private final String[][] textosEnCache = new String[FILAS_EN_CACHE][]; // Código, título y autor de esa posición.
+
+    // Constructor: recibe el catálogo del que se leerán las filas (solo se podrá ver en el orden del catálogo
+    // hasta que se sincronice el OrdenCatalogo; ver el otro constructor).
+    public ModeloTablaInventario(CatalogoLibros catalogo) {
+        this(catalogo, new OrdenCatalogo(catalogo));
+    }
+
+    // Constructor con los órdenes del catálogo ya creados (los comparte con el resto de la aplicación).
+    public ModeloTablaInventario(CatalogoLibros catalogo, OrdenCatalogo orden) {
+        this.catalogo = catalogo;
+        this.orden = orden;
+        Arrays.fill(posicionEnCache, -1);
+    }
+
+    @Override
+    public int getRowCount() { return Math.max(0, Math.min(FILAS_POR_PAGINA, totalFilas() - primeraDePagina())); }
+
+    @Override
+    public int getColumnCount() { return COLUMNAS.length; }
+
+    @Override
+    public String getColumnName(int column) { return COLUMNAS[column]; }
+
+    @Override
+    public Class<?> getColumnClass(int column) { return String.class; }
+
+    // Las celdas de la tabla no son editables por el usuario.
+    @Override
+    public boolean isCellEditable(int row, int column) { return false; }
+
+    // Lee el valor de una celda. El estado se consulta siempre al catálogo (cambia con cada préstamo);
+    // los textos salen de la caché de filas.
+    @Override
+    public Object getValueAt(int row, int column) {
+        int posicion = posicionDeFila(row);
+        if (column == 3) {
+            return Libro.textoEstado(catalogo.estaPrestado(posicion));
+        }
+        return column >= 0 && column < 3 ? textosDe(posicion)[column] : null;
+    }
+
+    // Devuelve los textos de una posición, leyéndolos del catálogo solo si no estaban en la caché.
+    private String[] textosDe(int posicion) {
+        int hueco = posicion & (FILAS_EN_CACHE - 1);
+        if (posicionEnCache[hueco] != posicion) {
+            Libro libro = catalogo.obtener(posicion);
+            textosEnCache[hueco] = new String[] {libro.getCodigo(), libro.getTitulo(), libro.getAutor()};
+            posicionEnCache[hueco] = posicion;
+        }
+        return textosEnCache[hueco];
+    }
+
+    // Devuelve el libro que se muestra en una fila del modelo.
+    public Libro getLibroEnFila(int row) { return catalogo.obtener(posicionDeFila(row)); }
+
+    // Convierte una fila de la página en la posición del libro dentro del catálogo.
+    public int posicionDeFila(int row) {
+        int rango = primeraDePagina() + row;
+        return filtro != null ? filtroEnOrden[rango] : orden.posicionEn(criterio, descendente, rango);
+    }
+
+    // Muestra solo las posiciones indicadas (por ejemplo, los resultados de una búsqueda). Con null se muestra todo.
+    // No se copia ningún libro: la tabla solo cambia el número de filas y a qué libro apunta cada una.
+    public void filtrar(int[] posicionesOrdenadas) {
+        this.filtro = posicionesOrdenadas;
+        this.filtroEnOrden = ordenarFiltro();
+        this.pagina = 0;
+        fireTableDataChanged();
+    }
+
+    // --- Orden y páginas ---
+
+    // Ordena por un criterio (y vuelve a la primera página). Los órdenes por campo necesitan que OrdenCatalogo
+    // esté listo; mientras no lo esté, la tabla sigue en el orden del catálogo.
+    public void ordenar(OrdenCatalogo.Criterio criterio, boolean descendente) {
+        this.criterio = criterio;
+        this.descendente = descendente;
+        this.filtroEnOrden = ordenarFiltro();
+        this.pagina = 0;
+        fireTableDataChanged();
+    }
+
+    public OrdenCatalogo.Criterio getCriterio() { return criterio; }
+    public boolean isDescendente() { return descendente; }
+
+    // Las posiciones del filtro en el orden elegido (son pocas: como mucho el límite de resultados de la búsqueda).
+    private int[] ordenarFiltro() {
+        if (filtro == null || (criterio == OrdenCatalogo.Criterio.CATALOGO && !descendente)) {
+            return filtro;
+        }
+        return orden.ordenar(filtro, criterio, descendente);
+    }
+
+    // Cambia de página (se ajusta a las que hay).
+    public void irAPagina(int pagina) {
+        int ajustada = Math.max(0, Math.min(pagina, getPaginas() - 1));
+        if (ajustada != this.pagina) {
+            this.pagina = ajustada;
+            fireTableDataChanged();
+        }
+    }
+
+    public int getPagina() { return pagina; }
+
+    // Número de páginas (al menos una, aunque esté vacía).
+    public int getPaginas() { return Math.max(1, (totalFilas() + FILAS_POR_PAGINA - 1) / FILAS_POR_PAGINA); }
+
+    // Libros que se pueden ver en total (todo el catálogo o los resultados de la búsqueda).
+    public int totalFilas() { return filtro != null ? filtro.length : catalogo.tamano(); }
+
+    private int primeraDePagina() { return pagina * FILAS_POR_PAGINA; }
+
+    // --- Avisos de cambios ---
+
+    // Fila de la página actual en la que se ve una posición del catálogo: -1 si no está en esta página, o
+    // SIN_FILA_CONOCIDA si con el orden elegido no se puede saber sin buscarla.
+    private int filaDe(int posicion) {
+        if (posicion < 0) {
+            return -1;
+        }
+        if (criterio != OrdenCatalogo.Criterio.CATALOGO || descendente) {
+            return SIN_FILA_CONOCIDA;
+        }
+        int rango = filtro == null ? posicion : Arrays.binarySearch(filtro, posicion);
+        int fila = rango - primeraDePagina();
+        return rango >= 0 && fila < getRowCount() ? fila : -1;
+    }
+
+    // Avisa a la tabla de que cambiaron varios libros a la vez (ver RepintadoAgrupado): un solo evento que cubre
+    // de la primera a la última fila afectada. La tabla solo repinta la parte de ese rango que está a la vista.
+    public void librosActualizados(Iterable<String> codigos) {
+        if (criterio == OrdenCatalogo.Criterio.ESTADO) {
+            this.filtroEnOrden = ordenarFiltro();
+            fireTableDataChanged(); // Un préstamo o una devolución mueve el libro de grupo: cambian las filas.
+            return;
+        }
+        int primera = Integer.MAX_VALUE, ultima = -1;
+        for (String codigo : codigos) {
+            int fila = filaDe(catalogo.posicionDe(codigo));
+            if (fila == SIN_FILA_CONOCIDA) {
+                primera = 0; // Con otro orden no se busca cada fila: se repinta la página (solo se pinta lo visible).
+                ultima = getRowCount() - 1;
+                break;
+            }
+            if (fila >= 0) {
+                primera = Math.min(primera, fila);
+                ultima = Math.max(ultima, fila);
+            }
+        }
+        if (ultima >= 0) {
+            fireTableRowsUpdated(primera, ultima);
+        }
+    }
+
+    // Avisa a la tabla de que OrdenCatalogo incorporó libros nuevos a sus permutaciones: con un orden por campo,
+    // esos libros dejan de verse al final y pasan a su sitio.
+    public void ordenActualizado() {
+        if (criterio.campo >= 0) {
+            this.filtroEnOrden = ordenarFiltro();
+            fireTableDataChanged();
+        }
+    }
+
+    // Avisa a la tabla de que se añadieron libros al final del catálogo (posiciones desde..hasta, ambas incluidas).
+    public void librosAgregados(int desde, int hasta) {
+        if (hasta < desde || filtro != null) {
+            return; // Con un filtro activo, los libros nuevos aparecen al volver a buscar.
+        }
+        if (criterio != OrdenCatalogo.Criterio.CATALOGO || descendente) {
+            fireTableDataChanged(); // Con otro orden, los libros nuevos caen en cualquier página.
+            return;
+        }
+        int primera = Math.max(desde, primeraDePagina()) - primeraDePagina();
+        int ultima = Math.min(hasta, primeraDePagina() + FILAS_POR_PAGINA - 1) - primeraDePagina();
+        if (primera <= ultima) {
+            fireTableRowsInserted(primera, ultima);
+        }
+    }
+}
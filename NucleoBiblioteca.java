@@ -0,0 +1,178 @@
+// Importamos las rutas y excepciones de E/S que usa el arranque del núcleo.
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+
+/*
+ * =================================================================================
+ * NÚCLEO DE LA BIBLIOTECA (SIN INTERFAZ)
+ * Reúne todo lo que la aplicación necesita para funcionar sin ventanas: el
+ * catálogo, los usuarios, el almacén en disco, el servicio de préstamos, el índice
+ * de búsqueda, los órdenes del inventario, el planificador de vencimientos, la
+ * bitácora de eventos con sus vistas, las sesiones y las métricas. La ventana Swing
+ * y el servidor HTTP de los quioscos se apoyan en el mismo núcleo, así que pueden
+ * convivir en un solo proceso y ven siempre los mismos datos.
+ *
+ * Se puede arrancar solo, sin interfaz gráfica:
+ *     java NucleoBiblioteca [puerto]
+ * =================================================================================
+ */
+
+// --- Clase NucleoBiblioteca: Estado y servicios compartidos por la ventana y la API HTTP. ---
+class NucleoBiblioteca {
+    private final CatalogoLibros inventario;
+    private final RepositorioUsuarios usuarios = new RepositorioUsuarios();
+    private final AlmacenPersistente almacen;
+    private final ServicioPrestamos servicio;
+    private final IndiceBusqueda indiceBusqueda;
+    private final PlanificadorVencimientos planificador;
+    private final MetricasCirculacion metricas = new MetricasCirculacion();
+    private final BitacoraCirculacion bitacora;
+    private final VistaDisponibilidad disponibilidad;
+    private final VistaPrestamosActivos prestamosActivos;
+    private final VistaVencimientos vencimientos;
+    private final InformesCirculacion informes;
+    private final GestorSesiones sesiones;
+    private final OrdenCatalogo orden;
+    private final TiemposArranque tiempos;
+
+    // Constructor privado: se crea con abrir(), que puede fallar al leer los datos.
+    private NucleoBiblioteca(Path directorioDatos, TiemposArranque tiempos) throws IOException {
+        this.tiempos = tiempos;
+        // Se recupera el estado guardado en disco; si es el primer arranque, se cargan los libros y el usuario de prueba.
+        inventario = CatalogoMapeado.abrirODefecto(directorioDatos); // Si existe "catalogo.img", se mapea sin cargarlo en el heap.
+        tiempos.marcar("catálogo abierto");
+        almacen = new AlmacenPersistente(directorioDatos, inventario, usuarios);
+        if (!almacen.recuperar()) {
+            cargarDatosIniciales();
+            almacen.tomarInstantanea(); // Guarda los datos iniciales para el próximo arranque.
+        }
+        tiempos.marcar("datos recuperados");
+        servicio = new ServicioPrestamos(inventario, usuarios, almacen);
+        sesiones = new GestorSesiones(usuarios, servicio.getReloj()); // Las sesiones de la ventana y de los quioscos.
+
+        // Las métricas cuentan cada cambio del servicio y se publican por JMX (y en /metricas si hay API).
+        servicio.agregarOyente(metricas);
+        metricas.registrarJmx();
+
+        // La bitácora parte del estado recuperado y desde ahí anota cada cambio; las vistas se construyen reproduciéndola.
+        bitacora = new BitacoraCirculacion(inventario, servicio.getReloj());
+        bitacora.sembrar(usuarios);
+        servicio.agregarOyente(bitacora);
+        disponibilidad = bitacora.agregarVista(new VistaDisponibilidad());
+        prestamosActivos = bitacora.agregarVista(new VistaPrestamosActivos());
+        vencimientos = bitacora.agregarVista(new VistaVencimientos());
+        informes = new InformesCirculacion(inventario, usuarios, vencimientos, bitacora.agregarVista(new VistaPopularidad(inventario)));
+
+        // El índice de búsqueda se actualiza con cada libro nuevo; el grueso se construye con indexarEnSegundoPlano().
+        indiceBusqueda = new IndiceBusqueda(inventario);
+        servicio.agregarOyente(new OyenteCirculacion() {
+            @Override
+            public void libroAgregado(Libro libro, int posicion) {
+                indiceBusqueda.indexarNuevo(posicion);
+            }
+        });
+
+        // Los órdenes del inventario siguen los préstamos desde ya; las permutaciones se calculan con indexarEnSegundoPlano().
+        orden = new OrdenCatalogo(inventario);
+        servicio.agregarOyente(orden);
+
+        // La rueda de vencimientos revisa cada minuto si hay vetos que levantar o préstamos que han vencido.
+        planificador = new PlanificadorVencimientos(servicio);
+        servicio.agregarOyente(planificador);
+        planificador.programarExistentes(usuarios.todos());
+        planificador.iniciar(1);
+
+        // Si la aplicación se cerró justo al devolver un libro reservado, se entrega ahora al primero de su cola.
+        servicio.entregarReservasPendientes();
+        tiempos.marcar("núcleo listo");
+    }
+
+    // Abre (o crea) los datos de la biblioteca en un directorio.
+    public static NucleoBiblioteca abrir(Path directorioDatos) throws IOException {
+        return abrir(directorioDatos, new TiemposArranque());
+    }
+
+    // Igual, anotando en "tiempos" cuándo termina cada fase de la carga.
+    public static NucleoBiblioteca abrir(Path directorioDatos, TiemposArranque tiempos) throws IOException {
+        return new NucleoBiblioteca(directorioDatos, tiempos);
+    }
+
+    // Carga los datos iniciales de la aplicación.
+    private void cargarDatosIniciales() {
+        // Añade los 10 libros al inventario.
+        inventario.agregar(new Libro("LIB001", "Satanás", "Mario Mendoza"));
+        inventario.agregar(new Libro("LIB002", "Cosas que piensas...", "Amalia Andrade"));
+        inventario.agregar(new Libro("LIB003", "Los siete maridos de Evelyn Hugo", "Taylor Jenkins Reid"));
+        inventario.agregar(new Libro("LIB004", "Blue sisters", "Coco Mellors"));
+        inventario.agregar(new Libro("LIB005", "Cadáver exquisito", "Agustina Bazterrica"));
+        inventario.agregar(new Libro("LIB006", "Lo que la nieve susurra...", "María Martinez"));
+        inventario.agregar(new Libro("LIB007", "Lady masacre", "Mario Mendoza"));
+        inventario.agregar(new Libro("LIB008", "Amarilla", "R. F. Kuang"));
+        inventario.agregar(new Libro("LIB009", "La cúpula", "Stephen King"));
+        inventario.agregar(new Libro("LIB010", "Relato de un asesino", "Mario Mendoza"));
+
+        // Añade un usuario de prueba para facilitar el acceso.
+        Usuario usuarioDePrueba = new Usuario("Usuario Admin", "0000", "01/01/2000", 25, "N/A", "admin@test.com", "admin", "admin");
+        usuarios.registrar(usuarioDePrueba);
+    }
+
+    // Construye el índice de búsqueda y los órdenes del inventario en un hilo aparte y, al terminar, ejecuta
+    // "alTerminar" (puede ser null).
+    public void indexarEnSegundoPlano(Runnable alTerminar) {
+        Thread indexador = new Thread(() -> {
+            indiceBusqueda.sincronizar();
+            tiempos.marcar("índice de búsqueda");
+            orden.sincronizar(); // Si "catalogo.img" trae los órdenes, solo se ordenan los libros añadidos después.
+            tiempos.marcar("órdenes del inventario");
+            if (alTerminar != null) {
+                alTerminar.run();
+            }
+        }, "biblioteca-indice");
+        indexador.setDaemon(true);
+        indexador.start();
+    }
+
+    // --- Accesores ---
+
+    public CatalogoLibros getInventario() { return inventario; }
+    public RepositorioUsuarios getUsuarios() { return usuarios; }
+    public ServicioPrestamos getServicio() { return servicio; }
+    public IndiceBusqueda getIndiceBusqueda() { return indiceBusqueda; }
+    public MetricasCirculacion getMetricas() { return metricas; }
+    public BitacoraCirculacion getBitacora() { return bitacora; }
+    public VistaDisponibilidad getDisponibilidad() { return disponibilidad; }
+    public VistaPrestamosActivos getPrestamosActivos() { return prestamosActivos; }
+    public VistaVencimientos getVencimientos() { return vencimientos; }
+    public InformesCirculacion getInformes() { return informes; }
+    public GestorSesiones getSesiones() { return sesiones; }
+    public OrdenCatalogo getOrden() { return orden; }
+    public TiemposArranque getTiempos() { return tiempos; }
+
+    // Detiene el planificador, espera a que el diario termine de escribirse en disco y retira las métricas de JMX.
+    public void cerrar() {
+        planificador.detener();
+        servicio.cerrar();
+        metricas.desregistrarJmx();
+    }
+
+    // --- Arranque sin interfaz gráfica: solo la API HTTP ---
+    public static void main(String[] args) throws IOException {
+        int puerto = args.length > 0 ? Integer.parseInt(args[0]) : ServidorHttpBiblioteca.PUERTO_POR_DEFECTO;
+        NucleoBiblioteca nucleo = abrir(AlmacenPersistente.directorioPorDefecto());
+        ServidorHttpBiblioteca servidor = new ServidorHttpBiblioteca(nucleo, new InetSocketAddress("127.0.0.1", puerto));
+        servidor.iniciar();
+        // Al parar el proceso (Ctrl+C) se cierra el servidor y se guarda todo antes de salir.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.detener();
+            nucleo.cerrar();
+        }, "biblioteca-cierre"));
+        nucleo.indexarEnSegundoPlano(() -> {
+            nucleo.getTiempos().imprimirSiSePidio();
+            if (TiemposArranque.ENTRENAR) {
+                System.exit(0); // Arranque de entrenamiento para el archivo CDS: el gancho de cierre lo guarda todo.
+            }
+        });
+        System.out.println("API de la biblioteca escuchando en http://127.0.0.1:" + servidor.getPuerto() + "/");
+    }
+}
@@ -0,0 +1,401 @@
+// Importamos las utilidades de arrays, las fechas que usan los órdenes precalculados y los atómicos y el cerrojo
+// con los que se siguen los préstamos y se construyen los órdenes sin bloquear a nadie.
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * =================================================================================
+ * ÓRDENES PRECALCULADOS DEL CATÁLOGO
+ * Para ver el inventario ordenado por código, título o autor no se copia ni se
+ * ordena el catálogo cada vez: se calcula una sola vez (en segundo plano, al
+ * arrancar) una permutación por campo, un array de enteros con las posiciones del
+ * catálogo en ese orden. La fila N de la vista ordenada es la posición
+ * permutacion[N], así que abrir, ordenar y pasar de página cuesta O(1) y no crea
+ * nada por fila. Las claves se comparan normalizadas, como en el buscador
+ * ("Cadáver" va junto a "cadaver").
+ *
+ * El orden por Estado cambia con cada préstamo, así que no se precalcula: se
+ * guarda un bit por libro (prestado o no) en bloques de 4096, cada bloque con
+ * su cuenta de prestados. La fila N se encuentra saltando bloques enteros por
+ * su cuenta y contando bits dentro del bloque que la contiene. Un préstamo o
+ * una devolución solo cambia un bit y dos contadores, sin cerrojos ni copias.
+ * Dentro de cada estado, los libros van en el orden del catálogo.
+ *
+ * Los libros añadidos después se incorporan de forma incremental (búsqueda
+ * binaria del hueco de cada uno y una sola mezcla) en un hilo aparte, que se
+ * lanza con el aviso de cada alta (una ráfaga de altas es una sola pasada) y al
+ * terminar avisa a quien pinta la tabla. Consultar un orden nunca construye nada:
+ * hasta entonces, los libros nuevos se ven al final. Si el catálogo viene de una imagen que ya trae los órdenes
+ * ("catalogo.img", versión 2), se parte de ellos y solo se ordenan los añadidos.
+ * Las permutaciones se construyen fuera de cualquier cerrojo que usen los
+ * préstamos o la tabla, y se publican de una vez al terminar. Mientras una
+ * construcción está en marcha, la tabla usa las anteriores.
+ * =================================================================================
+ */
+
+// --- Clase OrdenCatalogo: Permutaciones del catálogo por campo y libros prestados en orden. ---
+class OrdenCatalogo implements OyenteCirculacion {
+    // Criterios de orden. CATALOGO es el orden de alta (la posición); los demás son columnas de la tabla.
+    enum Criterio {
+        CATALOGO(-1), CODIGO(0), TITULO(1), AUTOR(2), ESTADO(-1);
+
+        final int campo; // Campo del libro que se compara (código, título, autor), o -1.
+
+        Criterio(int campo) { this.campo = campo; }
+
+        // Criterio de una columna de la tabla del inventario (0 código, 1 título, 2 autor, 3 estado).
+        static Criterio deColumna(int columna) {
+            return columna >= 0 && columna < 3 ? values()[columna + 1] : columna == 3 ? ESTADO : CATALOGO;
+        }
+    }
+
+    private static final int BITS_BLOQUE = 12;                      // Libros por bloque del orden por Estado: 4096.
+    private static final int PALABRAS_BLOQUE = (1 << BITS_BLOQUE) / 64; // Longs por bloque.
+
+    // Un bloque de 4096 libros seguidos: un bit por libro y cuántos de ellos están prestados.
+    private static final class Bloque {
+        final AtomicLongArray bits = new AtomicLongArray(PALABRAS_BLOQUE);
+        final AtomicInteger prestados = new AtomicInteger();
+    }
+
+    private final CatalogoLibros catalogo;
+    // Por campo (código, título, autor); cubren las posiciones 0..length-1. Null hasta que termina la primera construcción.
+    private volatile int[][] permutaciones;
+    private final ReentrantLock construccion = new ReentrantLock(); // Solo lo toman quienes construyen permutaciones.
+    private boolean prestadosLeidos;         // Si ya se recorrió el catálogo para conocer los que estaban prestados al arrancar (con construccion).
+    private volatile Bloque[] bloques = new Bloque[0]; // Solo crece: los bloques existentes se conservan al añadir más.
+    private final AtomicInteger prestados = new AtomicInteger(); // Total de bits a 1.
+    private final AtomicBoolean incorporacionPendiente = new AtomicBoolean(); // Ya hay un hilo en marcha para los libros nuevos.
+    private final List<Runnable> avisos = new CopyOnWriteArrayList<>();       // Se ejecutan al publicar permutaciones nuevas.
+
+    public OrdenCatalogo(CatalogoLibros catalogo) {
+        this.catalogo = catalogo;
+    }
+
+    // --- Construcción ---
+
+    // Calcula las permutaciones (la primera vez) o incorpora los libros añadidos desde la última vez.
+    // La primera vez tarda (un millón de libros: unos segundos) salvo que la imagen del catálogo ya traiga los
+    // órdenes; conviene llamarla en segundo plano. Solo espera a otra construcción, nunca a préstamos ni consultas.
+    public void sincronizar() {
+        construccion.lock();
+        try {
+            do {
+                construir();
+            } while (permutaciones[0].length < catalogo.tamano()); // Libros añadidos mientras se construía.
+        } finally {
+            construccion.unlock();
+        }
+    }
+
+    // Pide que se ejecute "aviso" cada vez que se publican permutaciones nuevas (por ejemplo, para repintar la
+    // tabla). Se ejecuta en el hilo que las construyó.
+    public void agregarAviso(Runnable aviso) {
+        avisos.add(aviso);
+    }
+
+    // Incorpora los libros nuevos en un hilo aparte y después avisa. Si ya hay uno pendiente, ese los incluirá.
+    private void incorporarEnSegundoPlano() {
+        if (!incorporacionPendiente.compareAndSet(false, true)) {
+            return;
+        }
+        Thread hilo = new Thread(() -> {
+            incorporacionPendiente.set(false); // Las altas que lleguen a partir de aquí lanzan otra pasada.
+            sincronizar();
+            for (Runnable aviso : avisos) {
+                aviso.run();
+            }
+        }, "biblioteca-orden");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    // Hace el trabajo de sincronizar(). Se llama con el cerrojo de construcción.
+    private void construir() {
+        if (!prestadosLeidos) {
+            leerPrestados();
+        }
+        int total = catalogo.tamano();
+        int[][] actuales = permutaciones != null ? permutaciones : ordenesDeImagen();
+        if (actuales != null && actuales[0].length == total) {
+            permutaciones = actuales;
+            return;
+        }
+        int desde = actuales == null ? 0 : actuales[0].length;
+        int[][] nuevas = new int[3][];
+        for (int campo = 0; campo < 3; campo++) {
+            int[] anadidas = ordenarRango(desde, total, campo);
+            nuevas[campo] = actuales == null ? anadidas : mezclar(actuales[campo], anadidas, campo);
+        }
+        permutaciones = nuevas; // Se publican juntas: un lector ve las de antes o las de después, nunca una mezcla.
+    }
+
+    // Órdenes de los libros de la imagen guardados en el fichero, o null si el catálogo no los trae.
+    private int[][] ordenesDeImagen() {
+        if (catalogo.librosEnImagen() == 0) {
+            return null;
+        }
+        int[][] ordenes = new int[3][];
+        for (int campo = 0; campo < 3; campo++) {
+            ordenes[campo] = catalogo.ordenEnImagen(campo);
+            if (ordenes[campo] == null) {
+                return null;
+            }
+        }
+        return ordenes;
+    }
+
+    // Permutación completa de un campo (0 = código, 1 = título, 2 = autor); la usa CatalogoMapeado al escribir la imagen.
+    int[] permutacion(int campo) {
+        sincronizar();
+        return permutaciones[campo];
+    }
+
+    // Indica si ya se pueden pedir órdenes por campo (si no, solo CATALOGO y ESTADO).
+    public boolean listo() { return permutaciones != null; }
+
+    // Recorre el catálogo una vez para saber qué libros estaban prestados al arrancar. Los préstamos y devoluciones
+    // que llegan a la vez copian el mismo estado del catálogo (ver copiarEstado), así que no se pierde ninguno.
+    private void leerPrestados() {
+        int total = catalogo.tamano();
+        for (int posicion = 0; posicion < total; posicion++) {
+            if (catalogo.estaPrestado(posicion)) {
+                copiarEstado(posicion);
+            }
+        }
+        prestadosLeidos = true;
+    }
+
+    // Posiciones desde..hasta-1 ordenadas por un campo (ordenación por mezcla estable: los empates quedan por posición).
+    private int[] ordenarRango(int desde, int hasta, int campo) {
+        int n = hasta - desde;
+        String[] claves = new String[n];
+        int[] orden = new int[n];
+        for (int i = 0; i < n; i++) {
+            claves[i] = clave(desde + i, campo);
+            orden[i] = i;
+        }
+        int[] auxiliar = new int[n];
+        for (int ancho = 1; ancho < n; ancho *= 2) {
+            for (int inicio = 0; inicio < n - ancho; inicio += 2 * ancho) {
+                int medio = inicio + ancho, fin = Math.min(inicio + 2 * ancho, n);
+                int i = inicio, j = medio, k = inicio;
+                while (i < medio && j < fin) {
+                    auxiliar[k++] = claves[orden[j]].compareTo(claves[orden[i]]) < 0 ? orden[j++] : orden[i++];
+                }
+                while (i < medio) {
+                    auxiliar[k++] = orden[i++];
+                }
+                while (j < fin) {
+                    auxiliar[k++] = orden[j++];
+                }
+                System.arraycopy(auxiliar, inicio, orden, inicio, fin - inicio);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            orden[i] += desde;
+        }
+        return orden;
+    }
+
+    // Mezcla una permutación existente con posiciones nuevas ya ordenadas. No se guardan las claves de los libros
+    // antiguos: el hueco de cada nuevo se busca con una búsqueda binaria que lee solo unas pocas claves del catálogo.
+    private int[] mezclar(int[] existentes, int[] nuevas, int campo) {
+        int[] resultado = new int[existentes.length + nuevas.length];
+        int copiados = 0, escritos = 0;
+        for (int nueva : nuevas) {
+            String claveNueva = clave(nueva, campo);
+            int bajo = copiados, alto = existentes.length; // Las nuevas van después de las antiguas con la misma clave.
+            while (bajo < alto) {
+                int medio = (bajo + alto) >>> 1;
+                if (clave(existentes[medio], campo).compareTo(claveNueva) <= 0) {
+                    bajo = medio + 1;
+                } else {
+                    alto = medio;
+                }
+            }
+            System.arraycopy(existentes, copiados, resultado, escritos, bajo - copiados);
+            escritos += bajo - copiados;
+            copiados = bajo;
+            resultado[escritos++] = nueva;
+        }
+        System.arraycopy(existentes, copiados, resultado, escritos, existentes.length - copiados);
+        return resultado;
+    }
+
+    // Clave de orden de un campo de un libro: normalizada como en el buscador (minúsculas, sin tildes).
+    private String clave(int posicion, int campo) {
+        Libro libro = catalogo.obtener(posicion);
+        String texto = campo == 0 ? libro.getCodigo() : campo == 1 ? libro.getTitulo() : libro.getAutor();
+        return IndiceBusqueda.normalizar(texto);
+    }
+
+    // --- Consulta ---
+
+    // Número de libros que abarca un orden (todo el catálogo, también los que aún no se han incorporado).
+    public int tamano() { return catalogo.tamano(); }
+
+    // Posición del catálogo que ocupa el puesto "rango" (0 = primero) en un orden. Si las permutaciones aún no
+    // están listas, los órdenes por campo devuelven el del catálogo. Se llama al pintar cada celda, así que nunca
+    // construye: responde con las permutaciones que haya y deja los libros aún no incorporados al final.
+    public int posicionEn(Criterio criterio, boolean descendente, int rango) {
+        int total = catalogo.tamano();
+        int puesto = descendente ? total - 1 - rango : rango;
+        if (criterio == Criterio.CATALOGO) {
+            return puesto;
+        }
+        if (criterio == Criterio.ESTADO) {
+            return posicionPorEstado(puesto, total);
+        }
+        int[][] actuales = permutaciones;
+        if (actuales == null) {
+            return puesto;
+        }
+        int[] permutacion = actuales[criterio.campo];
+        // Los libros que aún no están en la permutación van al final, en el orden del catálogo.
+        return puesto < permutacion.length ? permutacion[puesto] : puesto;
+    }
+
+    // Orden por Estado: primero los disponibles y después los prestados, cada grupo en el orden del catálogo.
+    private int posicionPorEstado(int puesto, int total) {
+        int disponibles = total - prestados.get();
+        return puesto >= disponibles ? buscarEstado(puesto - disponibles, true, total) : buscarEstado(puesto, false, total);
+    }
+
+    // Posición del libro número "n" (0 = primero) entre los que tienen ese estado. Salta bloques enteros con su
+    // cuenta y solo cuenta bits en el bloque que lo contiene. Si un préstamo simultáneo lo deja sin encontrar,
+    // devuelve el último libro (la tabla se vuelve a pintar con el cambio).
+    private int buscarEstado(int n, boolean prestado, int total) {
+        Bloque[] actuales = bloques;
+        for (int b = 0; b << BITS_BLOQUE < total; b++) {
+            int base = b << BITS_BLOQUE;
+            int enBloque = Math.min(1 << BITS_BLOQUE, total - base);
+            if (b >= actuales.length) {
+                // Bloque aún sin crear: ningún libro de él se ha prestado.
+                if (!prestado && n < enBloque) {
+                    return base + n;
+                }
+                n -= prestado ? 0 : enBloque;
+                continue;
+            }
+            int prestadosBloque = actuales[b].prestados.get();
+            int conEstado = prestado ? prestadosBloque : enBloque - prestadosBloque;
+            if (n >= conEstado) {
+                n -= conEstado;
+                continue;
+            }
+            for (int w = 0; w < PALABRAS_BLOQUE && w * 64 < enBloque; w++) {
+                long palabra = actuales[b].bits.get(w);
+                if (!prestado) {
+                    int validos = enBloque - w * 64;
+                    palabra = ~palabra & (validos >= 64 ? -1L : (1L << validos) - 1);
+                }
+                int cuenta = Long.bitCount(palabra);
+                if (n < cuenta) {
+                    for (; n > 0; n--) {
+                        palabra &= palabra - 1; // Quita el bit más bajo.
+                    }
+                    return base + w * 64 + Long.numberOfTrailingZeros(palabra);
+                }
+                n -= cuenta;
+            }
+        }
+        return total - 1;
+    }
+
+    // Ordena unas pocas posiciones (por ejemplo, los resultados de una búsqueda) con el mismo criterio, sin tocar
+    // las permutaciones. Devuelve un array nuevo.
+    public int[] ordenar(int[] posiciones, Criterio criterio, boolean descendente) {
+        int n = posiciones.length;
+        String[] claves = new String[n];
+        Integer[] orden = new Integer[n]; // Son como mucho unos miles: basta con ordenar objetos.
+        for (int i = 0; i < n; i++) {
+            orden[i] = i;
+            claves[i] = criterio.campo >= 0 ? clave(posiciones[i], criterio.campo)
+                    : criterio == Criterio.ESTADO && catalogo.estaPrestado(posiciones[i]) ? "1" : "0";
+        }
+        Arrays.sort(orden, Comparator.<Integer, String>comparing(i -> claves[i]).thenComparingInt(i -> posiciones[i]));
+        int[] resultado = new int[n];
+        for (int i = 0; i < n; i++) {
+            resultado[i] = posiciones[orden[descendente ? n - 1 - i : i]];
+        }
+        return resultado;
+    }
+
+    // --- Seguimiento de altas y préstamos (OyenteCirculacion) ---
+
+    // Un libro nuevo se incorpora a las permutaciones en segundo plano (antes de la primera construcción no hace
+    // falta: la construcción sigue hasta el final del catálogo).
+    @Override
+    public void libroAgregado(Libro libro, int posicion) {
+        if (permutaciones != null) {
+            incorporarEnSegundoPlano();
+        }
+    }
+
+    @Override
+    public void prestamoRealizado(Usuario usuario, Libro libro, Prestamo prestamo) {
+        cambiarPrestado(prestamo.getCodigoLibro(), true);
+    }
+
+    @Override
+    public void devolucionRealizada(Usuario usuario, Libro libro, Prestamo prestamo, LocalDate finVeto) {
+        cambiarPrestado(prestamo.getCodigoLibro(), false);
+    }
+
+    private void cambiarPrestado(String codigo, boolean prestado) {
+        int posicion = catalogo.posicionDe(codigo);
+        if (posicion >= 0) {
+            copiarEstado(posicion); // El catálogo ya tiene el estado nuevo cuando llega el aviso.
+        }
+    }
+
+    // Copia en el bit de una posición el estado que tiene en el catálogo. Tanto el recorrido inicial como los avisos
+    // copian el estado del catálogo (no el que traía el aviso) y lo vuelven a comprobar después de escribirlo: si
+    // cambió entretanto, repiten. Así el último en escribir siempre deja el valor actual.
+    private void copiarEstado(int posicion) {
+        Bloque bloque = bloque(posicion >>> BITS_BLOQUE);
+        int palabra = (posicion >>> 6) & (PALABRAS_BLOQUE - 1);
+        long bit = 1L << posicion; // Los desplazamientos de long usan los 6 bits bajos.
+        boolean prestado;
+        do {
+            prestado = catalogo.estaPrestado(posicion);
+            long antes = prestado ? bloque.bits.getAndAccumulate(palabra, bit, (v, b) -> v | b)
+                                  : bloque.bits.getAndAccumulate(palabra, bit, (v, b) -> v & ~b);
+            if (((antes & bit) != 0) != prestado) {
+                int cambio = prestado ? 1 : -1;
+                bloque.prestados.addAndGet(cambio);
+                prestados.addAndGet(cambio);
+            }
+        } while (catalogo.estaPrestado(posicion) != prestado);
+    }
+
+    // Bloque número "indice", creándolo (y los anteriores que falten) si aún no existe.
+    private Bloque bloque(int indice) {
+        Bloque[] actuales = bloques;
+        return indice < actuales.length ? actuales[indice] : crecer(indice);
+    }
+
+    // Añade bloques hasta tener "indice". Los existentes se conservan tal cual, así que ningún bit se pierde.
+    private synchronized Bloque crecer(int indice) {
+        Bloque[] actuales = bloques;
+        if (indice >= actuales.length) {
+            Bloque[] nuevos = Arrays.copyOf(actuales, Math.max(indice + 1, actuales.length * 2));
+            for (int b = actuales.length; b < nuevos.length; b++) {
+                nuevos[b] = new Bloque();
+            }
+            bloques = nuevos;
+        }
+        return bloques[indice];
+    }
+
+    // Número de libros prestados ahora mismo.
+    public int prestados() { return prestados.get(); }
+}
@@ -0,0 +1,834 @@
+// Importamos las clases de E/S, canales de fichero, fechas y concurrencia que usa la persistencia.
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/*
+ * =================================================================================
+ * PERSISTENCIA: DIARIO DE ESCRITURA ANTICIPADA (WAL) E INSTANTÁNEAS
+ * Cada alta de libro, registro, préstamo y devolución se añade como un registro
+ * binario compacto al final de un diario ("biblioteca.wal"). Un hilo escritor
+ * agrupa los registros que llegan juntos y hace un único fsync por grupo
+ * (group commit). Cada cierto número de registros se guarda una instantánea
+ * completa ("instantanea.bin") y el diario se vacía, así la recuperación solo
+ * tiene que leer la instantánea más la cola del diario.
+ *
+ * La compactación periódica no detiene los préstamos. El hilo escritor "corta" el
+ * diario, que es un punto consistente porque cada registro entra en orden: cierra
+ * "biblioteca.wal" como "biblioteca.wal.N" y sigue en uno nuevo. Después, un hilo
+ * aparte carga en memoria propia la instantánea anterior más ese diario cerrado,
+ * sin tocar los datos en uso, y guarda la instantánea nueva. Cada instantánea
+ * indica el último diario cerrado que incluye, así que la recuperación sabe cuáles
+ * reproducir y cuáles ya sobran.
+ * =================================================================================
+ */
+
+// --- Clase AlmacenPersistente: Guarda y recupera el estado de la biblioteca en disco. ---
+class AlmacenPersistente {
+    // Tipos de registro del diario.
+    static final byte ALTA_LIBRO = 1;
+    static final byte REGISTRO_USUARIO = 2;
+    static final byte PRESTAMO = 3;
+    static final byte DEVOLUCION = 4;
+    static final byte ALTA_LIBROS = 5;        // Lote de altas de una importación masiva (un solo registro para muchos libros).
+    static final byte REGISTRO_USUARIOS = 6;  // Lote de registros de una importación masiva.
+    static final byte DEVOLUCION_FECHADA = 7; // Devolución con su fecha (para el historial); sustituye a DEVOLUCION.
+    static final byte RESERVA = 8;            // Un usuario entra en la cola de espera de un libro.
+    static final byte RESERVA_CANCELADA = 9;  // Un usuario sale de la cola sin llevarse el libro.
+
+    private static final int MAGIA_INSTANTANEA = 0x42494231; // "BIB1": identifica el fichero de instantánea.
+    private static final int VERSION_INSTANTANEA = 5; // La 2 añade los libros de la imagen mapeada; la 3, varios préstamos por usuario y el historial; la 4, las reservas; la 5, el último diario cerrado que incluye.
+    private static final int REGISTROS_POR_INSTANTANEA = 10_000; // Cada cuántos registros se compacta el diario.
+    private static final int MAX_GRUPO = 1024;                   // Máximo de tareas que se confirman con un solo fsync.
+
+    private final Path directorio;         // Directorio de datos.
+    private final Path ficheroDiario;      // Ruta del diario de escritura anticipada.
+    private final Path ficheroInstantanea; // Ruta de la instantánea.
+    private final CatalogoLibros libros;
+    private final RepositorioUsuarios usuarios;
+
+    private final LinkedBlockingQueue<Tarea> cola = new LinkedBlockingQueue<>(); // Tareas pendientes para el hilo escritor.
+    private FileChannel canal;               // Canal abierto sobre el diario (solo lo usa el hilo escritor tras la recuperación).
+    private Thread escritor;                 // Hilo que escribe los grupos de registros.
+    private final AtomicInteger registrosDesdeInstantanea = new AtomicInteger(); // Contador para decidir cuándo compactar.
+    private final AtomicBoolean compactando = new AtomicBoolean(); // Hay un diario cerrado esperando a entrar en la instantánea.
+    private int ultimoCorte;                 // Número del último diario cerrado (solo lo usa el hilo escritor tras la recuperación).
+    private final Object cerrojoInstantanea = new Object(); // Guardar la instantánea y borrar los diarios que ya incluye.
+    private int corteEnInstantanea;          // Último diario cerrado que incluye la instantánea guardada (con cerrojoInstantanea).
+    private int clavesEnClaro;               // Contraseñas en claro (datos anteriores al cifrado) encontradas al recuperar.
+
+    // Una tarea para el hilo escritor: un registro del diario, una instantánea, la orden de cortar el diario
+    // o la de cerrar.
+    private static final class Tarea {
+        final byte[] registro;     // Registro ya codificado (con longitud y CRC), o null.
+        final byte[] instantanea;  // Contenido completo de una instantánea, o null.
+        final boolean cortar;      // true para cerrar el diario actual y compactarlo en segundo plano.
+        final boolean cerrar;      // true si es la última tarea.
+        final CompletableFuture<Void> hecho = new CompletableFuture<>(); // Se completa cuando la tarea es durable.
+
+        Tarea(byte[] registro, byte[] instantanea, boolean cortar, boolean cerrar) {
+            this.registro = registro;
+            this.instantanea = instantanea;
+            this.cortar = cortar;
+            this.cerrar = cerrar;
+        }
+    }
+
+    // Constructor: prepara las rutas dentro del directorio de datos (no abre nada todavía).
+    public AlmacenPersistente(Path directorio, CatalogoLibros libros, RepositorioUsuarios usuarios) {
+        this.directorio = directorio;
+        this.ficheroDiario = directorio.resolve("biblioteca.wal");
+        this.ficheroInstantanea = directorio.resolve("instantanea.bin");
+        this.libros = libros;
+        this.usuarios = usuarios;
+    }
+
+    // Directorio de datos por defecto; se puede cambiar con -Dbiblioteca.datos=ruta.
+    static Path directorioPorDefecto() {
+        return Path.of(System.getProperty("biblioteca.datos", "datos-biblioteca"));
+    }
+
+    // --- Recuperación ---
+
+    // Carga la instantánea y reproduce los diarios sobre los repositorios, y después arranca el hilo escritor.
+    // Devuelve true si había datos guardados, o false si es el primer arranque.
+    public boolean recuperar() throws IOException {
+        Files.createDirectories(directorio);
+        boolean habiaDatos = false;
+
+        if (Files.exists(ficheroInstantanea)) {
+            // La instantánea se lee de una sola vez y se decodifica directamente desde memoria.
+            leerInstantanea(ByteBuffer.wrap(Files.readAllBytes(ficheroInstantanea)));
+            habiaDatos = true;
+        }
+
+        // Los diarios cerrados que la instantánea aún no incluye (la aplicación se cerró mientras se compactaban)
+        // se reproducen en orden; los que ya incluye sobran.
+        ultimoCorte = corteEnInstantanea;
+        for (int numero : numerosDiariosCerrados()) {
+            if (numero <= corteEnInstantanea) {
+                Files.deleteIfExists(diarioCerrado(numero));
+                continue;
+            }
+            if (numero != ultimoCorte + 1) {
+                throw new IOException("Falta el diario cerrado número " + (ultimoCorte + 1) + " en " + directorio);
+            }
+            reproducir(diarioCerrado(numero));
+            ultimoCorte = numero;
+            habiaDatos = true;
+        }
+
+        canal = FileChannel.open(ficheroDiario, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long validoHasta = reproducir(ficheroDiario);
+        habiaDatos |= validoHasta > 0;
+        // Si el último registro quedó a medias (por ejemplo, un corte de luz), se descarta.
+        canal.truncate(validoHasta);
+        canal.position(validoHasta);
+
+        escritor = new Thread(this::bucleEscritor, "biblioteca-wal");
+        escritor.setDaemon(true);
+        escritor.start();
+        if (clavesEnClaro > 0) {
+            tomarInstantanea(); // Se cifraron al leerlas: así ya no queda ninguna en claro en el disco.
+        }
+        return habiaDatos;
+    }
+
+    // Lee todos los registros válidos de un diario y los aplica. Devuelve la posición del último byte válido.
+    // El diario nunca crece mucho (se vacía con cada instantánea), así que se lee entero en memoria.
+    private long reproducir(Path fichero) throws IOException {
+        ByteBuffer diario = ByteBuffer.wrap(Files.readAllBytes(fichero));
+        CRC32 crc = new CRC32();
+        long validoHasta = 0;
+        while (diario.remaining() >= 4) {
+            int longitud = diario.getInt();
+            if (longitud <= 0 || diario.remaining() < longitud + 4) {
+                break; // Registro cortado a medias o con una longitud imposible.
+            }
+            crc.reset();
+            crc.update(diario.array(), diario.position(), longitud);
+            if ((int) crc.getValue() != diario.getInt(diario.position() + longitud)) {
+                break; // El contenido no coincide con su CRC.
+            }
+            aplicarRegistro(diario.slice(diario.position(), longitud));
+            diario.position(diario.position() + longitud + 4);
+            validoHasta = diario.position();
+        }
+        return validoHasta;
+    }
+
+    // Aplica un registro del diario sobre los repositorios en memoria.
+    private void aplicarRegistro(ByteBuffer in) throws IOException {
+        byte tipo = in.get();
+        switch (tipo) {
+            case ALTA_LIBRO:
+                libros.agregar(new Libro(leerTexto(in), leerTexto(in), leerTexto(in)));
+                break;
+            case REGISTRO_USUARIO:
+                usuarios.registrar(leerUsuario(in));
+                break;
+            case ALTA_LIBROS: {
+                int cantidad = in.getInt();
+                libros.reservar(cantidad);
+                for (int i = 0; i < cantidad; i++) {
+                    libros.agregar(new Libro(leerTexto(in), leerTexto(in), leerTexto(in)));
+                }
+                break;
+            }
+            case REGISTRO_USUARIOS: {
+                int cantidad = in.getInt();
+                for (int i = 0; i < cantidad; i++) {
+                    usuarios.registrar(leerUsuario(in));
+                }
+                break;
+            }
+            case PRESTAMO: {
+                String codigo = leerTexto(in);
+                String idUsuario = leerTexto(in);
+                LocalDate inicio = LocalDate.ofEpochDay(in.getInt());
+                LocalDate fin = LocalDate.ofEpochDay(in.getInt());
+                Libro libro = libros.buscarPorCodigo(codigo);
+                Usuario usuario = usuarios.buscarPorIdentificacion(idUsuario);
+                if (libro != null && usuario != null) {
+                    libro.setEstaPrestado(true);
+                    restaurarPrestamo(usuario, new Prestamo(codigo, idUsuario, inicio, fin));
+                    usuario.incrementarLibrosPedidos();
+                    if (usuario.quitarReserva(codigo)) {
+                        usuarios.getReservas().quitar(codigo, usuario); // Era un libro reservado que se le entregó.
+                    }
+                }
+                break;
+            }
+            case RESERVA:
+            case RESERVA_CANCELADA: {
+                String codigo = leerTexto(in);
+                Usuario usuario = usuarios.buscarPorIdentificacion(leerTexto(in));
+                if (usuario != null && libros.posicionDe(codigo) >= 0) {
+                    if (tipo == RESERVA) {
+                        restaurarReserva(usuario, codigo);
+                    } else if (usuario.quitarReserva(codigo)) {
+                        usuarios.getReservas().quitar(codigo, usuario);
+                    }
+                }
+                break;
+            }
+            case DEVOLUCION:            // Formato antiguo: sin fecha de devolución.
+            case DEVOLUCION_FECHADA: {
+                String codigo = leerTexto(in);
+                String idUsuario = leerTexto(in);
+                int dia = tipo == DEVOLUCION_FECHADA ? in.getInt() : -1;
+                int finVeto = in.getInt(); // -1 si la devolución no generó veto.
+                Libro libro = libros.buscarPorCodigo(codigo);
+                Usuario usuario = usuarios.buscarPorIdentificacion(idUsuario);
+                if (libro != null && usuario != null) {
+                    libro.setEstaPrestado(false);
+                    Prestamo prestamo = usuario.quitarPrestamo(codigo);
+                    if (prestamo != null) {
+                        // Si el registro no trae la fecha, se usa la fecha límite como aproximación.
+                        int devuelto = dia >= 0 ? dia : (int) prestamo.getFechaDevolucion().toEpochDay();
+                        usuarios.getHistorial().registrarDevolucion(prestamo.getRegistroHistorial(), devuelto);
+                    }
+                    if (finVeto >= 0) {
+                        usuario.setEstaVetado(true);
+                        usuario.setFechaFinVeto(LocalDate.ofEpochDay(finVeto));
+                    }
+                }
+                break;
+            }
+            default:
+                throw new IOException("Tipo de registro desconocido en el diario: " + tipo);
+        }
+    }
+
+    // Vuelve a poner un préstamo activo en su usuario y lo añade al historial (préstamos del diario o de
+    // instantáneas antiguas, que no traen historial propio).
+    private void restaurarPrestamo(Usuario usuario, Prestamo prestamo) {
+        prestamo.setRegistroHistorial(usuarios.getHistorial().registrarPrestamo(usuario,
+                libros.posicionDe(prestamo.getCodigoLibro()),
+                (int) prestamo.getFechaPrestamo().toEpochDay(), (int) prestamo.getFechaDevolucion().toEpochDay()));
+        usuario.agregarPrestamo(prestamo);
+    }
+
+    // Vuelve a poner a un usuario al final de la cola de espera de un libro.
+    private void restaurarReserva(Usuario usuario, String codigo) {
+        if (usuarios.getReservas().encolar(codigo, usuario) > 0) {
+            usuario.agregarReserva(codigo);
+        }
+    }
+
+    // Escribe un texto como longitud en bytes + UTF-8. Este formato se decodifica mucho más rápido que writeUTF.
+    static void escribirTexto(DataOutputStream out, String texto) throws IOException {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Lee un texto escrito con escribirTexto, sin copias intermedias.
+    static String leerTexto(ByteBuffer in) {
+        int longitud = in.getInt();
+        String texto = new String(in.array(), in.arrayOffset() + in.position(), longitud, StandardCharsets.UTF_8);
+        in.position(in.position() + longitud);
+        return texto;
+    }
+
+    // Lee los datos personales de un usuario (mismo orden que escribirUsuario). Los datos antiguos guardaban
+    // la contraseña en claro en el mismo campo; esas se cifran al leerlas.
+    private Usuario leerUsuario(ByteBuffer in) {
+        String nombre = leerTexto(in);
+        String id = leerTexto(in);
+        String fechaNacimiento = leerTexto(in);
+        int edad = in.getInt();
+        String genero = leerTexto(in);
+        String correo = leerTexto(in);
+        String username = leerTexto(in);
+        String clave = leerTexto(in);
+        ClaveCifrada cifrada = ClaveCifrada.decodificar(clave); // Se decodifica una sola vez por usuario.
+        if (cifrada == null) {
+            clavesEnClaro++;
+            cifrada = ClaveCifrada.cifrar(clave);
+        }
+        return new Usuario(nombre, id, fechaNacimiento, edad, genero, correo, username, cifrada);
+    }
+
+    // Escribe los datos personales de un usuario.
+    private static void escribirUsuario(DataOutputStream out, Usuario u) throws IOException {
+        escribirTexto(out, u.getNombreCompleto());
+        escribirTexto(out, u.getNumeroIdentificacion());
+        escribirTexto(out, u.getFechaNacimiento());
+        out.writeInt(u.getEdad());
+        escribirTexto(out, u.getGenero());
+        escribirTexto(out, u.getCorreoElectronico());
+        escribirTexto(out, u.getUsername());
+        escribirTexto(out, u.getClave().codificar());
+    }
+
+    // --- Escritura de registros ---
+
+    // Anota el alta de un libro en el catálogo.
+    public CompletableFuture<Void> anotarAltaLibro(Libro libro) {
+        return anotar(out -> {
+            out.writeByte(ALTA_LIBRO);
+            escribirTexto(out, libro.getCodigo());
+            escribirTexto(out, libro.getTitulo());
+            escribirTexto(out, libro.getAutor());
+        });
+    }
+
+    // Anota el registro de un usuario nuevo.
+    public CompletableFuture<Void> anotarRegistro(Usuario usuario) {
+        return anotar(out -> {
+            out.writeByte(REGISTRO_USUARIO);
+            escribirUsuario(out, usuario);
+        });
+    }
+
+    // Anota en un solo registro el alta de un lote de libros (importación masiva).
+    public CompletableFuture<Void> anotarAltasLibros(List<Libro> lote) {
+        return anotar(lote.size(), out -> {
+            out.writeByte(ALTA_LIBROS);
+            out.writeInt(lote.size());
+            for (Libro libro : lote) {
+                escribirTexto(out, libro.getCodigo());
+                escribirTexto(out, libro.getTitulo());
+                escribirTexto(out, libro.getAutor());
+            }
+        });
+    }
+
+    // Anota en un solo registro un lote de usuarios nuevos (importación masiva).
+    public CompletableFuture<Void> anotarRegistros(List<Usuario> lote) {
+        return anotar(lote.size(), out -> {
+            out.writeByte(REGISTRO_USUARIOS);
+            out.writeInt(lote.size());
+            for (Usuario usuario : lote) {
+                escribirUsuario(out, usuario);
+            }
+        });
+    }
+
+    // Anota un préstamo recién realizado.
+    public CompletableFuture<Void> anotarPrestamo(Prestamo prestamo) {
+        return anotar(out -> {
+            out.writeByte(PRESTAMO);
+            escribirTexto(out, prestamo.getCodigoLibro());
+            escribirTexto(out, prestamo.getIdUsuario());
+            out.writeInt((int) prestamo.getFechaPrestamo().toEpochDay());
+            out.writeInt((int) prestamo.getFechaDevolucion().toEpochDay());
+        });
+    }
+
+    // Anota una devolución con su fecha. Si generó un veto, se guarda su fecha de fin para poder restaurarlo.
+    public CompletableFuture<Void> anotarDevolucion(Prestamo prestamo, LocalDate fecha, LocalDate finVeto) {
+        return anotar(out -> {
+            out.writeByte(DEVOLUCION_FECHADA);
+            escribirTexto(out, prestamo.getCodigoLibro());
+            escribirTexto(out, prestamo.getIdUsuario());
+            out.writeInt((int) fecha.toEpochDay());
+            out.writeInt(finVeto == null ? -1 : (int) finVeto.toEpochDay());
+        });
+    }
+
+    // Anota que un usuario entró en la cola de espera de un libro.
+    public CompletableFuture<Void> anotarReserva(String codigo, Usuario usuario) {
+        return anotar(out -> {
+            out.writeByte(RESERVA);
+            escribirTexto(out, codigo);
+            escribirTexto(out, usuario.getNumeroIdentificacion());
+        });
+    }
+
+    // Anota que un usuario salió de la cola sin llevarse el libro (canceló o ya no podía llevárselo).
+    public CompletableFuture<Void> anotarCancelacionReserva(String codigo, Usuario usuario) {
+        return anotar(out -> {
+            out.writeByte(RESERVA_CANCELADA);
+            escribirTexto(out, codigo);
+            escribirTexto(out, usuario.getNumeroIdentificacion());
+        });
+    }
+
+    // Interfaz funcional para codificar el contenido de un registro.
+    private interface Codificador {
+        void escribir(DataOutputStream out) throws IOException;
+    }
+
+    // Codifica un registro (longitud + datos + CRC32) y lo entrega al hilo escritor.
+    // El futuro devuelto se completa cuando el registro ya está en disco (tras el fsync de su grupo).
+    // Puede llamarse desde varios hilos a la vez: quien llama debe anotar mientras aún tiene bloqueado
+    // el libro o el usuario que modificó, para que los registros de un mismo libro salgan en orden.
+    private CompletableFuture<Void> anotar(Codificador codificador) {
+        return anotar(1, codificador);
+    }
+
+    // Igual, pero el registro cuenta como "cambios" registros a la hora de decidir cuándo compactar.
+    private CompletableFuture<Void> anotar(int cambios, Codificador codificador) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            codificador.escribir(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // No ocurre al escribir en memoria.
+        }
+        byte[] datos = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(datos, 0, datos.length);
+        ByteBuffer registro = ByteBuffer.allocate(4 + datos.length + 4);
+        registro.putInt(datos.length).put(datos).putInt((int) crc.getValue());
+
+        Tarea tarea = new Tarea(registro.array(), null, false, false);
+        cola.add(tarea);
+        registrosDesdeInstantanea.addAndGet(cambios);
+        return tarea.hecho;
+    }
+
+    // Indica si ya se acumularon suficientes registros como para compactar el diario (y no hay otra compactación en curso).
+    public boolean necesitaInstantanea() {
+        return registrosDesdeInstantanea.get() >= REGISTROS_POR_INSTANTANEA && !compactando.get();
+    }
+
+    // --- Instantáneas ---
+
+    // Compacta el diario sin detener a nadie: encola la orden de cortarlo, y el diario cerrado se convierte en
+    // instantánea en otro hilo. No hace falta ningún cerrojo del servicio: el corte cae entre dos registros.
+    public void compactarEnSegundoPlano() {
+        if (compactando.compareAndSet(false, true)) {
+            registrosDesdeInstantanea.set(0);
+            cola.add(new Tarea(null, null, true, false));
+        }
+    }
+
+    // Captura el estado actual en memoria y encola su escritura. Todos los registros anteriores
+    // quedan incluidos en ella, así que el hilo escritor puede vaciar el diario al guardarla.
+    // Quien llama debe garantizar que nadie modifica el estado mientras tanto (ver ServicioPrestamos); se usa
+    // al arrancar, al cerrar y tras una importación, no en la compactación periódica.
+    public synchronized CompletableFuture<Void> tomarInstantanea() {
+        registrosDesdeInstantanea.set(0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        try {
+            escribirInstantanea(new DataOutputStream(bytes), 0); // El hilo escritor pone el corte al guardarla.
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Tarea tarea = new Tarea(null, bytes.toByteArray(), false, false);
+        cola.add(tarea);
+        return tarea.hecho;
+    }
+
+    // Escribe todos los libros, usuarios, préstamos activos, el historial y las colas de reserva. "corte" es el
+    // último diario cerrado que ya está incluido.
+    private void escribirInstantanea(DataOutputStream out, int corte) throws IOException {
+        out.writeInt(MAGIA_INSTANTANEA);
+        out.writeInt(VERSION_INSTANTANEA);
+        out.writeInt(corte);
+
+        // Los libros que ya están en la imagen mapeada no se repiten: solo se guardan cuáles están prestados.
+        // estaPrestado(i) lee el bitset del catálogo sin crear la vista de cada libro.
+        int base = libros.librosEnImagen();
+        int total = libros.tamano();
+        out.writeInt(base);
+        int prestadosEnImagen = 0;
+        for (int i = 0; i < base; i++) {
+            if (libros.estaPrestado(i)) {
+                prestadosEnImagen++;
+            }
+        }
+        out.writeInt(prestadosEnImagen);
+        for (int i = 0; i < base; i++) {
+            if (libros.estaPrestado(i)) {
+                out.writeInt(i);
+            }
+        }
+
+        // El resto de libros se guardan completos.
+        out.writeInt(total - base);
+        for (int i = base; i < total; i++) {
+            Libro libro = libros.obtener(i);
+            escribirTexto(out, libro.getCodigo());
+            escribirTexto(out, libro.getTitulo());
+            escribirTexto(out, libro.getAutor());
+            out.writeBoolean(libro.isEstaPrestado());
+        }
+
+        // Los usuarios van en orden de registro, así al leerlos recuperan el mismo número interno.
+        List<Usuario> todos = usuarios.todos();
+        out.writeInt(todos.size());
+        for (Usuario u : todos) {
+            escribirUsuario(out, u);
+            out.writeInt(u.getLibrosPedidosHistorial());
+            out.writeInt(u.isEstaVetado() ? (int) u.getFechaFinVeto().toEpochDay() : -1);
+            out.writeInt(u.getUltimoRegistroHistorial());
+            List<Prestamo> prestamos = u.getPrestamos();
+            out.writeInt(prestamos.size());
+            for (Prestamo p : prestamos) {
+                escribirTexto(out, p.getCodigoLibro());
+                out.writeInt((int) p.getFechaPrestamo().toEpochDay());
+                out.writeInt((int) p.getFechaDevolucion().toEpochDay());
+                out.writeInt(p.getRegistroHistorial());
+                out.writeBoolean(p.isVencido());
+            }
+        }
+
+        // El historial se guarda tal cual, registro a registro, y después las colas de reserva en orden.
+        usuarios.getHistorial().escribir(out);
+        usuarios.getReservas().escribir(out);
+        out.flush();
+    }
+
+    // Lee una instantánea completa y la carga en los repositorios.
+    private void leerInstantanea(ByteBuffer in) throws IOException {
+        int magia = in.getInt();
+        int version = in.getInt();
+        if (magia != MAGIA_INSTANTANEA || version < 1 || version > VERSION_INSTANTANEA) {
+            throw new IOException("La instantánea no tiene un formato reconocido: " + ficheroInstantanea);
+        }
+        corteEnInstantanea = version >= 5 ? in.getInt() : 0;
+
+        if (version >= 2) {
+            int base = in.getInt();
+            if (base > libros.librosEnImagen()) {
+                throw new IOException("La instantánea necesita una imagen de catálogo con " + base + " libros.");
+            }
+            int prestadosEnImagen = in.getInt();
+            for (int i = 0; i < prestadosEnImagen; i++) {
+                libros.obtener(in.getInt()).setEstaPrestado(true);
+            }
+        }
+
+        int totalLibros = in.getInt();
+        libros.reservar(totalLibros);
+        for (int i = 0; i < totalLibros; i++) {
+            Libro libro = new Libro(leerTexto(in), leerTexto(in), leerTexto(in));
+            boolean prestado = in.get() != 0;
+            libro.setEstaPrestado(prestado);
+            if (!libros.agregar(libro)) {
+                // Ya estaba en la imagen (la imagen se regeneró después de esta instantánea): se conserva su estado.
+                libros.buscarPorCodigo(libro.getCodigo()).setEstaPrestado(prestado);
+            }
+        }
+
+        int totalUsuarios = in.getInt();
+        usuarios.reservar(totalUsuarios);
+        for (int i = 0; i < totalUsuarios; i++) {
+            Usuario u = leerUsuario(in);
+            u.setLibrosPedidosHistorial(in.getInt());
+            int finVeto = in.getInt();
+            if (finVeto >= 0) {
+                u.setEstaVetado(true);
+                u.setFechaFinVeto(LocalDate.ofEpochDay(finVeto));
+            }
+            usuarios.registrar(u); // Asigna el número interno (el mismo que tenía, porque van en orden de registro).
+            if (version >= 3) {
+                u.setUltimoRegistroHistorial(in.getInt());
+                int prestamos = in.getInt();
+                for (int j = 0; j < prestamos; j++) {
+                    String codigo = leerTexto(in);
+                    LocalDate inicio = LocalDate.ofEpochDay(in.getInt());
+                    LocalDate fin = LocalDate.ofEpochDay(in.getInt());
+                    Prestamo p = new Prestamo(codigo, u.getNumeroIdentificacion(), inicio, fin);
+                    p.setRegistroHistorial(in.getInt());
+                    if (in.get() != 0) {
+                        p.marcarVencido();
+                    }
+                    u.agregarPrestamo(p);
+                }
+            } else if (in.get() != 0) {
+                String codigo = leerTexto(in);
+                LocalDate inicio = LocalDate.ofEpochDay(in.getInt());
+                LocalDate fin = LocalDate.ofEpochDay(in.getInt());
+                restaurarPrestamo(u, new Prestamo(codigo, u.getNumeroIdentificacion(), inicio, fin));
+            }
+        }
+        if (version >= 3) {
+            usuarios.getHistorial().leer(in);
+        }
+        if (version >= 4) {
+            int colas = in.getInt();
+            for (int i = 0; i < colas; i++) {
+                String codigo = leerTexto(in);
+                int enEspera = in.getInt();
+                for (int j = 0; j < enEspera; j++) {
+                    Usuario usuario = usuarios.buscarPorIdentificacion(leerTexto(in));
+                    if (usuario != null) {
+                        restaurarReserva(usuario, codigo);
+                    }
+                }
+            }
+        }
+    }
+
+    // Escribe una instantánea directamente en disco (sin hilo escritor) y vacía los diarios.
+    // La usan las herramientas que trabajan con la aplicación cerrada.
+    void escribirInstantaneaDirecta() throws IOException {
+        Files.createDirectories(directorio);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        escribirInstantanea(new DataOutputStream(bytes), 0);
+        synchronized (cerrojoInstantanea) {
+            guardarInstantanea(bytes.toByteArray());
+            borrarDiariosCerrados(Integer.MAX_VALUE);
+        }
+        Files.deleteIfExists(ficheroDiario);
+    }
+
+    // --- Compactación en segundo plano ---
+
+    // Ruta del diario cerrado número "numero".
+    private Path diarioCerrado(int numero) {
+        return directorio.resolve("biblioteca.wal." + numero);
+    }
+
+    // Números de los diarios cerrados que hay en el directorio, de menor a mayor.
+    private List<Integer> numerosDiariosCerrados() throws IOException {
+        List<Integer> numeros = new ArrayList<>();
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(directorio, "biblioteca.wal.*")) {
+            for (Path fichero : ficheros) {
+                String sufijo = fichero.getFileName().toString().substring("biblioteca.wal.".length());
+                if (!sufijo.isEmpty() && sufijo.chars().allMatch(Character::isDigit)) {
+                    numeros.add(Integer.parseInt(sufijo));
+                }
+            }
+        }
+        Collections.sort(numeros);
+        return numeros;
+    }
+
+    // Borra los diarios cerrados que ya incluye la instantánea guardada. Se llama con cerrojoInstantanea.
+    private void borrarDiariosCerrados(int hasta) throws IOException {
+        for (int numero : numerosDiariosCerrados()) {
+            if (numero <= hasta) {
+                Files.deleteIfExists(diarioCerrado(numero));
+            }
+        }
+    }
+
+    // Convierte en instantánea los diarios cerrados hasta "corte" (en el hilo "biblioteca-compactador"). Los datos
+    // se reconstruyen en repositorios propios a partir de los ficheros, así que los préstamos siguen mientras
+    // tanto; a cambio, durante la compactación hay en memoria una segunda copia del estado guardado.
+    private void compactar(int corte) {
+        try {
+            AlmacenPersistente copia = new AlmacenPersistente(directorio, libros.nuevoVacio(), new RepositorioUsuarios());
+            byte[] contenido = copia.instantaneaHasta(corte);
+            synchronized (cerrojoInstantanea) {
+                // Si mientras tanto se guardó una instantánea completa (por ejemplo, al cerrar), esta ya sobra.
+                if (contenido != null && corte > corteEnInstantanea) {
+                    guardarInstantanea(contenido);
+                    corteEnInstantanea = corte;
+                    borrarDiariosCerrados(corte);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            boolean superada;
+            synchronized (cerrojoInstantanea) {
+                superada = corte <= corteEnInstantanea; // Otra instantánea borró los diarios que se estaban leyendo.
+            }
+            if (!superada) {
+                // Los diarios cerrados se quedan en disco: la próxima compactación (o la recuperación) los reproduce.
+                System.err.println("Error compactando el diario de la biblioteca: " + e.getMessage());
+            }
+        } finally {
+            compactando.set(false);
+        }
+    }
+
+    // Carga en este almacén (con repositorios vacíos) la instantánea del disco más los diarios cerrados que aún no
+    // incluye, hasta "corte", y devuelve una instantánea nueva. Devuelve null si la del disco ya los incluye.
+    private byte[] instantaneaHasta(int corte) throws IOException {
+        if (Files.exists(ficheroInstantanea)) {
+            leerInstantanea(ByteBuffer.wrap(Files.readAllBytes(ficheroInstantanea)));
+        }
+        if (corteEnInstantanea >= corte) {
+            return null;
+        }
+        for (int numero = corteEnInstantanea + 1; numero <= corte; numero++) {
+            reproducir(diarioCerrado(numero));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        escribirInstantanea(new DataOutputStream(bytes), corte);
+        return bytes.toByteArray();
+    }
+
+    // Guarda el contenido de una instantánea de forma atómica (temporal + fsync + renombrado).
+    private void guardarInstantanea(byte[] contenido) throws IOException {
+        Path temporal = ficheroInstantanea.resolveSibling("instantanea.bin.tmp");
+        try (FileChannel salida = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(contenido);
+            while (buffer.hasRemaining()) {
+                salida.write(buffer);
+            }
+            salida.force(true);
+        }
+        Files.move(temporal, ficheroInstantanea, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // --- Hilo escritor (group commit) ---
+
+    // Toma todas las tareas disponibles, las escribe juntas y hace un solo fsync por grupo.
+    private void bucleEscritor() {
+        List<Tarea> grupo = new ArrayList<>(MAX_GRUPO);
+        boolean seguir = true;
+        while (seguir) {
+            try {
+                grupo.add(cola.take());           // Espera a que llegue al menos una tarea...
+                cola.drainTo(grupo, MAX_GRUPO - 1); // ...y se lleva todas las que ya estén esperando.
+                seguir = escribirGrupo(grupo);
+                for (Tarea t : grupo) {
+                    t.hecho.complete(null);
+                }
+            } catch (IOException e) {
+                for (Tarea t : grupo) {
+                    t.hecho.completeExceptionally(e);
+                }
+                System.err.println("Error escribiendo el diario de la biblioteca: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                seguir = false;
+            }
+            grupo.clear();
+        }
+    }
+
+    // Escribe un grupo de tareas en orden. Devuelve false si el grupo contenía la orden de cerrar.
+    private boolean escribirGrupo(List<Tarea> grupo) throws IOException {
+        boolean seguir = true;
+        boolean pendienteFsync = false;
+        for (Tarea t : grupo) {
+            if (t.registro != null) {
+                ByteBuffer buffer = ByteBuffer.wrap(t.registro);
+                while (buffer.hasRemaining()) {
+                    canal.write(buffer);
+                }
+                pendienteFsync = true;
+            } else if (t.instantanea != null) {
+                // La instantánea incluye todo lo escrito antes (también los diarios ya cerrados): se guarda de forma
+                // atómica, se vacía el diario y se borran los cerrados.
+                ByteBuffer.wrap(t.instantanea).putInt(8, ultimoCorte); // Tras la magia y la versión.
+                synchronized (cerrojoInstantanea) {
+                    guardarInstantanea(t.instantanea);
+                    corteEnInstantanea = ultimoCorte;
+                    borrarDiariosCerrados(ultimoCorte);
+                }
+                canal.truncate(0);
+                canal.position(0);
+                pendienteFsync = true;
+            } else if (t.cortar) {
+                // Lo escrito hasta aquí pasa a un diario cerrado, que se compacta en otro hilo; se sigue en uno nuevo.
+                canal.force(false);
+                int corte = ultimoCorte + 1;
+                if (cortarDiario(corte)) {
+                    pendienteFsync = false;
+                    Thread compactador = new Thread(() -> compactar(corte), "biblioteca-compactador");
+                    compactador.setDaemon(true);
+                    compactador.start();
+                } else {
+                    compactando.set(false); // Se sigue en el mismo diario; la próxima compactación lo vuelve a intentar.
+                }
+            }
+            if (t.cerrar) {
+                seguir = false;
+            }
+        }
+        if (pendienteFsync) {
+            canal.force(false); // Un único fsync confirma todo el grupo.
+        }
+        if (!seguir) {
+            canal.close();
+        }
+        return seguir;
+    }
+
+    // Renombra el diario activo como diario cerrado "corte" y abre uno nuevo. El canal viejo sigue abierto (el
+    // renombrado no lo invalida) y solo se cambia por el nuevo cuando este ya está abierto, así que si algo falla se
+    // sigue escribiendo en el mismo diario y el número del corte no se gasta. Devuelve si se pudo cortar.
+    private boolean cortarDiario(int corte) {
+        FileChannel nuevo;
+        try {
+            Files.move(ficheroDiario, diarioCerrado(corte), StandardCopyOption.ATOMIC_MOVE);
+            try {
+                nuevo = FileChannel.open(ficheroDiario, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                Files.move(diarioCerrado(corte), ficheroDiario, StandardCopyOption.ATOMIC_MOVE); // Vuelve a ser el activo.
+                throw e;
+            }
+        } catch (IOException e) {
+            System.err.println("Error cortando el diario de la biblioteca: " + e.getMessage());
+            return false;
+        }
+        try {
+            canal.close();
+        } catch (IOException e) {
+            // Ya se hizo fsync de todo lo escrito en él: no se pierde nada.
+        }
+        canal = nuevo;
+        ultimoCorte = corte;
+        return true;
+    }
+
+    // Guarda una instantánea final, espera a que todo esté en disco y cierra el diario.
+    public void cerrar() {
+        if (escritor == null) {
+            return; // Nunca se llegó a recuperar (ni a abrir) el almacén.
+        }
+        tomarInstantanea();
+        Tarea fin = new Tarea(null, null, false, true);
+        cola.add(fin);
+        fin.hecho.join();
+    }
+}
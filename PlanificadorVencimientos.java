@@ -0,0 +1,169 @@
+// Importamos las fechas, colecciones y ejecutores que usa el planificador.
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * =================================================================================
+ * PLANIFICADOR DE VENCIMIENTOS (RUEDA DE TEMPORIZADORES)
+ * Antes, los vetos solo se levantaban cuando el usuario volvía a pedir un libro o
+ * consultaba su estado, y los retrasos solo se descubrían al devolver. Este
+ * planificador guarda cada evento futuro (fin de un veto, vencimiento de un
+ * préstamo) en una "rueda" de casillas indexada por día: el evento del día D va a
+ * la casilla D % N. Programar un evento cuesta O(1), y cada día solo se revisa su
+ * casilla; nunca se recorren todos los usuarios.
+ *
+ * La fecha sale del reloj del servicio (java.time.Clock), así que en pruebas se
+ * puede avanzar el tiempo a mano con avanzarHasta().
+ * =================================================================================
+ */
+
+// --- Clase PlanificadorVencimientos: Rueda de temporizadores por día para vetos y préstamos vencidos. ---
+class PlanificadorVencimientos implements OyenteCirculacion {
+    private static final int CASILLAS = 64; // Tamaño de la rueda (potencia de 2). Los eventos más lejanos dan "vueltas".
+
+    // Un evento programado: el día en que debe dispararse y a quién afecta.
+    private static final class Evento {
+        final long dia;            // Día (epoch day) a partir del cual se dispara.
+        final Usuario usuario;
+        final Prestamo prestamo;   // Préstamo que vence, o null si es el fin de un veto.
+
+        Evento(long dia, Usuario usuario, Prestamo prestamo) {
+            this.dia = dia;
+            this.usuario = usuario;
+            this.prestamo = prestamo;
+        }
+    }
+
+    private final ServicioPrestamos servicio;
+    private final List<List<Evento>> rueda = new ArrayList<>(CASILLAS);
+    private final List<Evento> atrasados = new ArrayList<>(); // Eventos cuyo día ya pasó al programarlos: salen en el siguiente avance.
+    private long ultimoDiaProcesado;                         // Último día cuya casilla ya se revisó.
+    private ScheduledExecutorService hilo;                   // Hilo que avanza la rueda periódicamente (si se arrancó).
+
+    // Constructor: la rueda empieza en el día anterior a "hoy" según el reloj del servicio.
+    public PlanificadorVencimientos(ServicioPrestamos servicio) {
+        this.servicio = servicio;
+        for (int i = 0; i < CASILLAS; i++) {
+            rueda.add(new ArrayList<>());
+        }
+        this.ultimoDiaProcesado = servicio.hoy().toEpochDay() - 1;
+    }
+
+    // --- Programación de eventos ---
+
+    // Programa el vencimiento de un préstamo: se dispara el día siguiente a su fecha límite.
+    public void programarVencimiento(Usuario usuario, Prestamo prestamo) {
+        programar(new Evento(prestamo.getFechaDevolucion().toEpochDay() + 1, usuario, prestamo));
+    }
+
+    // Programa el fin de un veto: se levanta el día siguiente a su fecha de fin (igual que verificarVeto).
+    public void programarFinVeto(Usuario usuario, LocalDate fechaFinVeto) {
+        programar(new Evento(fechaFinVeto.toEpochDay() + 1, usuario, null));
+    }
+
+    // Coloca un evento en su casilla en O(1).
+    private synchronized void programar(Evento evento) {
+        if (evento.dia <= ultimoDiaProcesado) {
+            atrasados.add(evento);
+        } else {
+            rueda.get((int) (evento.dia & (CASILLAS - 1))).add(evento);
+        }
+    }
+
+    // Programa los préstamos y vetos que ya existían al arrancar (un único recorrido al inicio).
+    public void programarExistentes(Iterable<Usuario> usuarios) {
+        for (Usuario u : usuarios) {
+            for (Prestamo p : u.getPrestamos()) {
+                programarVencimiento(u, p);
+            }
+            if (u.isEstaVetado() && u.getFechaFinVeto() != null) {
+                programarFinVeto(u, u.getFechaFinVeto());
+            }
+        }
+    }
+
+    // --- Avance de la rueda ---
+
+    // Revisa las casillas de todos los días hasta "hoy" (incluido) y dispara sus eventos. Devuelve cuántos disparó.
+    public int avanzarHasta(LocalDate hoy) {
+        List<Evento> vencidos = new ArrayList<>();
+        synchronized (this) {
+            vencidos.addAll(atrasados);
+            atrasados.clear();
+            long objetivo = hoy.toEpochDay();
+            // Si han pasado más días que casillas, basta con dar una vuelta completa.
+            long desde = Math.max(ultimoDiaProcesado + 1, objetivo - CASILLAS + 1);
+            for (long dia = desde; dia <= objetivo; dia++) {
+                Iterator<Evento> it = rueda.get((int) (dia & (CASILLAS - 1))).iterator();
+                while (it.hasNext()) {
+                    Evento evento = it.next();
+                    if (evento.dia <= objetivo) { // Los de vueltas futuras se quedan en la casilla.
+                        vencidos.add(evento);
+                        it.remove();
+                    }
+                }
+            }
+            ultimoDiaProcesado = Math.max(ultimoDiaProcesado, objetivo);
+        }
+
+        // Los cambios de estado se hacen fuera del monitor, porque el servicio toma sus propios cerrojos.
+        for (Evento evento : vencidos) {
+            if (evento.prestamo != null) {
+                servicio.marcarVencido(evento.usuario, evento.prestamo); // No hace nada si ya se devolvió.
+            } else {
+                servicio.verificarVeto(evento.usuario, hoy);
+            }
+        }
+        return vencidos.size();
+    }
+
+    // --- Oyente del servicio: programa los eventos de cada préstamo y veto nuevo ---
+
+    @Override
+    public void prestamoRealizado(Usuario usuario, Libro libro, Prestamo prestamo) {
+        programarVencimiento(usuario, prestamo);
+    }
+
+    @Override
+    public void devolucionRealizada(Usuario usuario, Libro libro, Prestamo prestamo, LocalDate finVeto) {
+        if (finVeto != null) {
+            programarFinVeto(usuario, finVeto);
+        }
+        // El evento de vencimiento del préstamo devuelto se queda en la rueda y se ignora al dispararse.
+    }
+
+    // --- Hilo en segundo plano ---
+
+    // Avanza la rueda cada cierto número de minutos con la fecha del reloj del servicio.
+    public synchronized void iniciar(long periodoMinutos) {
+        if (hilo != null) {
+            return;
+        }
+        hilo = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "biblioteca-vencimientos");
+            t.setDaemon(true);
+            return t;
+        });
+        hilo.scheduleAtFixedRate(() -> {
+            try {
+                avanzarHasta(servicio.hoy());
+            } catch (RuntimeException e) {
+                // Un fallo puntual no debe detener las siguientes revisiones.
+                System.err.println("Error revisando vencimientos: " + e.getMessage());
+            }
+        }, 0, periodoMinutos, TimeUnit.MINUTES);
+    }
+
+    // Detiene el hilo en segundo plano.
+    public synchronized void detener() {
+        if (hilo != null) {
+            hilo.shutdownNow();
+            hilo = null;
+        }
+    }
+}
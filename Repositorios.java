@@ -0,0 +1,349 @@
+// Importamos las colecciones (concurrentes) y las funciones que usan los repositorios para indexar libros y usuarios.
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/*
+ * =================================================================================
+ * CAPA DE REPOSITORIOS
+ * Estas clases guardan los libros y usuarios en memoria y los indexan con mapas
+ * hash, para que buscar un libro o un usuario cueste O(1) sin importar cuántos
+ * haya registrados.
+ * =================================================================================
+ */
+
+// --- Interfaz CatalogoLibros: Operaciones comunes a cualquier catálogo de libros. ---
+// La fila N de la tabla del inventario es siempre el libro en la posición N del catálogo.
+interface CatalogoLibros {
+    // Añade un libro al final del catálogo. Devuelve false si ya existe otro libro con el mismo código.
+    boolean agregar(Libro libro);
+
+    // Busca un libro por su código. Devuelve null si no existe.
+    Libro buscarPorCodigo(String codigo);
+
+    // Devuelve la posición del libro en el catálogo, o -1 si no existe.
+    int posicionDe(String codigo);
+
+    // Devuelve el libro que ocupa una posición concreta del catálogo.
+    Libro obtener(int posicion);
+
+    // Número total de libros registrados.
+    int tamano();
+
+    // Indica si el libro de una posición está prestado. Los catálogos que no guardan objetos Libro
+    // pueden responder sin crear ninguno (lo usa la tabla para pintar la columna Estado).
+    default boolean estaPrestado(int posicion) { return obtener(posicion).isEstaPrestado(); }
+
+    // Autor del libro de una posición. Los catálogos que no guardan objetos Libro pueden leer solo esa columna.
+    default String autorDe(int posicion) { return obtener(posicion).getAutor(); }
+
+    // Reserva espacio para "cantidad" libros más antes de una carga grande (opcional).
+    default void reservar(int cantidad) { }
+
+    // Cuántos de los primeros libros vienen de una imagen en disco y no hace falta volver a guardar (0 si ninguno).
+    default int librosEnImagen() { return 0; }
+
+    // Orden precalculado de los libros de la imagen por un campo (0 = código, 1 = título, 2 = autor), o null si la
+    // imagen no lo trae. Con él, los órdenes del inventario no tienen que ordenar el catálogo al arrancar.
+    default int[] ordenEnImagen(int campo) { return null; }
+
+    // Catálogo vacío del mismo tipo: la misma imagen en disco, si la hay, pero sin préstamos ni libros añadidos.
+    // Lo usa la compactación del diario para reconstruir el estado guardado sin tocar el catálogo en uso.
+    default CatalogoLibros nuevoVacio() { return new RepositorioLibros(); }
+}
+
+// --- Clase RepositorioLibros: Catálogo de libros en memoria indexado por código. ---
+// Las altas se serializan entre sí; las lecturas no bloquean y pueden hacerse desde cualquier hilo.
+class RepositorioLibros implements CatalogoLibros {
+    private volatile Libro[] libros;                                   // Libros en orden de alta (es el orden en que se muestran en la tabla).
+    private volatile int tamano;                                       // Número de libros publicados; se incrementa después de escribir el libro.
+    private final ConcurrentHashMap<String, Integer> posicionPorCodigo; // Código -> posición del libro.
+
+    public RepositorioLibros() {
+        this(16);
+    }
+
+    // Catálogo con sitio para "capacidad" libros: ni el array ni el mapa crecen hasta pasar de ahí.
+    public RepositorioLibros(int capacidad) {
+        libros = new Libro[Math.max(16, capacidad)];
+        posicionPorCodigo = new ConcurrentHashMap<>((int) (Math.max(16, capacidad) / 0.75f) + 1);
+    }
+
+    // Reserva espacio para "cantidad" libros más, para no redimensionar el array durante una carga grande. El mapa no
+    // se sustituye (lo leen otros hilos sin cerrojo): crece solo, por partes; para evitarlo del todo, se dimensiona
+    // al construir el catálogo.
+    @Override
+    public synchronized void reservar(int cantidad) {
+        int total = tamano + cantidad;
+        if (total > libros.length) {
+            libros = Arrays.copyOf(libros, Math.max(total, libros.length + (libros.length >> 1))); // Crece al menos un 50%.
+        }
+    }
+
+    // Añade un libro al catálogo. Devuelve false si ya existe otro libro con el mismo código.
+    @Override
+    public synchronized boolean agregar(Libro libro) {
+        if (posicionPorCodigo.containsKey(libro.getCodigo())) {
+            return false; // El código debe ser único dentro del catálogo.
+        }
+        int posicion = tamano;
+        if (posicion == libros.length) {
+            libros = Arrays.copyOf(libros, posicion + (posicion >> 1) + 1); // Crece un 50 %, como ArrayList.
+        }
+        libros[posicion] = libro;
+        tamano = posicion + 1; // Se publica el libro a los lectores.
+        posicionPorCodigo.put(libro.getCodigo(), posicion);
+        return true;
+    }
+
+    // Busca un libro por su código en O(1). Devuelve null si no existe.
+    @Override
+    public Libro buscarPorCodigo(String codigo) {
+        Integer posicion = posicionPorCodigo.get(codigo);
+        return posicion == null ? null : libros[posicion];
+    }
+
+    // Devuelve la posición del libro en el catálogo, o -1 si no existe.
+    @Override
+    public int posicionDe(String codigo) {
+        Integer posicion = posicionPorCodigo.get(codigo);
+        return posicion == null ? -1 : posicion;
+    }
+
+    // Devuelve el libro que ocupa una posición concreta del catálogo.
+    @Override
+    public Libro obtener(int posicion) {
+        if (posicion >= tamano) {
+            throw new IndexOutOfBoundsException("Posición " + posicion + " fuera del catálogo (" + tamano + " libros).");
+        }
+        return libros[posicion];
+    }
+
+    // Número total de libros registrados.
+    @Override
+    public int tamano() { return tamano; }
+}
+
+// --- Clase RepositorioUsuarios: Registro de usuarios indexado por username e identificación. ---
+// Los registros se serializan entre sí (hay que comprobar dos índices a la vez); las búsquedas no bloquean.
+class RepositorioUsuarios {
+    // Username normalizado (minúsculas) -> número interno.
+    private final IndiceNumeros porUsername = new IndiceNumeros(u -> normalizarUsername(u.getUsername()));
+    // Número de identificación -> número interno.
+    private final IndiceNumeros porIdentificacion = new IndiceNumeros(Usuario::getNumeroIdentificacion);
+    private volatile Usuario[] porNumero = new Usuario[16]; // Usuarios en orden de registro: el índice es su número interno.
+    private volatile int tamano;                           // Número de usuarios publicados en porNumero.
+    private final HistorialPrestamos historial = new HistorialPrestamos(); // Todos los préstamos, empaquetados.
+    private final ReservasLibros reservas = new ReservasLibros();          // Colas de espera de los libros prestados.
+
+    // Normaliza el username para que "Admin" y "admin" sean la misma cuenta (igual que el antiguo equalsIgnoreCase).
+    static String normalizarUsername(String username) {
+        return username.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Indica si ya hay una cuenta con ese username (sin distinguir mayúsculas).
+    public boolean existeUsername(String username) {
+        return buscarPorUsername(username) != null;
+    }
+
+    // Indica si ya hay una cuenta con ese número de identificación.
+    public boolean existeIdentificacion(String numeroIdentificacion) {
+        return buscarPorIdentificacion(numeroIdentificacion) != null;
+    }
+
+    // Reserva espacio para "cantidad" usuarios más antes de una carga grande.
+    public synchronized void reservar(int cantidad) {
+        int total = tamano + cantidad;
+        if (total > porNumero.length) {
+            porNumero = Arrays.copyOf(porNumero, total);
+        }
+        porUsername.reservar(total);
+        porIdentificacion.reservar(total);
+    }
+
+    // Registra un usuario nuevo. Devuelve false si el username o la identificación ya están en uso.
+    public synchronized boolean registrar(Usuario usuario) {
+        String clave = normalizarUsername(usuario.getUsername());
+        if (buscarPorUsername(clave) != null || buscarPorIdentificacion(usuario.getNumeroIdentificacion()) != null) {
+            return false; // No se permiten cuentas duplicadas.
+        }
+        if (tamano == porNumero.length) {
+            porNumero = Arrays.copyOf(porNumero, tamano * 2);
+        }
+        usuario.setNumero(tamano);
+        porNumero[tamano] = usuario;
+        tamano++; // Se publica después de escribir el usuario (igual que en RepositorioLibros).
+        porUsername.agregar(clave, usuario.getNumero());
+        porIdentificacion.agregar(usuario.getNumeroIdentificacion(), usuario.getNumero());
+        return true;
+    }
+
+    // Busca un usuario por username en O(1). Devuelve null si no existe.
+    public Usuario buscarPorUsername(String username) {
+        return porUsername.buscar(normalizarUsername(username), this);
+    }
+
+    // Busca un usuario por número de identificación en O(1). Devuelve null si no existe.
+    public Usuario buscarPorIdentificacion(String numeroIdentificacion) {
+        return porIdentificacion.buscar(numeroIdentificacion, this);
+    }
+
+    // Comprueba usuario y contraseña. Devuelve el usuario si coinciden, o null si no.
+    // Siempre hace el cálculo completo de PBKDF2; los logins de la ventana y de la API pasan por GestorSesiones,
+    // que recuerda las credenciales ya verificadas.
+    public Usuario autenticar(String username, String password) {
+        Usuario usuario = buscarPorUsername(username);
+        if (usuario != null && usuario.getClave().comprobar(password)) {
+            return usuario;
+        }
+        return null;
+    }
+
+    // Busca un usuario por su número interno. Devuelve null si no existe.
+    public Usuario buscarPorNumero(int numero) {
+        if (numero < 0 || numero >= tamano) { // Se lee primero el tamaño: el array ya tiene al menos esos usuarios.
+            return null;
+        }
+        return porNumero[numero];
+    }
+
+    // Número total de usuarios registrados.
+    public int tamano() { return tamano; }
+
+    // Historial empaquetado de todos los préstamos.
+    public HistorialPrestamos getHistorial() { return historial; }
+
+    // Colas de reserva de los libros (son de los usuarios que esperan, así que se guardan con ellos).
+    public ReservasLibros getReservas() { return reservas; }
+
+    // Vista de solo lectura de todos los usuarios, en orden de registro (el de su número interno).
+    public List<Usuario> todos() {
+        int cuantos = tamano;
+        Usuario[] actuales = porNumero;
+        return Collections.unmodifiableList(Arrays.asList(actuales).subList(0, cuantos));
+    }
+}
+
+// --- Clase IndiceNumeros: Tabla hash abierta de texto -> número interno de usuario, sobre arrays de enteros. ---
+// Un ConcurrentHashMap gasta un nodo de 32 bytes por entrada; aquí cada hueco son dos enteros (hash y número + 1)
+// y la clave no se guarda: se saca del propio usuario al comparar. Las altas las serializa el repositorio; las
+// búsquedas no bloquean. Un lector que llega a la vez que un alta puede no ver todavía al usuario nuevo (igual que
+// con el mapa), pero nunca ve uno a medio escribir: el usuario se obtiene con buscarPorNumero, que lee el tamaño
+// publicado antes de tocar el array.
+class IndiceNumeros {
+    // Los dos arrays van juntos para que un lector no mezcle los de antes y después de crecer.
+    private static final class Tabla {
+        final int[] hashes;
+        final int[] numeros; // Número interno + 1; 0 es hueco libre.
+
+        Tabla(int capacidad) {
+            hashes = new int[capacidad];
+            numeros = new int[capacidad];
+        }
+    }
+
+    private final Function<Usuario, String> clave; // Cómo se saca la clave de un usuario.
+    private volatile Tabla tabla = new Tabla(32);
+    private int ocupados;
+
+    IndiceNumeros(Function<Usuario, String> clave) {
+        this.clave = clave;
+    }
+
+    // Usuario con esa clave, o null.
+    Usuario buscar(String texto, RepositorioUsuarios usuarios) {
+        Tabla t = tabla;
+        int mascara = t.numeros.length - 1;
+        int hash = dispersar(texto.hashCode());
+        for (int i = hash & mascara; ; i = (i + 1) & mascara) {
+            int numero = t.numeros[i];
+            if (numero == 0) {
+                return null;
+            }
+            if (t.hashes[i] == hash) {
+                Usuario u = usuarios.buscarPorNumero(numero - 1);
+                if (u != null && clave.apply(u).equals(texto)) {
+                    return u;
+                }
+            }
+        }
+    }
+
+    // Añade una clave nueva (quien llama ya comprobó que no existe y tiene bloqueado el repositorio).
+    void agregar(String texto, int numero) {
+        if ((ocupados + 1) * 2 > tabla.numeros.length) { // Como mucho medio llena: las cadenas de sondeo son cortas.
+            tabla = rehacer(tabla.numeros.length * 2);
+        }
+        colocar(tabla, dispersar(texto.hashCode()), numero);
+        ocupados++;
+    }
+
+    // Crece de una vez para "total" claves (antes de una carga grande).
+    void reservar(int total) {
+        int capacidad = tabla.numeros.length;
+        while (capacidad < total * 2) {
+            capacidad *= 2;
+        }
+        if (capacidad > tabla.numeros.length) {
+            tabla = rehacer(capacidad);
+        }
+    }
+
+    // Nueva tabla con todas las claves; se publica entera al asignarla.
+    private Tabla rehacer(int capacidad) {
+        Tabla vieja = tabla;
+        Tabla nueva = new Tabla(capacidad);
+        for (int i = 0; i < vieja.numeros.length; i++) {
+            if (vieja.numeros[i] != 0) {
+                colocar(nueva, vieja.hashes[i], vieja.numeros[i] - 1);
+            }
+        }
+        return nueva;
+    }
+
+    private static void colocar(Tabla t, int hash, int numero) {
+        int mascara = t.numeros.length - 1;
+        int i = hash & mascara;
+        while (t.numeros[i] != 0) {
+            i = (i + 1) & mascara;
+        }
+        t.hashes[i] = hash;
+        t.numeros[i] = numero + 1; // El número va después del hash: un lector que ve el número ve un hueco completo o lo descarta.
+    }
+
+    // Mezcla los bits altos en los bajos, como HashMap (la máscara solo mira los bajos).
+    private static int dispersar(int h) {
+        return h ^ (h >>> 16);
+    }
+}
+
+// --- Clase TextosRepetidos: Comparte una sola copia de los textos que se repiten entre usuarios. ---
+// Géneros y fechas de nacimiento se repiten miles de veces; guardar la misma cadena en todos ahorra unos 50 bytes
+// por campo y usuario. Tiene un tope para que un dato sin repeticiones no la haga crecer sin límite.
+class TextosRepetidos {
+    private final ConcurrentHashMap<String, String> textos = new ConcurrentHashMap<>();
+    private final int maximo;
+
+    TextosRepetidos(int maximo) {
+        this.maximo = maximo;
+    }
+
+    // Devuelve la copia compartida del texto (o el propio texto si ya está lleno).
+    String compartir(String texto) {
+        if (texto == null) {
+            return null;
+        }
+        String compartido = textos.get(texto);
+        if (compartido != null) {
+            return compartido;
+        }
+        if (textos.size() >= maximo) {
+            return texto;
+        }
+        compartido = textos.putIfAbsent(texto, texto);
+        return compartido != null ? compartido : texto;
+    }
+}
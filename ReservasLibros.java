@@ -0,0 +1,151 @@
+// Importamos la E/S binaria (para la instantánea) y las colecciones que forman las colas de espera.
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * =================================================================================
+ * COLAS DE RESERVA POR LIBRO
+ * Cuando un libro está prestado, los usuarios pueden apuntarse a su cola de espera.
+ * Al devolverlo, el primero de la cola que pueda llevárselo lo recibe: sacar la
+ * cabeza de la cola es O(1) y nadie se cuela, porque mientras se le entrega el
+ * libro queda "apartado" para él.
+ *
+ * Solo existen colas para los libros que tienen a alguien esperando, así que un
+ * catálogo de millones de títulos no gasta memoria por libro. Cada cola se modifica
+ * siempre con la franja del libro bloqueada (la misma que usan el préstamo y la
+ * devolución), de modo que dos mostradores solo compiten si trabajan sobre libros
+ * de la misma franja. El número de personas en espera se puede leer sin cerrojos.
+ * =================================================================================
+ */
+
+// --- Clase ReservasLibros: Colas FIFO de usuarios esperando cada libro prestado. ---
+class ReservasLibros {
+    // La cola de un libro y, si lo hay, el usuario para el que está apartado mientras se le entrega.
+    private static final class Cola {
+        final ArrayDeque<Usuario> espera = new ArrayDeque<>();
+        volatile int tamano;     // Copia de espera.size() que se puede leer desde cualquier hilo.
+        Usuario apartadoPara;    // Reservista que está recibiendo el libro ahora mismo (o null).
+    }
+
+    private final ConcurrentHashMap<String, Cola> colas = new ConcurrentHashMap<>(); // Código del libro -> su cola.
+
+    // --- Operaciones (quien llama debe tener bloqueada la franja del libro) ---
+
+    // Añade un usuario al final de la cola de un libro. Devuelve su puesto (1 = el siguiente), o 0 si ya estaba.
+    int encolar(String codigo, Usuario usuario) {
+        Cola cola = colas.computeIfAbsent(codigo, c -> new Cola());
+        if (cola.espera.contains(usuario)) {
+            return 0;
+        }
+        cola.espera.addLast(usuario);
+        cola.tamano = cola.espera.size();
+        return cola.tamano;
+    }
+
+    // Saca a un usuario de la cola de un libro (cancelación). Devuelve false si no estaba.
+    boolean quitar(String codigo, Usuario usuario) {
+        Cola cola = colas.get(codigo);
+        if (cola == null || !cola.espera.remove(usuario)) {
+            return false;
+        }
+        cola.tamano = cola.espera.size();
+        limpiar(codigo, cola);
+        return true;
+    }
+
+    // Saca y devuelve al primero de la cola en O(1), o null si no hay nadie esperando.
+    Usuario siguiente(String codigo) {
+        Cola cola = colas.get(codigo);
+        if (cola == null) {
+            return null;
+        }
+        Usuario primero = cola.espera.pollFirst();
+        cola.tamano = cola.espera.size();
+        limpiar(codigo, cola);
+        return primero;
+    }
+
+    // Puesto de un usuario en la cola de un libro (1 = el siguiente), o 0 si no está en ella.
+    int puestoDe(String codigo, Usuario usuario) {
+        Cola cola = colas.get(codigo);
+        if (cola == null) {
+            return 0;
+        }
+        int puesto = 1;
+        for (Usuario u : cola.espera) {
+            if (u == usuario) {
+                return puesto;
+            }
+            puesto++;
+        }
+        return 0;
+    }
+
+    // Aparta el libro para un reservista mientras se le entrega (nadie más puede llevárselo).
+    void apartar(String codigo, Usuario usuario) {
+        colas.computeIfAbsent(codigo, c -> new Cola()).apartadoPara = usuario;
+    }
+
+    // Quita el apartado de un libro si era para ese usuario.
+    void liberarApartado(String codigo, Usuario usuario) {
+        Cola cola = colas.get(codigo);
+        if (cola != null && cola.apartadoPara == usuario) {
+            cola.apartadoPara = null;
+            limpiar(codigo, cola);
+        }
+    }
+
+    // Usuario para el que está apartado el libro, o null.
+    Usuario apartadoPara(String codigo) {
+        Cola cola = colas.get(codigo);
+        return cola == null ? null : cola.apartadoPara;
+    }
+
+    // Borra la cola cuando ya no tiene a nadie, para que solo ocupen memoria los libros con reservas.
+    private void limpiar(String codigo, Cola cola) {
+        if (cola.tamano == 0 && cola.apartadoPara == null) {
+            colas.remove(codigo, cola);
+        }
+    }
+
+    // --- Lectura sin cerrojos ---
+
+    // Número de personas esperando un libro.
+    public int pendientes(String codigo) {
+        Cola cola = colas.get(codigo);
+        return cola == null ? 0 : cola.tamano;
+    }
+
+    // Códigos de los libros que tienen alguien esperando (vista en vivo; para revisarlos tras una recuperación).
+    public Iterable<String> librosConReservas() {
+        return colas.keySet();
+    }
+
+    // --- Persistencia (la usa AlmacenPersistente dentro de la instantánea) ---
+
+    // Escribe cada cola como código del libro + identificaciones de quienes esperan, en orden.
+    // Se llama con todas las franjas bloqueadas, así que las colas no cambian mientras se escriben.
+    void escribir(DataOutputStream out) throws IOException {
+        int conEspera = 0;
+        for (Cola cola : colas.values()) {
+            if (!cola.espera.isEmpty()) {
+                conEspera++;
+            }
+        }
+        out.writeInt(conEspera);
+        for (Map.Entry<String, Cola> entrada : colas.entrySet()) {
+            ArrayDeque<Usuario> espera = entrada.getValue().espera;
+            if (espera.isEmpty()) {
+                continue;
+            }
+            AlmacenPersistente.escribirTexto(out, entrada.getKey());
+            out.writeInt(espera.size());
+            for (Usuario u : espera) {
+                AlmacenPersistente.escribirTexto(out, u.getNumeroIdentificacion());
+            }
+        }
+    }
+}
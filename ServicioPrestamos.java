@@ -0,0 +1,665 @@
+// Importamos las fechas y los cerrojos que usa el servicio de préstamos.
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * =================================================================================
+ * SERVICIO DE PRÉSTAMOS
+ * Aquí viven las reglas del negocio que antes estaban dentro de la ventana:
+ * comprobar el veto, el límite de préstamos del usuario y que el libro esté
+ * disponible, y después cambiar el estado. Todo eso se hace de forma atómica para
+ * que varios mostradores puedan trabajar a la vez sin prestar dos veces el mismo
+ * libro.
+ *
+ * En lugar de un único cerrojo global, se usan cerrojos "por franjas": cada libro
+ * y cada usuario caen en una de N franjas según el hash de su código o
+ * identificación. Operaciones sobre libros y usuarios distintos casi nunca
+ * compiten. Para evitar interbloqueos, siempre se bloquea primero la franja del
+ * usuario y después la del libro.
+ *
+ * Si un libro está prestado, el usuario puede reservarlo: entra en la cola de
+ * espera del libro (ver ReservasLibros) y, al devolverse, el libro se presta
+ * directamente al primero de la cola que pueda llevárselo y se le avisa.
+ *
+ * Cada operación anota su cambio en el diario mientras aún tiene los cerrojos, los
+ * suelta y después espera a que el registro esté en disco: lo que se le confirma
+ * al usuario sobrevive a un corte de luz.
+ * =================================================================================
+ */
+
+// --- Clase ResultadoCirculacion: Resultado de una operación del servicio (para que la interfaz muestre el mensaje). ---
+class ResultadoCirculacion {
+    // Los posibles desenlaces de una operación.
+    enum Tipo {
+        PRESTAMO_REALIZADO,   // El préstamo se hizo correctamente.
+        USUARIO_VETADO,       // El usuario tiene un veto activo.
+        LIMITE_PRESTAMOS,     // El usuario ya tiene tantos libros prestados como permite el límite.
+        LIBRO_NO_DISPONIBLE,  // El libro no existe o ya está prestado.
+        SIN_PRESTAMO,         // El usuario no tiene nada que devolver.
+        DEVUELTO_A_TIEMPO,    // Devolución dentro del plazo.
+        DEVUELTO_TARDE,       // Devolución fuera de plazo: se aplicó un veto.
+        RESERVA_REALIZADA,    // El usuario entró en la cola de espera del libro.
+        YA_RESERVADO,         // El usuario ya tiene el libro o ya está en su cola.
+        LIBRO_DISPONIBLE,     // No hace falta reservar: el libro está libre y nadie lo espera.
+        RESERVA_CANCELADA,    // El usuario salió de la cola de espera.
+        SIN_RESERVA           // El usuario no estaba en la cola de ese libro.
+    }
+
+    private final Tipo tipo;
+    private final Libro libro;        // Libro afectado (puede ser null).
+    private final Prestamo prestamo;  // Préstamo creado o cerrado (puede ser null).
+    private final LocalDate finVeto;  // Fecha de fin del veto, si lo hay.
+    private final int puesto;         // Puesto en la cola de espera tras reservar (1 = el siguiente), o 0.
+
+    ResultadoCirculacion(Tipo tipo, Libro libro, Prestamo prestamo, LocalDate finVeto) {
+        this(tipo, libro, prestamo, finVeto, 0);
+    }
+
+    ResultadoCirculacion(Tipo tipo, Libro libro, Prestamo prestamo, LocalDate finVeto, int puesto) {
+        this.tipo = tipo;
+        this.libro = libro;
+        this.prestamo = prestamo;
+        this.finVeto = finVeto;
+        this.puesto = puesto;
+    }
+
+    public Tipo getTipo() { return tipo; }
+    public Libro getLibro() { return libro; }
+    public Prestamo getPrestamo() { return prestamo; }
+    public LocalDate getFinVeto() { return finVeto; }
+    public int getPuesto() { return puesto; }
+}
+
+// --- Interfaz OyenteCirculacion: Recibe un aviso por cada cambio que hace el servicio. ---
+// Los avisos se dan mientras el servicio aún tiene bloqueado el libro o el usuario afectado, así que
+// llegan en orden para cada libro; por eso los oyentes deben ser rápidos y no bloquear.
+interface OyenteCirculacion {
+    default void libroAgregado(Libro libro, int posicion) { }
+    default void usuarioRegistrado(Usuario usuario) { }
+    default void prestamoRealizado(Usuario usuario, Libro libro, Prestamo prestamo) { }
+    default void devolucionRealizada(Usuario usuario, Libro libro, Prestamo prestamo, LocalDate finVeto) { }
+    default void prestamoVencido(Usuario usuario, Prestamo prestamo) { }
+    default void vetoExpirado(Usuario usuario) { }
+    default void reservaRealizada(Usuario usuario, Libro libro, int puesto) { }
+    default void reservaCancelada(Usuario usuario, Libro libro) { }
+    // El libro reservado quedó libre y se le prestó al usuario (después de prestamoRealizado).
+    default void reservaEntregada(Usuario usuario, Libro libro, Prestamo prestamo) { }
+}
+
+// --- Clase ServicioPrestamos: Préstamos, devoluciones y registros seguros entre hilos. ---
+class ServicioPrestamos {
+    private static final int FRANJAS = 64;        // Número de cerrojos por tipo (potencia de 2).
+    private static final int DIAS_VETO = 3;       // Duración del castigo por devolver tarde.
+    // Libros que puede tener a la vez un usuario (se cambia con -Dbiblioteca.prestamos.max=N).
+    static final int MAX_PRESTAMOS_POR_DEFECTO = Integer.getInteger("biblioteca.prestamos.max", 3);
+    private static final DateTimeFormatter FORMATO_AVISO = DateTimeFormatter.ofPattern("dd/MM/yyyy"); // Fechas de los avisos.
+
+    private final CatalogoLibros catalogo;
+    private final RepositorioUsuarios usuarios;
+    private final ReservasLibros reservas;        // Colas de espera por libro (se modifican con la franja del libro bloqueada).
+    private final AlmacenPersistente almacen;     // Diario donde se anota cada cambio (puede ser null si no se persiste).
+    private final Clock reloj;                    // De aquí sale la fecha de "hoy" (se puede sustituir en pruebas y simulaciones).
+    private volatile int maxPrestamos = MAX_PRESTAMOS_POR_DEFECTO;
+
+    private final ReentrantLock[] franjasUsuarios = crearFranjas();
+    private final ReentrantLock[] franjasLibros = crearFranjas();
+    private final List<OyenteCirculacion> oyentes = new CopyOnWriteArrayList<>(); // Índices, métricas, etc. que siguen los cambios.
+
+    // Constructor: recibe los repositorios sobre los que trabaja y el almacén en disco.
+    public ServicioPrestamos(CatalogoLibros catalogo, RepositorioUsuarios usuarios, AlmacenPersistente almacen) {
+        this(catalogo, usuarios, almacen, Clock.systemDefaultZone());
+    }
+
+    // Constructor con un reloj concreto, para poder controlar las fechas de forma determinista.
+    public ServicioPrestamos(CatalogoLibros catalogo, RepositorioUsuarios usuarios, AlmacenPersistente almacen, Clock reloj) {
+        this.catalogo = catalogo;
+        this.usuarios = usuarios;
+        this.reservas = usuarios.getReservas();
+        this.almacen = almacen;
+        this.reloj = reloj;
+    }
+
+    // Fecha de hoy según el reloj del servicio.
+    public LocalDate hoy() { return LocalDate.now(reloj); }
+
+    public Clock getReloj() { return reloj; }
+    public int getMaxPrestamos() { return maxPrestamos; }
+    public void setMaxPrestamos(int maxPrestamos) { this.maxPrestamos = Math.max(1, maxPrestamos); }
+    public CatalogoLibros getCatalogo() { return catalogo; }
+    public RepositorioUsuarios getUsuarios() { return usuarios; }
+
+    // Registra un oyente que será avisado de cada cambio.
+    public void agregarOyente(OyenteCirculacion oyente) {
+        oyentes.add(oyente);
+    }
+
+    private static ReentrantLock[] crearFranjas() {
+        ReentrantLock[] franjas = new ReentrantLock[FRANJAS];
+        for (int i = 0; i < FRANJAS; i++) {
+            franjas[i] = new ReentrantLock();
+        }
+        return franjas;
+    }
+
+    // Elige la franja de una clave mezclando los bits de su hash.
+    private static ReentrantLock franja(ReentrantLock[] franjas, String clave) {
+        int h = clave.hashCode();
+        h ^= (h >>> 16);
+        return franjas[h & (FRANJAS - 1)];
+    }
+
+    private ReentrantLock cerrojoUsuario(Usuario usuario) { return franja(franjasUsuarios, usuario.getNumeroIdentificacion()); }
+    private ReentrantLock cerrojoLibro(String codigo) { return franja(franjasLibros, codigo); }
+
+    // --- Operaciones ---
+
+    // Presta un libro a un usuario si no está vetado, no ha llegado al límite de préstamos y el libro está disponible.
+    public ResultadoCirculacion prestar(Usuario usuario, String codigoLibro) {
+        ResultadoCirculacion resultado;
+        CompletableFuture<Void> enDisco = null;
+        ReentrantLock cerrojoUsuario = cerrojoUsuario(usuario);
+        cerrojoUsuario.lock();
+        try {
+            verificarVeto(usuario, hoy()); // Primero, comprueba si el veto del usuario ha expirado (y avisa si se levantó).
+            if (usuario.isEstaVetado()) {
+                return new ResultadoCirculacion(ResultadoCirculacion.Tipo.USUARIO_VETADO, null, null, usuario.getFechaFinVeto());
+            }
+            if (usuario.getNumeroPrestamos() >= maxPrestamos) {
+                return new ResultadoCirculacion(ResultadoCirculacion.Tipo.LIMITE_PRESTAMOS, null, null, null);
+            }
+
+            ReentrantLock cerrojoLibro = cerrojoLibro(codigoLibro);
+            cerrojoLibro.lock();
+            try {
+                Libro libro = catalogo.buscarPorCodigo(codigoLibro);
+                if (libro == null || libro.isEstaPrestado()) {
+                    return new ResultadoCirculacion(ResultadoCirculacion.Tipo.LIBRO_NO_DISPONIBLE, libro, null, null);
+                }
+                // Si alguien lo está esperando, solo puede llevárselo el reservista para el que está apartado.
+                Usuario apartado = reservas.apartadoPara(codigoLibro);
+                if (apartado != usuario && (apartado != null || reservas.pendientes(codigoLibro) > 0)) {
+                    return new ResultadoCirculacion(ResultadoCirculacion.Tipo.LIBRO_NO_DISPONIBLE, libro, null, null);
+                }
+                // Comprobación y cambio de estado ocurren bajo el mismo cerrojo: nadie más puede prestarlo a la vez.
+                libro.setEstaPrestado(true);
+                reservas.liberarApartado(codigoLibro, usuario);
+                Prestamo prestamo = new Prestamo(libro.getCodigo(), usuario.getNumeroIdentificacion(), hoy());
+                prestamo.setRegistroHistorial(usuarios.getHistorial().registrarPrestamo(usuario,
+                        catalogo.posicionDe(libro.getCodigo()),
+                        (int) prestamo.getFechaPrestamo().toEpochDay(), (int) prestamo.getFechaDevolucion().toEpochDay()));
+                usuario.agregarPrestamo(prestamo);
+                usuario.incrementarLibrosPedidos();
+                if (almacen != null) {
+                    enDisco = almacen.anotarPrestamo(prestamo);
+                }
+                for (OyenteCirculacion oyente : oyentes) {
+                    oyente.prestamoRealizado(usuario, libro, prestamo);
+                }
+                resultado = new ResultadoCirculacion(ResultadoCirculacion.Tipo.PRESTAMO_REALIZADO, libro, prestamo, null);
+            } finally {
+                cerrojoLibro.unlock();
+            }
+        } finally {
+            cerrojoUsuario.unlock();
+        }
+        esperarDisco(enDisco);
+        compactarSiHaceFalta();
+        return resultado;
+    }
+
+    // Devuelve el préstamo más antiguo del usuario (el único, si solo tiene uno).
+    public ResultadoCirculacion devolver(Usuario usuario) {
+        Prestamo masAntiguo = usuario.getPrestamoActual();
+        if (masAntiguo == null) {
+            return new ResultadoCirculacion(ResultadoCirculacion.Tipo.SIN_PRESTAMO, null, null, null);
+        }
+        return devolver(usuario, masAntiguo.getCodigoLibro());
+    }
+
+    // Devuelve un libro concreto que tiene prestado el usuario. Si se pasó de la fecha límite, se le aplica un veto.
+    public ResultadoCirculacion devolver(Usuario usuario, String codigoLibro) {
+        ResultadoCirculacion resultado;
+        boolean hayReservas;
+        CompletableFuture<Void> enDisco = null;
+        ReentrantLock cerrojoUsuario = cerrojoUsuario(usuario);
+        cerrojoUsuario.lock();
+        try {
+            Prestamo prestamo = usuario.buscarPrestamo(codigoLibro);
+            if (prestamo == null) {
+                return new ResultadoCirculacion(ResultadoCirculacion.Tipo.SIN_PRESTAMO, null, null, null);
+            }
+
+            ReentrantLock cerrojoLibro = cerrojoLibro(prestamo.getCodigoLibro());
+            cerrojoLibro.lock();
+            try {
+                Libro libro = catalogo.buscarPorCodigo(prestamo.getCodigoLibro());
+                LocalDate hoy = hoy();
+                LocalDate finVeto = null;
+                if (hoy.isAfter(prestamo.getFechaDevolucion())) {
+                    // Si la devolución es tardía, se aplica el veto.
+                    finVeto = hoy.plusDays(DIAS_VETO);
+                    usuario.setEstaVetado(true);
+                    usuario.setFechaFinVeto(finVeto);
+                }
+                if (libro != null) {
+                    libro.setEstaPrestado(false); // El libro vuelve a estar disponible.
+                }
+                hayReservas = reservas.pendientes(prestamo.getCodigoLibro()) > 0;
+                usuario.quitarPrestamo(prestamo.getCodigoLibro());
+                usuarios.getHistorial().registrarDevolucion(prestamo.getRegistroHistorial(), (int) hoy.toEpochDay());
+                if (almacen != null) {
+                    enDisco = almacen.anotarDevolucion(prestamo, hoy, finVeto);
+                }
+                for (OyenteCirculacion oyente : oyentes) {
+                    oyente.devolucionRealizada(usuario, libro, prestamo, finVeto);
+                }
+                resultado = new ResultadoCirculacion(finVeto != null ? ResultadoCirculacion.Tipo.DEVUELTO_TARDE
+                        : ResultadoCirculacion.Tipo.DEVUELTO_A_TIEMPO, libro, prestamo, finVeto);
+            } finally {
+                cerrojoLibro.unlock();
+            }
+        } finally {
+            cerrojoUsuario.unlock();
+        }
+        esperarDisco(enDisco);
+        if (hayReservas) {
+            // Ya sin cerrojos (para respetar el orden usuario -> libro): se presta al primero de la cola.
+            entregarReserva(codigoLibro);
+        }
+        compactarSiHaceFalta();
+        return resultado;
+    }
+
+    // --- Reservas ---
+
+    // Pone al usuario en la cola de espera de un libro prestado. Se le prestará en cuanto se devuelva y le toque.
+    public ResultadoCirculacion reservar(Usuario usuario, String codigoLibro) {
+        ResultadoCirculacion resultado;
+        CompletableFuture<Void> enDisco = null;
+        ReentrantLock cerrojoUsuario = cerrojoUsuario(usuario);
+        cerrojoUsuario.lock();
+        try {
+            verificarVeto(usuario, hoy());
+            if (usuario.isEstaVetado()) {
+                return new ResultadoCirculacion(ResultadoCirculacion.Tipo.USUARIO_VETADO, null, null, usuario.getFechaFinVeto());
+            }
+
+            ReentrantLock cerrojoLibro = cerrojoLibro(codigoLibro);
+            cerrojoLibro.lock();
+            try {
+                Libro libro = catalogo.buscarPorCodigo(codigoLibro);
+                if (libro == null) {
+                    return new ResultadoCirculacion(ResultadoCirculacion.Tipo.LIBRO_NO_DISPONIBLE, null, null, null);
+                }
+                if (usuario.buscarPrestamo(codigoLibro) != null || usuario.tieneReserva(codigoLibro)) {
+                    return new ResultadoCirculacion(ResultadoCirculacion.Tipo.YA_RESERVADO, libro, null, null,
+                            reservas.puestoDe(codigoLibro, usuario));
+                }
+                if (!libro.isEstaPrestado() && reservas.apartadoPara(codigoLibro) == null && reservas.pendientes(codigoLibro) == 0) {
+                    return new ResultadoCirculacion(ResultadoCirculacion.Tipo.LIBRO_DISPONIBLE, libro, null, null);
+                }
+                int puesto = reservas.encolar(codigoLibro, usuario);
+                usuario.agregarReserva(codigoLibro);
+                if (almacen != null) {
+                    enDisco = almacen.anotarReserva(codigoLibro, usuario);
+                }
+                for (OyenteCirculacion oyente : oyentes) {
+                    oyente.reservaRealizada(usuario, libro, puesto);
+                }
+                resultado = new ResultadoCirculacion(ResultadoCirculacion.Tipo.RESERVA_REALIZADA, libro, null, null, puesto);
+            } finally {
+                cerrojoLibro.unlock();
+            }
+        } finally {
+            cerrojoUsuario.unlock();
+        }
+        esperarDisco(enDisco);
+        compactarSiHaceFalta();
+        return resultado;
+    }
+
+    // Saca al usuario de la cola de espera de un libro.
+    public ResultadoCirculacion cancelarReserva(Usuario usuario, String codigoLibro) {
+        ResultadoCirculacion resultado;
+        CompletableFuture<Void> enDisco;
+        ReentrantLock cerrojoUsuario = cerrojoUsuario(usuario);
+        cerrojoUsuario.lock();
+        try {
+            ReentrantLock cerrojoLibro = cerrojoLibro(codigoLibro);
+            cerrojoLibro.lock();
+            try {
+                if (!reservas.quitar(codigoLibro, usuario)) {
+                    return new ResultadoCirculacion(ResultadoCirculacion.Tipo.SIN_RESERVA, null, null, null);
+                }
+                Libro libro = catalogo.buscarPorCodigo(codigoLibro);
+                enDisco = cerrarReserva(usuario, libro, codigoLibro);
+                resultado = new ResultadoCirculacion(ResultadoCirculacion.Tipo.RESERVA_CANCELADA, libro, null, null);
+            } finally {
+                cerrojoLibro.unlock();
+            }
+        } finally {
+            cerrojoUsuario.unlock();
+        }
+        esperarDisco(enDisco);
+        compactarSiHaceFalta();
+        return resultado;
+    }
+
+    // Número de personas esperando un libro (sin cerrojos: se puede llamar al pintar la interfaz).
+    public int reservasPendientes(String codigoLibro) {
+        return reservas.pendientes(codigoLibro);
+    }
+
+    // Puesto del usuario en la cola de un libro (1 = el siguiente), o 0 si no lo está esperando.
+    public int puestoEnReserva(Usuario usuario, String codigoLibro) {
+        ReentrantLock cerrojoLibro = cerrojoLibro(codigoLibro);
+        cerrojoLibro.lock();
+        try {
+            return reservas.puestoDe(codigoLibro, usuario);
+        } finally {
+            cerrojoLibro.unlock();
+        }
+    }
+
+    // Revisa los libros libres que aún tienen cola (por ejemplo, si la aplicación se cerró justo al devolverlos)
+    // y los entrega. Se llama al arrancar, después de recuperar los datos.
+    public void entregarReservasPendientes() {
+        List<String> codigos = new ArrayList<>(); // Copia: entregar un libro puede borrar su cola del mapa.
+        for (String codigo : reservas.librosConReservas()) {
+            codigos.add(codigo);
+        }
+        for (String codigo : codigos) {
+            entregarReserva(codigo);
+        }
+    }
+
+    // Presta un libro que acaba de quedar libre al primero de su cola que pueda llevárselo y le deja un aviso.
+    // Sacar al siguiente es O(1); quien ya no puede llevárselo (vetado o en el límite) pierde la reserva y se
+    // prueba con el siguiente. Mientras se le presta, el libro queda apartado para que nadie se cuele.
+    // Se llama sin ningún cerrojo tomado, porque prestar() bloquea primero al usuario y después al libro.
+    private void entregarReserva(String codigoLibro) {
+        ReentrantLock cerrojoLibro = cerrojoLibro(codigoLibro);
+        while (true) {
+            Usuario siguiente;
+            cerrojoLibro.lock();
+            try {
+                Libro libro = catalogo.buscarPorCodigo(codigoLibro);
+                if (libro == null || libro.isEstaPrestado() || reservas.apartadoPara(codigoLibro) != null) {
+                    return; // Ya se lo llevó alguien, o otro hilo se está encargando de entregarlo.
+                }
+                siguiente = reservas.siguiente(codigoLibro);
+                if (siguiente == null) {
+                    return; // No queda nadie esperando.
+                }
+                siguiente.quitarReserva(codigoLibro);
+                reservas.apartar(codigoLibro, siguiente);
+            } finally {
+                cerrojoLibro.unlock();
+            }
+
+            ResultadoCirculacion prestamo = prestar(siguiente, codigoLibro);
+            if (prestamo.getTipo() == ResultadoCirculacion.Tipo.PRESTAMO_REALIZADO) {
+                siguiente.agregarAviso("Ya tienes el libro que reservaste: \"" + prestamo.getLibro().getTitulo()
+                        + "\". Fecha límite: " + prestamo.getPrestamo().getFechaDevolucion().format(FORMATO_AVISO) + ".");
+                for (OyenteCirculacion oyente : oyentes) {
+                    oyente.reservaEntregada(siguiente, prestamo.getLibro(), prestamo.getPrestamo());
+                }
+                return;
+            }
+
+            // No pudo llevárselo: pierde la reserva y el libro pasa al siguiente de la cola.
+            CompletableFuture<Void> enDisco;
+            cerrojoLibro.lock();
+            try {
+                reservas.liberarApartado(codigoLibro, siguiente);
+                Libro libro = catalogo.buscarPorCodigo(codigoLibro);
+                enDisco = cerrarReserva(siguiente, libro, codigoLibro);
+                siguiente.agregarAviso("Tu reserva de \"" + libro.getTitulo() + "\" se canceló: "
+                        + (prestamo.getTipo() == ResultadoCirculacion.Tipo.USUARIO_VETADO
+                           ? "tenías un veto activo" : "ya tenías el máximo de libros prestados") + " cuando quedó libre.");
+            } finally {
+                cerrojoLibro.unlock();
+            }
+            esperarDisco(enDisco);
+        }
+    }
+
+    // Termina una reserva que ya salió de la cola: la quita del usuario, la anota y avisa a los oyentes.
+    // Quien llama tiene bloqueada la franja del libro; devuelve el registro del diario para esperarlo después
+    // de soltarla (null si no se persiste).
+    private CompletableFuture<Void> cerrarReserva(Usuario usuario, Libro libro, String codigoLibro) {
+        usuario.quitarReserva(codigoLibro);
+        CompletableFuture<Void> enDisco = almacen != null ? almacen.anotarCancelacionReserva(codigoLibro, usuario) : null;
+        for (OyenteCirculacion oyente : oyentes) {
+            oyente.reservaCancelada(usuario, libro);
+        }
+        return enDisco;
+    }
+
+    // Actualiza el estado de veto del usuario (por si ya expiró) de forma segura.
+    public void verificarVeto(Usuario usuario) {
+        verificarVeto(usuario, hoy());
+    }
+
+    // Levanta el veto si ya terminó en la fecha indicada. Avisa a los oyentes si se levantó.
+    // Se puede llamar con el usuario ya bloqueado (prestar y reservar lo hacen): el cerrojo es reentrante.
+    public void verificarVeto(Usuario usuario, LocalDate hoy) {
+        ReentrantLock cerrojo = cerrojoUsuario(usuario);
+        cerrojo.lock();
+        try {
+            boolean estabaVetado = usuario.isEstaVetado();
+            usuario.verificarVeto(hoy);
+            if (estabaVetado && !usuario.isEstaVetado()) {
+                for (OyenteCirculacion oyente : oyentes) {
+                    oyente.vetoExpirado(usuario);
+                }
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    // Marca como vencido un préstamo que sigue activo pasada su fecha límite. Si ya se devolvió, no hace nada.
+    public void marcarVencido(Usuario usuario, Prestamo prestamo) {
+        ReentrantLock cerrojo = cerrojoUsuario(usuario);
+        cerrojo.lock();
+        try {
+            if (usuario.tienePrestamo(prestamo) && !prestamo.isVencido()) {
+                prestamo.marcarVencido();
+                for (OyenteCirculacion oyente : oyentes) {
+                    oyente.prestamoVencido(usuario, prestamo);
+                }
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    // Registra un usuario nuevo y lo anota en el diario. Devuelve false si el username o la identificación ya existen.
+    public boolean registrarUsuario(Usuario usuario) {
+        boolean registrado;
+        CompletableFuture<Void> enDisco = null;
+        ReentrantLock cerrojo = cerrojoUsuario(usuario);
+        cerrojo.lock();
+        try {
+            registrado = usuarios.registrar(usuario);
+            if (registrado && almacen != null) {
+                enDisco = almacen.anotarRegistro(usuario);
+            }
+            if (registrado) {
+                for (OyenteCirculacion oyente : oyentes) {
+                    oyente.usuarioRegistrado(usuario);
+                }
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+        esperarDisco(enDisco);
+        compactarSiHaceFalta();
+        return registrado;
+    }
+
+    // Da de alta un libro en el catálogo y lo anota en el diario. Devuelve false si el código ya existe.
+    public boolean agregarLibro(Libro libro) {
+        boolean agregado;
+        CompletableFuture<Void> enDisco = null;
+        ReentrantLock cerrojo = cerrojoLibro(libro.getCodigo());
+        cerrojo.lock();
+        try {
+            agregado = catalogo.agregar(libro);
+            if (agregado && almacen != null) {
+                enDisco = almacen.anotarAltaLibro(libro);
+            }
+            if (agregado) {
+                int posicion = catalogo.posicionDe(libro.getCodigo());
+                for (OyenteCirculacion oyente : oyentes) {
+                    oyente.libroAgregado(libro, posicion);
+                }
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+        esperarDisco(enDisco);
+        compactarSiHaceFalta();
+        return agregado;
+    }
+
+    // --- Cargas masivas ---
+
+    // Da de alta un lote de libros (importación masiva). Devuelve, para cada libro, si se añadió (false = código
+    // duplicado). Mientras dura el lote se bloquean todas las franjas de libros (no las de usuarios, así que no
+    // hay riesgo de interbloqueo con un préstamo), y el lote entero se anota como un único registro del diario.
+    // Vuelve cuando el lote ya está en disco. No compacta: tras la importación conviene llamar una vez a
+    // tomarInstantanea() en lugar de guardar una instantánea cada pocos miles de altas.
+    public boolean[] agregarLibros(List<Libro> lote) {
+        boolean[] agregados = new boolean[lote.size()];
+        List<Libro> nuevos = new ArrayList<>(lote.size());
+        CompletableFuture<Void> enDisco = null;
+        bloquearTodas(franjasLibros);
+        try {
+            catalogo.reservar(lote.size());
+            for (int i = 0; i < lote.size(); i++) {
+                agregados[i] = catalogo.agregar(lote.get(i));
+                if (agregados[i]) {
+                    nuevos.add(lote.get(i));
+                }
+            }
+            if (almacen != null && !nuevos.isEmpty()) {
+                enDisco = almacen.anotarAltasLibros(nuevos);
+            }
+            for (Libro libro : nuevos) {
+                int posicion = catalogo.posicionDe(libro.getCodigo());
+                for (OyenteCirculacion oyente : oyentes) {
+                    oyente.libroAgregado(libro, posicion);
+                }
+            }
+        } finally {
+            desbloquearTodas(franjasLibros);
+        }
+        esperarDisco(enDisco);
+        return agregados;
+    }
+
+    // Registra un lote de usuarios (importación masiva). Devuelve, para cada usuario, si se registró
+    // (false = username o identificación repetidos). Igual que agregarLibros, pero con las franjas de usuarios.
+    public boolean[] registrarUsuarios(List<Usuario> lote) {
+        boolean[] registrados = new boolean[lote.size()];
+        List<Usuario> nuevos = new ArrayList<>(lote.size());
+        CompletableFuture<Void> enDisco = null;
+        bloquearTodas(franjasUsuarios);
+        try {
+            for (int i = 0; i < lote.size(); i++) {
+                registrados[i] = usuarios.registrar(lote.get(i));
+                if (registrados[i]) {
+                    nuevos.add(lote.get(i));
+                }
+            }
+            if (almacen != null && !nuevos.isEmpty()) {
+                enDisco = almacen.anotarRegistros(nuevos);
+            }
+            for (Usuario usuario : nuevos) {
+                for (OyenteCirculacion oyente : oyentes) {
+                    oyente.usuarioRegistrado(usuario);
+                }
+            }
+        } finally {
+            desbloquearTodas(franjasUsuarios);
+        }
+        esperarDisco(enDisco);
+        return registrados;
+    }
+
+    // Espera a que un cambio ya anotado esté en disco (tras el fsync de su grupo) antes de darlo por hecho. Se llama
+    // con los cerrojos ya soltados: mientras tanto, los demás mostradores siguen trabajando y sus registros entran
+    // en el mismo grupo, así que esperar no reduce el número de operaciones por segundo.
+    private static void esperarDisco(CompletableFuture<Void> enDisco) {
+        if (enDisco != null) {
+            enDisco.join();
+        }
+    }
+
+    // --- Instantáneas ---
+
+    // Si el diario ya creció lo suficiente, lo compacta en segundo plano. No bloquea ninguna franja: el almacén
+    // corta el diario entre dos registros y reconstruye la instantánea a partir de los ficheros.
+    private void compactarSiHaceFalta() {
+        if (almacen != null && almacen.necesitaInstantanea()) {
+            almacen.compactarEnSegundoPlano();
+        }
+    }
+
+    // Toma una instantánea consistente: bloquea todas las franjas (usuarios y luego libros, el mismo orden
+    // que las operaciones) para que ningún cambio quede a medias. Es una pausa corta y poco frecuente.
+    public void tomarInstantanea() {
+        if (almacen == null) {
+            return;
+        }
+        bloquearTodo();
+        try {
+            almacen.tomarInstantanea();
+        } finally {
+            desbloquearTodo();
+        }
+    }
+
+    // Guarda una última instantánea y cierra el diario.
+    public void cerrar() {
+        if (almacen == null) {
+            return;
+        }
+        bloquearTodo();
+        try {
+            almacen.cerrar();
+        } finally {
+            desbloquearTodo();
+        }
+    }
+
+    private void bloquearTodo() {
+        bloquearTodas(franjasUsuarios);
+        bloquearTodas(franjasLibros);
+    }
+
+    private void desbloquearTodo() {
+        desbloquearTodas(franjasLibros);
+        desbloquearTodas(franjasUsuarios);
+    }
+
+    private static void bloquearTodas(ReentrantLock[] franjas) {
+        for (ReentrantLock c : franjas) {
+            c.lock();
+        }
+    }
+
+    private static void desbloquearTodas(ReentrantLock[] franjas) {
+        for (int i = FRANJAS - 1; i >= 0; i--) {
+            franjas[i].unlock();
+        }
+    }
+}
@@ -0,0 +1,531 @@
+// Importamos el servidor HTTP del JDK, la E/S, las fechas y las colecciones concurrentes que usa la API.
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * =================================================================================
+ * API HTTP/JSON DE LA BIBLIOTECA
+ * Expone el núcleo (login, búsqueda, préstamo, devolución y estado) en un servidor
+ * HTTP local, para que los quioscos de autoservicio usen las mismas reglas y los
+ * mismos datos que la ventana Swing.
+ *
+ * Cada petición se atiende en su propio hilo virtual cuando la JVM los tiene
+ * (Java 21 o superior): una petición que espera al disco no bloquea a las demás y
+ * miles de peticiones simultáneas no necesitan miles de hilos del sistema. En JVMs
+ * anteriores se usa un pool de hilos normales que crece según la demanda.
+ *
+ * Rutas (los parámetros van en la URL o en un cuerpo application/x-www-form-urlencoded):
+ *   POST /login       usuario, clave      -> token de sesión
+ *   POST /logout      (token)
+ *   GET  /buscar      q, limite           -> libros cuyo título o autor coincide
+ *   GET  /libros      orden, desc, pagina, limite -> una página del inventario ordenado
+ *                                         (orden=catalogo|codigo|titulo|autor|estado; pagina desde 1)
+ *   POST /prestamo    (token), codigo
+ *   POST /devolucion  (token), [codigo]
+ *   POST /reserva     (token), codigo
+ *   POST /reserva/cancelar (token), codigo
+ *   GET  /estado      (token)
+ *   GET  /metricas                        -> métricas en texto plano (formato de Prometheus)
+ *   GET  /informes/vencidos  (token), limite       -> préstamos vencidos, del más atrasado al menos
+ *   GET  /informes/populares (token), de, mes, n   -> libros o autores (de=libros|autores) más prestados
+ *                                                     en un mes (aaaa-mm; sin él, desde siempre)
+ * El token se manda en la cabecera "Authorization: Bearer <token>" o en el parámetro "token".
+ * Las sesiones caducan tras 30 minutos sin usarse (ver GestorSesiones).
+ * =================================================================================
+ */
+
+// --- Clase ServidorHttpBiblioteca: Servidor HTTP embebido sobre el núcleo de la biblioteca. ---
+class ServidorHttpBiblioteca {
+    static final int PUERTO_POR_DEFECTO = 8080;
+    private static final int LIMITE_BUSQUEDA = 50;   // Resultados por defecto de /buscar.
+    private static final int LIMITE_MAXIMO = 1000;   // Tope de resultados que se puede pedir.
+    private static final int REGISTROS_HISTORIAL = 10; // Préstamos pasados que devuelve /estado.
+    private static final int LIMITE_VENCIDOS = 100;    // Préstamos por defecto de /informes/vencidos.
+    private static final int PUESTOS_POPULARES = 10;   // Puestos por defecto de /informes/populares.
+    private static final int MAX_CUERPO = 64 * 1024;   // Bytes que se aceptan en el cuerpo de una petición (si no, 413).
+
+    private final NucleoBiblioteca nucleo;
+    private final HttpServer servidor;
+    private final ExecutorService ejecutor;
+
+    // Constructor: prepara el servidor en la dirección indicada (aún no acepta conexiones).
+    public ServidorHttpBiblioteca(NucleoBiblioteca nucleo, InetSocketAddress direccion) throws IOException {
+        this.nucleo = nucleo;
+        this.servidor = HttpServer.create(direccion, 1024);
+        this.ejecutor = EjecutorSegundoPlano.crearEjecutor("biblioteca-http"); // Un hilo virtual por petición si la JVM los tiene.
+        servidor.setExecutor(ejecutor);
+        servidor.createContext("/login", atender("POST", this::login));
+        servidor.createContext("/logout", atender("POST", this::logout));
+        servidor.createContext("/buscar", atender("GET", this::buscar));
+        servidor.createContext("/libros", atender("GET", this::libros));
+        servidor.createContext("/prestamo", atender("POST", this::prestamo));
+        servidor.createContext("/devolucion", atender("POST", this::devolucion));
+        servidor.createContext("/reserva", atender("POST", this::reserva));
+        servidor.createContext("/reserva/cancelar", atender("POST", this::cancelarReserva));
+        servidor.createContext("/estado", atender("GET", this::estado));
+        servidor.createContext("/metricas", atender("GET", this::metricas));
+        servidor.createContext("/informes/vencidos", atender("GET", this::vencidos));
+        servidor.createContext("/informes/populares", atender("GET", this::populares));
+    }
+
+    public void iniciar() { servidor.start(); }
+
+    // Deja de aceptar peticiones, espera hasta un segundo a las que están en curso y libera los hilos.
+    public void detener() {
+        servidor.stop(1);
+        ejecutor.shutdown();
+        try {
+            ejecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Puerto real en el que escucha (útil si se pidió el puerto 0).
+    public int getPuerto() { return servidor.getAddress().getPort(); }
+
+    // --- Infraestructura de las rutas ---
+
+    // Respuesta de una ruta: código HTTP y cuerpo (JSON salvo que se indique otro tipo).
+    private static final class Respuesta {
+        final int codigo;
+        final String cuerpo;
+        final String tipo;
+
+        Respuesta(int codigo, String json) {
+            this(codigo, json, "application/json; charset=utf-8");
+        }
+
+        Respuesta(int codigo, String cuerpo, String tipo) {
+            this.codigo = codigo;
+            this.cuerpo = cuerpo;
+            this.tipo = tipo;
+        }
+    }
+
+    // Cuerpo de petición mayor que MAX_CUERPO: se responde 413 sin haberlo leído entero.
+    private static final class CuerpoDemasiadoGrande extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        CuerpoDemasiadoGrande() {
+            super("El cuerpo de la petición supera los " + MAX_CUERPO + " bytes");
+        }
+    }
+
+    // Lógica de una ruta: recibe los parámetros y la cabecera de autorización.
+    @FunctionalInterface
+    private interface Ruta {
+        Respuesta atender(Map<String, String> parametros, String autorizacion);
+    }
+
+    // Envuelve una ruta: comprueba el método, lee los parámetros, escribe la respuesta y convierte los fallos en JSON.
+    private HttpHandler atender(String metodo, Ruta ruta) {
+        return intercambio -> {
+            long inicio = System.nanoTime();
+            Respuesta respuesta;
+            try {
+                if (!metodo.equals(intercambio.getRequestMethod())) {
+                    intercambio.getResponseHeaders().set("Allow", metodo);
+                    respuesta = error(405, "Método no permitido; usa " + metodo);
+                } else {
+                    Map<String, String> parametros = leerParametros(intercambio);
+                    respuesta = ruta.atender(parametros, intercambio.getRequestHeaders().getFirst("Authorization"));
+                }
+            } catch (CuerpoDemasiadoGrande e) {
+                respuesta = error(413, e.getMessage());
+            } catch (IllegalArgumentException e) {
+                respuesta = error(400, e.getMessage());
+            } catch (RuntimeException e) {
+                respuesta = error(500, "Error interno: " + e);
+            }
+            byte[] cuerpo = respuesta.cuerpo.getBytes(StandardCharsets.UTF_8);
+            intercambio.getResponseHeaders().set("Content-Type", respuesta.tipo);
+            intercambio.sendResponseHeaders(respuesta.codigo, cuerpo.length);
+            try (OutputStream salida = intercambio.getResponseBody()) {
+                salida.write(cuerpo);
+            }
+            nucleo.getMetricas().medir(MetricasCirculacion.Operacion.PETICION_HTTP, inicio);
+        };
+    }
+
+    // Junta los parámetros de la URL y los de un cuerpo de formulario. Nunca se leen más de MAX_CUERPO + 1 bytes,
+    // así que un cliente no puede llenar la memoria con un cuerpo enorme.
+    private static Map<String, String> leerParametros(HttpExchange intercambio) throws IOException {
+        Map<String, String> parametros = new HashMap<>();
+        agregarParametros(intercambio.getRequestURI().getRawQuery(), parametros);
+        try (InputStream entrada = intercambio.getRequestBody()) {
+            byte[] cuerpo = entrada.readNBytes(MAX_CUERPO + 1);
+            if (cuerpo.length > MAX_CUERPO) {
+                throw new CuerpoDemasiadoGrande();
+            }
+            if (cuerpo.length > 0) {
+                agregarParametros(new String(cuerpo, StandardCharsets.UTF_8), parametros);
+            }
+        }
+        return parametros;
+    }
+
+    // Decodifica "a=1&b=dos" y lo añade al mapa.
+    private static void agregarParametros(String texto, Map<String, String> parametros) {
+        if (texto == null || texto.isEmpty()) {
+            return;
+        }
+        for (String par : texto.split("&")) {
+            int igual = par.indexOf('=');
+            String clave = URLDecoder.decode(igual < 0 ? par : par.substring(0, igual), StandardCharsets.UTF_8);
+            String valor = igual < 0 ? "" : URLDecoder.decode(par.substring(igual + 1), StandardCharsets.UTF_8);
+            parametros.put(clave, valor);
+        }
+    }
+
+    // Devuelve un parámetro obligatorio o lanza un error 400.
+    private static String requerido(Map<String, String> parametros, String nombre) {
+        String valor = parametros.get(nombre);
+        if (valor == null || valor.trim().isEmpty()) {
+            throw new IllegalArgumentException("Falta el parámetro '" + nombre + "'");
+        }
+        return valor.trim();
+    }
+
+    // Devuelve un parámetro numérico opcional entre 1 y LIMITE_MAXIMO, o el valor por defecto si no viene.
+    private static int limite(Map<String, String> parametros, String nombre, int porDefecto) {
+        if (!parametros.containsKey(nombre)) {
+            return porDefecto;
+        }
+        try {
+            return Math.max(1, Math.min(LIMITE_MAXIMO, Integer.parseInt(parametros.get(nombre).trim())));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("El parámetro '" + nombre + "' debe ser un número");
+        }
+    }
+
+    // Token de la petición: cabecera "Authorization: Bearer <token>" o parámetro "token".
+    private static String token(Map<String, String> parametros, String autorizacion) {
+        return autorizacion != null && autorizacion.startsWith("Bearer ")
+                ? autorizacion.substring("Bearer ".length()).trim()
+                : parametros.get("token");
+    }
+
+    // Busca el usuario de la sesión a partir del token (null si no existe o caducó; si no, la renueva).
+    private Usuario usuarioDeSesion(Map<String, String> parametros, String autorizacion) {
+        return nucleo.getSesiones().usuarioDe(token(parametros, autorizacion));
+    }
+
+    // --- Rutas ---
+
+    private Respuesta login(Map<String, String> parametros, String autorizacion) {
+        long inicio = System.nanoTime();
+        GestorSesiones.Sesion sesion = nucleo.getSesiones().iniciar(requerido(parametros, "usuario"), requerido(parametros, "clave"));
+        MetricasCirculacion metricas = nucleo.getMetricas();
+        metricas.medir(MetricasCirculacion.Operacion.LOGIN, inicio);
+        if (sesion == null) {
+            metricas.contar(MetricasCirculacion.Contador.LOGINS_FALLIDOS);
+            return error(401, "Usuario o contraseña incorrectos");
+        }
+        metricas.contar(MetricasCirculacion.Contador.LOGINS);
+        return new Respuesta(200, new StringBuilder("{\"token\":").append(texto(sesion.token))
+                .append(",\"nombre\":").append(texto(sesion.usuario.getNombreCompleto())).append('}').toString());
+    }
+
+    private Respuesta logout(Map<String, String> parametros, String autorizacion) {
+        boolean cerrada = nucleo.getSesiones().cerrar(token(parametros, autorizacion));
+        return cerrada ? new Respuesta(200, "{\"ok\":true}") : error(401, "Sesión no válida");
+    }
+
+    private Respuesta buscar(Map<String, String> parametros, String autorizacion) {
+        String consulta = requerido(parametros, "q");
+        int limite = limite(parametros, "limite", LIMITE_BUSQUEDA);
+        long inicio = System.nanoTime();
+        int[] posiciones = nucleo.getIndiceBusqueda().buscar(consulta, limite);
+        nucleo.getMetricas().contar(MetricasCirculacion.Contador.BUSQUEDAS);
+        nucleo.getMetricas().medir(MetricasCirculacion.Operacion.BUSQUEDA, inicio);
+        StringBuilder json = new StringBuilder(64 + posiciones.length * 96);
+        json.append("{\"total\":").append(posiciones.length).append(",\"libros\":[");
+        for (int i = 0; i < posiciones.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            libro(json, nucleo.getInventario().obtener(posiciones[i]));
+        }
+        return new Respuesta(200, json.append("]}").toString());
+    }
+
+    // Una página del inventario en el orden pedido. Sale de los órdenes precalculados: cuesta lo mismo la primera
+    // página que la última, tenga el catálogo diez libros o un millón.
+    private Respuesta libros(Map<String, String> parametros, String autorizacion) {
+        OrdenCatalogo.Criterio criterio;
+        try {
+            criterio = OrdenCatalogo.Criterio.valueOf(parametros.getOrDefault("orden", "catalogo").trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("El parámetro 'orden' debe ser catalogo, codigo, titulo, autor o estado");
+        }
+        boolean descendente = Boolean.parseBoolean(parametros.get("desc"));
+        int limite = limite(parametros, "limite", LIMITE_BUSQUEDA);
+        int pagina;
+        try {
+            pagina = Math.max(1, Integer.parseInt(parametros.getOrDefault("pagina", "1").trim())) - 1; // Sin tope: un millón de libros son miles de páginas.
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("El parámetro 'pagina' debe ser un número");
+        }
+        OrdenCatalogo orden = nucleo.getOrden();
+        int total = orden.tamano();
+        long primera = (long) pagina * limite;
+        int hasta = (int) Math.min(total, primera + limite);
+        StringBuilder json = new StringBuilder(96 + limite * 96);
+        json.append("{\"total\":").append(total)
+                .append(",\"pagina\":").append(pagina + 1)
+                .append(",\"paginas\":").append(Math.max(1, (total + limite - 1) / limite))
+                .append(",\"ordenado\":").append(criterio == OrdenCatalogo.Criterio.CATALOGO || orden.listo())
+                .append(",\"libros\":[");
+        for (int rango = (int) Math.min(primera, total); rango < hasta; rango++) {
+            if (rango > primera) {
+                json.append(',');
+            }
+            libro(json, nucleo.getInventario().obtener(orden.posicionEn(criterio, descendente, rango)));
+        }
+        return new Respuesta(200, json.append("]}").toString());
+    }
+
+    private Respuesta prestamo(Map<String, String> parametros, String autorizacion) {
+        Usuario usuario = usuarioDeSesion(parametros, autorizacion);
+        if (usuario == null) {
+            return error(401, "Inicia sesión primero");
+        }
+        long inicio = System.nanoTime();
+        ResultadoCirculacion resultado = nucleo.getServicio().prestar(usuario, requerido(parametros, "codigo"));
+        nucleo.getMetricas().medir(MetricasCirculacion.Operacion.PRESTAMO, inicio);
+        if (resultado.getTipo() != ResultadoCirculacion.Tipo.PRESTAMO_REALIZADO) {
+            nucleo.getMetricas().contar(MetricasCirculacion.Contador.PRESTAMOS_RECHAZADOS);
+        }
+        StringBuilder json = new StringBuilder("{\"resultado\":").append(texto(resultado.getTipo().name()));
+        if (resultado.getTipo() == ResultadoCirculacion.Tipo.PRESTAMO_REALIZADO) {
+            json.append(",\"libro\":");
+            libro(json, resultado.getLibro());
+            json.append(",\"fechaDevolucion\":").append(fecha(resultado.getPrestamo().getFechaDevolucion()));
+            return new Respuesta(200, json.append('}').toString());
+        }
+        if (resultado.getFinVeto() != null) {
+            json.append(",\"finVeto\":").append(fecha(resultado.getFinVeto()));
+        }
+        return new Respuesta(409, json.append('}').toString()); // Conflicto: vetado, límite de préstamos o no disponible.
+    }
+
+    private Respuesta devolucion(Map<String, String> parametros, String autorizacion) {
+        Usuario usuario = usuarioDeSesion(parametros, autorizacion);
+        if (usuario == null) {
+            return error(401, "Inicia sesión primero");
+        }
+        // Con "codigo" se devuelve ese libro; sin él, el préstamo más antiguo.
+        String codigo = parametros.get("codigo");
+        long inicio = System.nanoTime();
+        ResultadoCirculacion resultado = codigo == null ? nucleo.getServicio().devolver(usuario)
+                                                        : nucleo.getServicio().devolver(usuario, codigo);
+        nucleo.getMetricas().medir(MetricasCirculacion.Operacion.DEVOLUCION, inicio);
+        StringBuilder json = new StringBuilder("{\"resultado\":").append(texto(resultado.getTipo().name()));
+        if (resultado.getTipo() == ResultadoCirculacion.Tipo.SIN_PRESTAMO) {
+            return new Respuesta(409, json.append('}').toString());
+        }
+        json.append(",\"codigo\":").append(texto(resultado.getPrestamo().getCodigoLibro()));
+        if (resultado.getFinVeto() != null) {
+            json.append(",\"finVeto\":").append(fecha(resultado.getFinVeto()));
+        }
+        return new Respuesta(200, json.append('}').toString());
+    }
+
+    private Respuesta reserva(Map<String, String> parametros, String autorizacion) {
+        Usuario usuario = usuarioDeSesion(parametros, autorizacion);
+        if (usuario == null) {
+            return error(401, "Inicia sesión primero");
+        }
+        ResultadoCirculacion resultado = nucleo.getServicio().reservar(usuario, requerido(parametros, "codigo"));
+        StringBuilder json = new StringBuilder("{\"resultado\":").append(texto(resultado.getTipo().name()));
+        if (resultado.getPuesto() > 0) {
+            json.append(",\"puesto\":").append(resultado.getPuesto());
+        }
+        if (resultado.getFinVeto() != null) {
+            json.append(",\"finVeto\":").append(fecha(resultado.getFinVeto()));
+        }
+        // Conflicto: vetado, ya lo tiene o lo espera, libro libre o inexistente.
+        int codigo = resultado.getTipo() == ResultadoCirculacion.Tipo.RESERVA_REALIZADA ? 200 : 409;
+        return new Respuesta(codigo, json.append('}').toString());
+    }
+
+    private Respuesta cancelarReserva(Map<String, String> parametros, String autorizacion) {
+        Usuario usuario = usuarioDeSesion(parametros, autorizacion);
+        if (usuario == null) {
+            return error(401, "Inicia sesión primero");
+        }
+        ResultadoCirculacion resultado = nucleo.getServicio().cancelarReserva(usuario, requerido(parametros, "codigo"));
+        String json = "{\"resultado\":" + texto(resultado.getTipo().name()) + "}";
+        return new Respuesta(resultado.getTipo() == ResultadoCirculacion.Tipo.RESERVA_CANCELADA ? 200 : 409, json);
+    }
+
+    // Métricas en texto plano para un recolector (Prometheus u otro); no piden sesión.
+    private Respuesta metricas(Map<String, String> parametros, String autorizacion) {
+        return new Respuesta(200, nucleo.getMetricas().textoExposicion(), "text/plain; version=0.0.4; charset=utf-8");
+    }
+
+    private Respuesta vencidos(Map<String, String> parametros, String autorizacion) {
+        if (usuarioDeSesion(parametros, autorizacion) == null) {
+            return error(401, "Inicia sesión primero");
+        }
+        LocalDate hoy = nucleo.getServicio().hoy();
+        InformesCirculacion informes = nucleo.getInformes();
+        List<Prestamo> vencidos = informes.vencidos(hoy, limite(parametros, "limite", LIMITE_VENCIDOS));
+        StringBuilder json = new StringBuilder(64 + vencidos.size() * 96);
+        json.append("{\"total\":").append(informes.totalVencidos(hoy)).append(",\"prestamos\":[");
+        for (int i = 0; i < vencidos.size(); i++) {
+            Prestamo p = vencidos.get(i);
+            json.append(i > 0 ? "," : "").append("{\"codigo\":").append(texto(p.getCodigoLibro()))
+                .append(",\"usuario\":").append(texto(p.getIdUsuario()))
+                .append(",\"fechaDevolucion\":").append(fecha(p.getFechaDevolucion()))
+                .append(",\"diasRetraso\":").append(hoy.toEpochDay() - p.getFechaDevolucion().toEpochDay()).append('}');
+        }
+        return new Respuesta(200, json.append("]}").toString());
+    }
+
+    private Respuesta populares(Map<String, String> parametros, String autorizacion) {
+        if (usuarioDeSesion(parametros, autorizacion) == null) {
+            return error(401, "Inicia sesión primero");
+        }
+        String de = requerido(parametros, "de");
+        YearMonth mes = null;
+        if (parametros.containsKey("mes")) {
+            try {
+                mes = YearMonth.parse(parametros.get("mes").trim());
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("El parámetro 'mes' debe tener la forma aaaa-mm");
+            }
+        }
+        int n = limite(parametros, "n", PUESTOS_POPULARES);
+        List<VistaPopularidad.Puesto> puestos;
+        if ("libros".equals(de)) {
+            puestos = nucleo.getInformes().librosMasPrestados(mes, n);
+        } else if ("autores".equals(de)) {
+            puestos = nucleo.getInformes().autoresMasPrestados(mes, n);
+        } else {
+            throw new IllegalArgumentException("El parámetro 'de' debe ser 'libros' o 'autores'");
+        }
+        StringBuilder json = new StringBuilder("{\"mes\":").append(mes == null ? "null" : texto(mes.toString()))
+                .append(",\"puestos\":[");
+        for (int i = 0; i < puestos.size(); i++) {
+            VistaPopularidad.Puesto puesto = puestos.get(i);
+            json.append(i > 0 ? "," : "").append("{\"nombre\":").append(texto(puesto.nombre))
+                .append(",\"prestamos\":").append(puesto.prestamos).append('}');
+        }
+        return new Respuesta(200, json.append("]}").toString());
+    }
+
+    private Respuesta estado(Map<String, String> parametros, String autorizacion) {
+        long inicioNanos = System.nanoTime();
+        Usuario usuario = usuarioDeSesion(parametros, autorizacion);
+        if (usuario == null) {
+            return error(401, "Inicia sesión primero");
+        }
+        nucleo.getServicio().verificarVeto(usuario); // Asegurarse de que el estado de veto esté actualizado.
+        StringBuilder json = new StringBuilder("{\"nombre\":").append(texto(usuario.getNombreCompleto()))
+                .append(",\"vetado\":").append(usuario.isEstaVetado())
+                .append(",\"finVeto\":").append(usuario.isEstaVetado() ? fecha(usuario.getFechaFinVeto()) : "null")
+                .append(",\"prestamos\":[");
+        boolean primero = true;
+        for (Prestamo prestamo : usuario.getPrestamos()) {
+            json.append(primero ? "" : ",")
+                .append("{\"codigo\":").append(texto(prestamo.getCodigoLibro()))
+                .append(",\"fechaDevolucion\":").append(fecha(prestamo.getFechaDevolucion()))
+                .append(",\"vencido\":").append(prestamo.isVencido()).append('}');
+            primero = false;
+        }
+        // Los últimos préstamos del historial, del más reciente al más antiguo.
+        json.append("],\"historial\":[");
+        CatalogoLibros inventario = nucleo.getInventario();
+        nucleo.getUsuarios().getHistorial().recorrer(usuario, REGISTROS_HISTORIAL, (registro, libro, inicio, vence, devolucion) -> {
+            if (json.charAt(json.length() - 1) != '[') {
+                json.append(',');
+            }
+            json.append("{\"codigo\":").append(texto(inventario.obtener(libro).getCodigo()))
+                .append(",\"inicio\":").append(fecha(LocalDate.ofEpochDay(inicio)))
+                .append(",\"vence\":").append(fecha(LocalDate.ofEpochDay(vence)))
+                .append(",\"devolucion\":").append(devolucion == HistorialPrestamos.SIN_DEVOLVER ? "null"
+                        : fecha(LocalDate.ofEpochDay(devolucion))).append('}');
+        });
+        // Las colas en las que espera, con su puesto, y los avisos pendientes (que se dan por leídos).
+        json.append("],\"reservas\":[");
+        primero = true;
+        for (String codigo : usuario.getReservas()) {
+            json.append(primero ? "" : ",")
+                .append("{\"codigo\":").append(texto(codigo))
+                .append(",\"puesto\":").append(nucleo.getServicio().puestoEnReserva(usuario, codigo)).append('}');
+            primero = false;
+        }
+        json.append("],\"avisos\":[");
+        primero = true;
+        for (String aviso : usuario.tomarAvisos()) {
+            json.append(primero ? "" : ",").append(texto(aviso));
+            primero = false;
+        }
+        nucleo.getMetricas().medir(MetricasCirculacion.Operacion.CONSULTA_ESTADO, inicioNanos);
+        return new Respuesta(200, json.append("]}").toString());
+    }
+
+    // --- Construcción de JSON ---
+
+    private static Respuesta error(int codigo, String mensaje) {
+        return new Respuesta(codigo, "{\"error\":" + texto(mensaje) + "}");
+    }
+
+    // Escribe un libro como objeto JSON (con cuántas personas lo están esperando).
+    private void libro(StringBuilder json, Libro libro) {
+        String codigo = libro.getCodigo();
+        json.append("{\"codigo\":").append(texto(codigo))
+            .append(",\"titulo\":").append(texto(libro.getTitulo()))
+            .append(",\"autor\":").append(texto(libro.getAutor()))
+            .append(",\"prestado\":").append(libro.isEstaPrestado())
+            .append(",\"reservas\":").append(nucleo.getServicio().reservasPendientes(codigo)).append('}');
+    }
+
+    // Fecha en formato ISO (aaaa-mm-dd) entre comillas.
+    private static String fecha(LocalDate fecha) {
+        return fecha == null ? "null" : "\"" + fecha + "\"";
+    }
+
+    // Cadena JSON entre comillas, escapando comillas, barras y caracteres de control.
+    static String texto(String valor) {
+        if (valor == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(valor.length() + 2).append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
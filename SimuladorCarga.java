@@ -0,0 +1,516 @@
+// Importamos el reloj, los hilos, los contadores concurrentes y las colecciones que usa la simulación.
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * =================================================================================
+ * SIMULADOR DE CARGA (PRUEBA DE RESISTENCIA SIN INTERFAZ)
+ * Reproduce el arranque de semestre: N usuarios y M libros sintéticos y muchos
+ * hilos haciendo a la vez logins, préstamos, devoluciones, consultas de estado,
+ * reservas y registros sobre el mismo ServicioPrestamos que usan la ventana y la API.
+ *
+ * El tiempo es simulado: la simulación avanza día a día. Al final de cada día todos
+ * los hilos se paran en una barrera y, con todo quieto, el reloj avanza un día, el
+ * planificador marca los préstamos vencidos y levanta los vetos cumplidos, y se
+ * comprueban las invariantes (un libro prestado dos veces, un usuario con
+ * tieneLibroPrestado pero sin prestamoActual, un veto caducado sin levantar, una
+ * sesión que sigue abierta un día después...).
+ * Así en unos segundos se ven semanas de circulación, con devoluciones tardías y
+ * vetos incluidos.
+ *
+ * Cada hilo decide qué hacer con su propio generador con semilla fija, así que la
+ * secuencia de decisiones de cada hilo es siempre la misma; con hilos=1 toda la
+ * ejecución es reproducible. Con más hilos solo cambia cómo se intercalan.
+ *
+ * Al terminar muestra el rendimiento (operaciones por segundo), los percentiles de
+ * latencia de cada acción, los resultados del servicio y las violaciones de
+ * invariantes. Con disco=true, además, vuelve a abrir el directorio con
+ * repositorios nuevos y comprueba que lo recuperado coincide con lo que había en
+ * memoria. Sale con código 1 si hubo alguna violación.
+ *
+ * Uso:  java SimuladorCarga [clave=valor ...]
+ *   usuarios=10000  libros=50000  hilos=8  dias=30  operaciones=1000000  semilla=42
+ *   mezcla=login:20,prestamo:30,devolucion:25,estado:15,reserva:5,registro:5
+ *   disco=false     (true: anota todo en un diario en un directorio temporal)
+ *   iteraciones=100 (de PBKDF2 para las claves sintéticas; ver ClaveCifrada)
+ * =================================================================================
+ */
+
+// --- Clase SimuladorCarga: Genera carga concurrente sobre el núcleo con reloj simulado y comprueba invariantes. ---
+class SimuladorCarga {
+    // Acciones que puede hacer un usuario simulado.
+    enum Accion { LOGIN, PRESTAMO, DEVOLUCION, ESTADO, RESERVA, REGISTRO }
+
+    private static final int EJEMPLOS_POR_VIOLACION = 5; // Casos que se guardan de cada tipo de violación.
+
+    // --- Reloj que solo avanza cuando se le pide ---
+    static final class RelojSimulado extends Clock {
+        private final AtomicLong milis;
+        private final ZoneId zona;
+
+        RelojSimulado(Instant inicio) {
+            this(new AtomicLong(inicio.toEpochMilli()), ZoneOffset.UTC);
+        }
+
+        private RelojSimulado(AtomicLong milis, ZoneId zona) {
+            this.milis = milis;
+            this.zona = zona;
+        }
+
+        // Adelanta el reloj (lo ven todos los que lo usan, también las copias con otra zona).
+        void avanzar(Duration duracion) { milis.addAndGet(duracion.toMillis()); }
+
+        @Override public ZoneId getZone() { return zona; }
+        @Override public Clock withZone(ZoneId otraZona) { return new RelojSimulado(milis, otraZona); }
+        @Override public long millis() { return milis.get(); }
+        @Override public Instant instant() { return Instant.ofEpochMilli(milis.get()); }
+    }
+
+    // --- Configuración ---
+    private final int usuariosIniciales;
+    private final int libros;
+    private final int hilos;
+    private final int dias;
+    private final long operaciones;
+    private final long semilla;
+    private final boolean disco;
+    private final Accion[] ruleta;    // 100 casillas repartidas según la mezcla: se elige una al azar.
+
+    // --- Sistema bajo prueba ---
+    private final RelojSimulado reloj = new RelojSimulado(Instant.parse("2026-01-12T12:00:00Z"));
+    private final RepositorioLibros catalogo = new RepositorioLibros();
+    private final RepositorioUsuarios usuarios = new RepositorioUsuarios();
+    private ServicioPrestamos servicio;
+    private PlanificadorVencimientos planificador;
+    private GestorSesiones sesiones;
+    private VistaDisponibilidad disponibilidad; // La bitácora debe coincidir con el estado de los objetos.
+    private String[] codigos;
+    private Path directorio;                    // Directorio del diario (solo con disco=true).
+
+    // --- Mediciones ---
+    private final Map<Accion, MetricasCirculacion.HistogramaLatencias> latencias = new EnumMap<>(Accion.class);
+    private final ConcurrentHashMap<String, LongAdder> resultados = new ConcurrentHashMap<>();
+    private final Map<String, Integer> violaciones = new TreeMap<>();           // Tipo -> veces (solo en la barrera).
+    private final Map<String, List<String>> ejemplos = new LinkedHashMap<>();   // Tipo -> primeros casos.
+    private final AtomicInteger siguienteRegistro = new AtomicInteger();        // Número del próximo usuario sintético.
+    private int comprobaciones;
+    private long sumidero; // Para que el JIT no descarte el trabajo de las consultas de estado.
+
+    SimuladorCarga(Map<String, String> opciones) {
+        usuariosIniciales = entero(opciones, "usuarios", 10_000);
+        libros = entero(opciones, "libros", 50_000);
+        hilos = entero(opciones, "hilos", Runtime.getRuntime().availableProcessors());
+        dias = entero(opciones, "dias", 30);
+        operaciones = Long.parseLong(opciones.getOrDefault("operaciones", "1000000"));
+        semilla = Long.parseLong(opciones.getOrDefault("semilla", "42"));
+        disco = Boolean.parseBoolean(opciones.getOrDefault("disco", "false"));
+        ruleta = leerMezcla(opciones.getOrDefault("mezcla", "login:20,prestamo:30,devolucion:25,estado:15,reserva:5,registro:5"));
+        for (Accion accion : Accion.values()) {
+            latencias.put(accion, new MetricasCirculacion.HistogramaLatencias());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opciones = new LinkedHashMap<>();
+        for (String arg : args) {
+            int igual = arg.indexOf('=');
+            if (igual <= 0) {
+                throw new IllegalArgumentException("Los parámetros van como clave=valor: " + arg);
+            }
+            opciones.put(arg.substring(0, igual).trim().toLowerCase(Locale.ROOT), arg.substring(igual + 1).trim());
+        }
+        // Cada registro cifra una clave: con las iteraciones de verdad se mediría sobre todo PBKDF2, no la circulación.
+        // Se fija antes de crear ningún usuario (ClaveCifrada la lee al cargarse).
+        System.setProperty("biblioteca.clave.iteraciones", opciones.getOrDefault("iteraciones", "100"));
+        SimuladorCarga simulador = new SimuladorCarga(opciones);
+        simulador.preparar();
+        long nanos = simulador.ejecutar();
+        simulador.informar(System.out, nanos);
+        System.exit(simulador.violaciones.isEmpty() ? 0 : 1);
+    }
+
+    // --- Preparación ---
+
+    // Crea el servicio sobre el reloj simulado, los libros y los usuarios sintéticos.
+    void preparar() throws IOException {
+        AlmacenPersistente almacen = null;
+        if (disco) {
+            directorio = Files.createTempDirectory("simulador-biblioteca");
+            almacen = new AlmacenPersistente(directorio, catalogo, usuarios);
+            almacen.recuperar(); // Directorio vacío: no hay nada que recuperar, pero deja el diario abierto.
+            System.out.println("Diario en " + directorio);
+        }
+        servicio = new ServicioPrestamos(catalogo, usuarios, almacen, reloj);
+        planificador = new PlanificadorVencimientos(servicio);
+        servicio.agregarOyente(planificador); // No se arranca su hilo: la simulación lo avanza al cambiar de día.
+        sesiones = new GestorSesiones(usuarios, reloj);
+        BitacoraCirculacion bitacora = new BitacoraCirculacion(catalogo, reloj);
+        servicio.agregarOyente(bitacora);
+        disponibilidad = bitacora.agregarVista(new VistaDisponibilidad());
+
+        codigos = new String[libros];
+        List<Libro> lote = new ArrayList<>(libros);
+        for (int i = 0; i < libros; i++) {
+            codigos[i] = String.format(Locale.ROOT, "SIM%07d", i);
+            lote.add(new Libro(codigos[i], "Título simulado " + i, "Autor " + (i % Math.max(1, libros / 20))));
+        }
+        servicio.agregarLibros(lote);
+        List<Usuario> nuevos = new ArrayList<>(usuariosIniciales);
+        for (int i = 0; i < usuariosIniciales; i++) {
+            nuevos.add(usuarioSintetico(siguienteRegistro.getAndIncrement()));
+        }
+        servicio.registrarUsuarios(nuevos);
+    }
+
+    private static Usuario usuarioSintetico(int n) {
+        return new Usuario("Usuario simulado " + n, "SIM-" + n, "01/01/2000", 20, "N/A", "sim" + n + "@test.com", "sim" + n, "clave" + n);
+    }
+
+    // --- Ejecución ---
+
+    // Lanza los hilos y espera a que terminen todos los días. Devuelve los nanosegundos que tardó.
+    long ejecutar() throws InterruptedException, IOException {
+        long porHiloYDia = Math.max(1, operaciones / ((long) hilos * dias));
+        // Al llegar todos a la barrera (todo quieto) pasa el día: avanza el reloj, el planificador y las comprobaciones.
+        CyclicBarrier finDeDia = new CyclicBarrier(hilos, () -> {
+            reloj.avanzar(Duration.ofDays(1));
+            planificador.avanzarHasta(servicio.hoy());
+            sesiones.retirarCaducadas();
+            comprobarInvariantes();
+        });
+        Thread[] trabajadores = new Thread[hilos];
+        long inicio = System.nanoTime();
+        for (int h = 0; h < hilos; h++) {
+            SplittableRandom azar = new SplittableRandom(semilla * 1_000_003L + h);
+            trabajadores[h] = new Thread(() -> {
+                try {
+                    for (int dia = 0; dia < dias; dia++) {
+                        for (long op = 0; op < porHiloYDia; op++) {
+                            operar(azar);
+                        }
+                        finDeDia.await();
+                    }
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "simulador-" + h);
+            trabajadores[h].start();
+        }
+        for (Thread t : trabajadores) {
+            t.join();
+        }
+        long nanos = System.nanoTime() - inicio;
+        servicio.cerrar();
+        if (disco) {
+            comprobarRecuperacion();
+        }
+        return nanos;
+    }
+
+    // Elige y hace una acción, midiendo cuánto tarda.
+    private void operar(SplittableRandom azar) {
+        Accion accion = ruleta[azar.nextInt(ruleta.length)];
+        Usuario usuario = usuarios.buscarPorNumero(azar.nextInt(usuarios.tamano()));
+        long inicio = System.nanoTime();
+        String resultado;
+        switch (accion) {
+            case LOGIN:
+                resultado = login(azar);
+                break;
+            case PRESTAMO:
+                resultado = servicio.prestar(usuario, codigos[libroPopular(azar)]).getTipo().name();
+                break;
+            case DEVOLUCION:
+                List<Prestamo> prestamos = usuario.getPrestamos();
+                resultado = (prestamos.isEmpty() ? servicio.devolver(usuario)
+                        : servicio.devolver(usuario, prestamos.get(azar.nextInt(prestamos.size())).getCodigoLibro())).getTipo().name();
+                break;
+            case ESTADO:
+                resultado = estado(usuario);
+                break;
+            case RESERVA:
+                resultado = servicio.reservar(usuario, codigos[libroPopular(azar)]).getTipo().name();
+                break;
+            default:
+                resultado = registro(azar);
+                break;
+        }
+        latencias.get(accion).registrar(System.nanoTime() - inicio);
+        resultados.computeIfAbsent(accion + " " + resultado, r -> new LongAdder()).increment();
+    }
+
+    // Los libros más bajos son mucho más pedidos que el resto (como los títulos de la bibliografía del semestre).
+    private int libroPopular(SplittableRandom azar) {
+        double u = azar.nextDouble();
+        return (int) (u * u * u * libros);
+    }
+
+    // Login de uno de los usuarios iniciales; uno de cada diez escribe mal la contraseña.
+    // Con la sesión abierta se usa el token una vez y la mitad de las veces se cierra; el resto debe caducar sola.
+    private String login(SplittableRandom azar) {
+        int n = azar.nextInt(usuariosIniciales);
+        boolean claveCorrecta = azar.nextInt(10) != 0;
+        GestorSesiones.Sesion sesion = sesiones.iniciar("sim" + n, claveCorrecta ? "clave" + n : "incorrecta");
+        if (claveCorrecta && sesion == null) {
+            violacionEnCurso("login correcto rechazado", "sim" + n);
+        } else if (!claveCorrecta && sesion != null) {
+            violacionEnCurso("login con clave incorrecta aceptado", "sim" + n);
+        }
+        if (sesion == null) {
+            return "RECHAZADO";
+        }
+        if (sesiones.usuarioDe(sesion.token) != sesion.usuario) {
+            violacionEnCurso("token recién creado no válido", "sim" + n);
+        }
+        if (azar.nextBoolean() && !sesiones.cerrar(sesion.token)) {
+            violacionEnCurso("no se pudo cerrar una sesión abierta", "sim" + n);
+        }
+        return "OK";
+    }
+
+    // Lo mismo que arma la ventana o /estado: veto al día, préstamos, reservas y últimos préstamos del historial.
+    private String estado(Usuario usuario) {
+        servicio.verificarVeto(usuario);
+        long suma = usuario.isEstaVetado() ? 1 : 0;
+        for (Prestamo p : usuario.getPrestamos()) {
+            suma += p.getFechaDevolucion().toEpochDay() + catalogo.posicionDe(p.getCodigoLibro());
+        }
+        for (String codigo : usuario.getReservas()) {
+            suma += servicio.puestoEnReserva(usuario, codigo);
+        }
+        long[] historial = new long[1];
+        usuarios.getHistorial().recorrer(usuario, 10, (registro, libro, inicio, vence, devolucion) -> historial[0] += libro + devolucion);
+        sumidero += suma + historial[0]; // Carrera benigna: solo sirve para que el trabajo no se elimine.
+        return usuario.isEstaVetado() ? "VETADO" : "ACTIVO";
+    }
+
+    // Registra un usuario nuevo; uno de cada veinte intentos repite un username que ya existe y debe rechazarse.
+    private String registro(SplittableRandom azar) {
+        if (azar.nextInt(20) == 0) {
+            int existente = azar.nextInt(usuariosIniciales);
+            if (servicio.registrarUsuario(usuarioSintetico(existente))) {
+                violacionEnCurso("registro duplicado aceptado", "sim" + existente);
+            }
+            return "DUPLICADO";
+        }
+        return servicio.registrarUsuario(usuarioSintetico(siguienteRegistro.getAndIncrement())) ? "REGISTRADO" : "RECHAZADO";
+    }
+
+    // --- Invariantes ---
+
+    // Violación detectada por un hilo durante el día (se junta con las de la barrera).
+    private void violacionEnCurso(String tipo, String caso) {
+        synchronized (violaciones) {
+            violacion(tipo, caso);
+        }
+    }
+
+    private void violacion(String tipo, String caso) {
+        violaciones.merge(tipo, 1, Integer::sum);
+        List<String> casos = ejemplos.computeIfAbsent(tipo, t -> new ArrayList<>());
+        if (casos.size() < EJEMPLOS_POR_VIOLACION) {
+            casos.add("día " + servicio.hoy() + ": " + caso);
+        }
+    }
+
+    // Recorre todos los usuarios y libros con los hilos parados y anota lo que no cuadre.
+    private void comprobarInvariantes() {
+        synchronized (violaciones) {
+            comprobaciones++;
+            LocalDate hoy = servicio.hoy();
+            if (sesiones.sesionesAbiertas() > 0) { // Todas se abrieron ayer o antes y caducan a los 30 minutos.
+                violacion("sesiones sin caducar tras un día", sesiones.sesionesAbiertas() + " abiertas");
+            }
+            int[] tenedor = new int[libros];
+            Arrays.fill(tenedor, -1);
+            for (Usuario u : usuarios.todos()) {
+                String quien = u.getUsername();
+                if (u.tieneLibroPrestado() != (u.getPrestamoActual() != null)) {
+                    violacion("tieneLibroPrestado sin prestamoActual (o al revés)", quien);
+                }
+                if (u.getNumeroPrestamos() > servicio.getMaxPrestamos()) {
+                    violacion("más préstamos que el límite", quien + " tiene " + u.getNumeroPrestamos());
+                }
+                if (u.isEstaVetado() && (u.getFechaFinVeto() == null || u.getFechaFinVeto().isBefore(hoy))) {
+                    violacion("veto caducado sin levantar", quien + " hasta " + u.getFechaFinVeto());
+                }
+                for (Prestamo p : u.getPrestamos()) {
+                    int posicion = catalogo.posicionDe(p.getCodigoLibro());
+                    if (posicion < 0) {
+                        violacion("préstamo de un libro que no existe", quien + " " + p.getCodigoLibro());
+                        continue;
+                    }
+                    if (tenedor[posicion] >= 0) {
+                        violacion("libro prestado dos veces", p.getCodigoLibro() + " a " + quien + " y al usuario " + tenedor[posicion]);
+                    }
+                    tenedor[posicion] = u.getNumero();
+                    if (p.getFechaDevolucion().isBefore(hoy) && !p.isVencido()) {
+                        violacion("préstamo vencido sin marcar", quien + " " + p.getCodigoLibro() + " vencía " + p.getFechaDevolucion());
+                    }
+                }
+                for (String codigo : u.getReservas()) {
+                    if (u.buscarPrestamo(codigo) != null) {
+                        violacion("reserva de un libro que ya tiene", quien + " " + codigo);
+                    }
+                    if (servicio.puestoEnReserva(u, codigo) == 0) {
+                        violacion("reserva fuera de la cola del libro", quien + " " + codigo);
+                    }
+                }
+            }
+            for (int i = 0; i < libros; i++) {
+                boolean prestado = catalogo.obtener(i).isEstaPrestado();
+                if (prestado != (tenedor[i] >= 0)) {
+                    violacion("estado del libro no coincide con los préstamos", codigos[i] + (prestado ? " marcado prestado sin dueño" : " libre pero prestado"));
+                }
+                if (!prestado && servicio.reservasPendientes(codigos[i]) > 0) {
+                    violacion("libro libre con reservas pendientes", codigos[i]);
+                }
+                if (disponibilidad.prestadoA(i) != (tenedor[i] >= 0 ? tenedor[i] : BitacoraCirculacion.SIN_DATO)) {
+                    violacion("la bitácora no coincide con los préstamos", codigos[i]);
+                }
+            }
+        }
+    }
+
+    // Abre el directorio del diario con repositorios nuevos (como un arranque) y comprueba que el estado recuperado
+    // es el mismo que el que quedó en memoria: libros prestados, préstamos, vetos y reservas de cada usuario e historial.
+    private void comprobarRecuperacion() throws IOException {
+        RepositorioLibros catalogoRecuperado = new RepositorioLibros();
+        RepositorioUsuarios usuariosRecuperados = new RepositorioUsuarios();
+        AlmacenPersistente almacen = new AlmacenPersistente(directorio, catalogoRecuperado, usuariosRecuperados);
+        almacen.recuperar();
+        almacen.cerrar();
+        synchronized (violaciones) {
+            comprobaciones++;
+            if (catalogoRecuperado.tamano() != catalogo.tamano()) {
+                violacion("libros recuperados distintos", catalogoRecuperado.tamano() + " de " + catalogo.tamano());
+            }
+            for (int i = 0; i < Math.min(catalogo.tamano(), catalogoRecuperado.tamano()); i++) {
+                Libro libro = catalogo.obtener(i), recuperado = catalogoRecuperado.obtener(i);
+                if (!libro.getCodigo().equals(recuperado.getCodigo()) || libro.isEstaPrestado() != recuperado.isEstaPrestado()) {
+                    violacion("libro recuperado distinto", libro.getCodigo());
+                }
+            }
+            if (usuariosRecuperados.tamano() != usuarios.tamano()) {
+                violacion("usuarios recuperados distintos", usuariosRecuperados.tamano() + " de " + usuarios.tamano());
+            }
+            for (Usuario u : usuarios.todos()) {
+                Usuario recuperado = usuariosRecuperados.buscarPorUsername(u.getUsername());
+                if (recuperado == null || !huella(u, usuarios).equals(huella(recuperado, usuariosRecuperados))) {
+                    violacion("usuario recuperado distinto", u.getUsername());
+                }
+            }
+            if (usuariosRecuperados.getHistorial().tamano() != usuarios.getHistorial().tamano()) {
+                violacion("historial recuperado distinto", usuariosRecuperados.getHistorial().tamano() + " de " + usuarios.getHistorial().tamano());
+            }
+        }
+    }
+
+    // Lo que se guarda de un usuario y cambia con la circulación, en una cadena que se puede comparar. Las reservas
+    // van por código con su puesto en la cola del libro: lo que cuenta es ese orden, no en cuál reservó antes.
+    private static String huella(Usuario u, RepositorioUsuarios repositorio) {
+        StringBuilder huella = new StringBuilder().append(u.isEstaVetado()).append(' ').append(u.getFechaFinVeto());
+        for (Prestamo p : u.getPrestamos()) {
+            huella.append(' ').append(p.getCodigoLibro()).append('/').append(p.getFechaDevolucion()).append('/').append(p.isVencido());
+        }
+        String[] reservas = u.getReservas().toArray(new String[0]);
+        Arrays.sort(reservas);
+        for (String codigo : reservas) {
+            huella.append(' ').append(codigo).append('#').append(repositorio.getReservas().puestoDe(codigo, u));
+        }
+        return huella.toString();
+    }
+
+    // --- Informe ---
+
+    void informar(PrintStream salida, long nanos) {
+        long total = 0;
+        for (MetricasCirculacion.HistogramaLatencias h : latencias.values()) {
+            total += h.cuenta();
+        }
+        salida.printf(Locale.ROOT, "Simulación: %d usuarios iniciales, %d libros, %d hilos, %d días, semilla %d%s%n",
+                usuariosIniciales, libros, hilos, dias, semilla, disco ? ", con diario en disco" : "");
+        salida.printf(Locale.ROOT, "%d operaciones en %.2f s  ->  %.0f op/s%n%n", total, nanos / 1e9, total / (nanos / 1e9));
+
+        salida.printf(Locale.ROOT, "%-12s %10s %10s %10s %10s %10s%n", "accion", "cuenta", "p50 (us)", "p99 (us)", "p999 (us)", "max (us)");
+        for (Map.Entry<Accion, MetricasCirculacion.HistogramaLatencias> e : latencias.entrySet()) {
+            MetricasCirculacion.HistogramaLatencias h = e.getValue();
+            if (h.cuenta() > 0) {
+                salida.printf(Locale.ROOT, "%-12s %10d %10.1f %10.1f %10.1f %10.1f%n", e.getKey(), h.cuenta(),
+                        h.percentil(0.5) / 1e3, h.percentil(0.99) / 1e3, h.percentil(0.999) / 1e3, h.maximo() / 1e3);
+            }
+        }
+
+        salida.println("\nResultados:");
+        new TreeMap<>(resultados).forEach((resultado, veces) -> salida.printf(Locale.ROOT, "  %-40s %10d%n", resultado, veces.sum()));
+
+        int activos = 0, vetados = 0, vencidos = 0, reservas = 0;
+        for (Usuario u : usuarios.todos()) {
+            activos += u.getNumeroPrestamos();
+            vetados += u.isEstaVetado() ? 1 : 0;
+            reservas += u.getReservas().size();
+            for (Prestamo p : u.getPrestamos()) {
+                vencidos += p.isVencido() ? 1 : 0;
+            }
+        }
+        salida.printf(Locale.ROOT, "%nAl final (%s): %d usuarios, %d préstamos activos (%d vencidos), %d vetados, %d reservas, %d préstamos en el historial%n",
+                servicio.hoy(), usuarios.tamano(), activos, vencidos, vetados, reservas, usuarios.getHistorial().tamano());
+        salida.printf(Locale.ROOT, "Credenciales verificadas en caché: %d%n", sesiones.getCredenciales().tamano());
+
+        salida.printf(Locale.ROOT, "%nInvariantes: %d comprobaciones, %s%n", comprobaciones,
+                violaciones.isEmpty() ? "sin violaciones" : violaciones.values().stream().mapToInt(Integer::intValue).sum() + " violaciones");
+        for (Map.Entry<String, Integer> e : violaciones.entrySet()) {
+            salida.printf(Locale.ROOT, "  %-50s %d%n", e.getKey(), e.getValue());
+            for (String caso : ejemplos.get(e.getKey())) {
+                salida.println("      " + caso);
+            }
+        }
+        salida.println("(sumidero " + sumidero + ")");
+    }
+
+    // --- Lectura de opciones ---
+
+    private static int entero(Map<String, String> opciones, String clave, int porDefecto) {
+        return opciones.containsKey(clave) ? Integer.parseInt(opciones.get(clave)) : porDefecto;
+    }
+
+    // "login:20,prestamo:30,..." -> 100 casillas (o las que sumen los pesos) con cada acción repetida según su peso.
+    private static Accion[] leerMezcla(String texto) {
+        List<Accion> casillas = new ArrayList<>();
+        for (String parte : texto.split(",")) {
+            String[] nombreYPeso = parte.trim().split(":");
+            Accion accion = Accion.valueOf(nombreYPeso[0].trim().toUpperCase(Locale.ROOT));
+            int peso = nombreYPeso.length > 1 ? Integer.parseInt(nombreYPeso[1].trim()) : 1;
+            for (int i = 0; i < peso; i++) {
+                casillas.add(accion);
+            }
+        }
+        if (casillas.isEmpty()) {
+            throw new IllegalArgumentException("La mezcla no tiene ninguna acción: " + texto);
+        }
+        return casillas.toArray(new Accion[0]);
+    }
+}
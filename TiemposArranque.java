@@ -0,0 +1,65 @@
+// Importamos el reloj de la JVM (tiempo desde que arrancó el proceso) y las colecciones del informe.
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * =================================================================================
+ * TIEMPOS DE ARRANQUE
+ * Anota cuándo termina cada fase del arranque (ventana visible, datos cargados,
+ * panel principal, índices...) en milisegundos desde que arrancó la JVM, así que
+ * incluye también la carga de clases. La ventana debe verse antes de un
+ * presupuesto fijo; si no, se avisa por la salida de errores con el desglose de
+ * fases para saber cuál se ha alargado.
+ *
+ * Propiedades:
+ *   -Dbiblioteca.arranque.presupuesto.ms=500  presupuesto para ver la ventana.
+ *   -Dbiblioteca.arranque.informe=true        imprime el desglose en cada arranque.
+ *   -Dbiblioteca.arranque.entrenar=true       arranca del todo, imprime el desglose y
+ *                                             sale; con -XX:ArchiveClassesAtExit=...
+ *                                             deja un archivo CDS para los siguientes.
+ * =================================================================================
+ */
+
+// --- Clase TiemposArranque: Fases del arranque medidas desde el inicio de la JVM. ---
+class TiemposArranque {
+    static final long PRESUPUESTO_MS = Long.getLong("biblioteca.arranque.presupuesto.ms", 500);
+    static final boolean ENTRENAR = Boolean.getBoolean("biblioteca.arranque.entrenar");
+
+    private final Map<String, Long> fases = new LinkedHashMap<>(); // Fase -> milisegundos desde el inicio de la JVM.
+    private final boolean informeSiempre = Boolean.getBoolean("biblioteca.arranque.informe") || ENTRENAR;
+
+    // Anota que una fase acaba de terminar. Se puede llamar desde cualquier hilo.
+    public synchronized long marcar(String fase) {
+        long ms = ManagementFactory.getRuntimeMXBean().getUptime();
+        fases.putIfAbsent(fase, ms); // Solo cuenta la primera vez (por ejemplo, el primer panel principal).
+        return ms;
+    }
+
+    // Anota una fase que tiene presupuesto: si se pasa, avisa por la salida de errores con el desglose.
+    public void marcarConPresupuesto(String fase) {
+        long ms = marcar(fase);
+        if (ms > PRESUPUESTO_MS) {
+            System.err.println("Arranque lento: \"" + fase + "\" a los " + ms + " ms (presupuesto " + PRESUPUESTO_MS + " ms).");
+            System.err.print(informe());
+        }
+    }
+
+    // Imprime el desglose si se pidió con -Dbiblioteca.arranque.informe=true (o es un arranque de entrenamiento).
+    public void imprimirSiSePidio() {
+        if (informeSiempre) {
+            System.out.print(informe());
+        }
+    }
+
+    // Una línea por fase: el momento en que terminó y lo que tardó desde la anterior.
+    public synchronized String informe() {
+        StringBuilder texto = new StringBuilder("Fases del arranque (ms desde el inicio de la JVM):\n");
+        long anterior = 0;
+        for (Map.Entry<String, Long> fase : fases.entrySet()) {
+            texto.append(String.format("  %-22s %6d  (+%d)%n", fase.getKey(), fase.getValue(), fase.getValue() - anterior));
+            anterior = fase.getValue();
+        }
+        return texto.toString();
+    }
+}
@@ -0,0 +1,360 @@
+// Importamos las colecciones concurrentes: las vistas se escriben desde la bitácora y se leen desde cualquier hilo.
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntFunction;
+
+/*
+ * =================================================================================
+ * VISTAS DE LA CIRCULACIÓN
+ * Estado actual derivado de la bitácora de eventos. Cada vista recibe los eventos
+ * de uno en uno y actualiza su índice en O(1) (o O(log n) la de vencimientos), así
+ * que nunca hace falta recorrer todos los usuarios para responder:
+ *
+ *   VistaDisponibilidad     qué libros están prestados y a quién.
+ *   VistaPrestamosActivos   qué libros tiene cada usuario.
+ *   VistaVencimientos       préstamos activos ordenados por fecha límite (los vencidos salen primero).
+ *   VistaPopularidad        cuántas veces se ha prestado cada libro y cada autor, por mes y en total.
+ *
+ * Suscritas a la bitácora, reciben cada evento desde el hilo que lo anota, sin un
+ * cerrojo común: los de un mismo libro o usuario llegan en orden, pero los de
+ * otros pueden llegar a la vez, así que cada vista admite varios escritores. Se
+ * leen sin cerrojos. Creadas a mano y pasadas a BitacoraCirculacion.reconstruir(),
+ * muestran el estado en un momento del pasado.
+ * Libros y usuarios van por posición en el catálogo y número interno, como en el
+ * historial de préstamos.
+ * =================================================================================
+ */
+
+// --- Clase VistaDisponibilidad: Libro prestado -> usuario que lo tiene. ---
+class VistaDisponibilidad implements BitacoraCirculacion.Vista {
+    private final ConcurrentHashMap<Integer, Integer> prestadoA = new ConcurrentHashMap<>(); // Solo libros prestados.
+
+    @Override
+    public void aplicar(long secuencia, BitacoraCirculacion.Tipo tipo, int libro, int usuario, int dia, int extra) {
+        if (tipo == BitacoraCirculacion.Tipo.PRESTAMO_ABIERTO) {
+            prestadoA.put(libro, usuario);
+        } else if (tipo == BitacoraCirculacion.Tipo.PRESTAMO_CERRADO) {
+            prestadoA.remove(libro, usuario);
+        }
+    }
+
+    public boolean estaPrestado(int libro) { return prestadoA.containsKey(libro); }
+
+    // Número del usuario que tiene el libro, o BitacoraCirculacion.SIN_DATO si está disponible.
+    public int prestadoA(int libro) { return prestadoA.getOrDefault(libro, BitacoraCirculacion.SIN_DATO); }
+
+    // Número de libros prestados ahora mismo.
+    public int prestados() { return prestadoA.size(); }
+}
+
+// --- Clase VistaPrestamosActivos: Usuario -> posiciones de los libros que tiene. ---
+class VistaPrestamosActivos implements BitacoraCirculacion.Vista {
+    private static final int[] NINGUNO = new int[0];
+
+    // Los arrays no se modifican nunca: cada cambio pone uno nuevo (son de 1 a 3 libros), así que leerlos no necesita cerrojo.
+    private final ConcurrentHashMap<Integer, int[]> librosDe = new ConcurrentHashMap<>();
+
+    @Override
+    public void aplicar(long secuencia, BitacoraCirculacion.Tipo tipo, int libro, int usuario, int dia, int extra) {
+        if (tipo == BitacoraCirculacion.Tipo.PRESTAMO_ABIERTO) {
+            int[] antes = librosDe.getOrDefault(usuario, NINGUNO);
+            int[] despues = Arrays.copyOf(antes, antes.length + 1);
+            despues[antes.length] = libro;
+            librosDe.put(usuario, despues);
+        } else if (tipo == BitacoraCirculacion.Tipo.PRESTAMO_CERRADO) {
+            int[] antes = librosDe.get(usuario);
+            if (antes == null) {
+                return;
+            }
+            int i = 0;
+            while (i < antes.length && antes[i] != libro) {
+                i++;
+            }
+            if (i == antes.length) {
+                return;
+            }
+            if (antes.length == 1) {
+                librosDe.remove(usuario); // Solo ocupan memoria los usuarios con préstamos.
+                return;
+            }
+            int[] despues = new int[antes.length - 1];
+            System.arraycopy(antes, 0, despues, 0, i);
+            System.arraycopy(antes, i + 1, despues, i, antes.length - i - 1);
+            librosDe.put(usuario, despues);
+        }
+    }
+
+    // Posiciones de los libros que tiene un usuario, en el orden en que se los llevó (no se debe modificar).
+    public int[] librosDe(int usuario) { return librosDe.getOrDefault(usuario, NINGUNO); }
+
+    // Número de usuarios con al menos un libro.
+    public int usuariosConPrestamos() { return librosDe.size(); }
+}
+
+// --- Clase VistaVencimientos: Préstamos activos ordenados por fecha límite. ---
+class VistaVencimientos implements BitacoraCirculacion.Vista {
+    // Lo que recibe quien recorre los vencimientos: un préstamo cada vez, sin crear objetos.
+    @FunctionalInterface
+    interface Visitante {
+        void visitar(int vence, int libro, int usuario);
+    }
+
+    // Un préstamo activo, ordenado por fecha límite (y después por usuario y libro, para que no haya empates).
+    private static final class Vencimiento implements Comparable<Vencimiento> {
+        final int vence, usuario, libro;
+
+        Vencimiento(int vence, int usuario, int libro) {
+            this.vence = vence;
+            this.usuario = usuario;
+            this.libro = libro;
+        }
+
+        @Override
+        public int compareTo(Vencimiento otro) {
+            int c = Integer.compare(vence, otro.vence);
+            if (c == 0) {
+                c = Integer.compare(usuario, otro.usuario);
+            }
+            return c != 0 ? c : Integer.compare(libro, otro.libro);
+        }
+    }
+
+    // Préstamos activos por fecha límite, y cuántos vencen cada día (para contar sin recorrerlos). Varios eventos
+    // pueden llegar a la vez: el conjunto admite altas y bajas simultáneas, y las cuentas son enteros que se
+    // sustituyen de forma atómica (un día sin préstamos desaparece sin perder un alta que llegue a la vez).
+    private final ConcurrentSkipListSet<Vencimiento> activos = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListMap<Integer, Integer> porDia = new ConcurrentSkipListMap<>();
+
+    @Override
+    public void aplicar(long secuencia, BitacoraCirculacion.Tipo tipo, int libro, int usuario, int dia, int extra) {
+        if (tipo == BitacoraCirculacion.Tipo.PRESTAMO_ABIERTO) {
+            if (activos.add(new Vencimiento(extra, usuario, libro))) {
+                porDia.merge(extra, 1, Integer::sum);
+            }
+        } else if (tipo == BitacoraCirculacion.Tipo.PRESTAMO_CERRADO) {
+            if (activos.remove(new Vencimiento(extra, usuario, libro))) {
+                porDia.computeIfPresent(extra, (d, cuantos) -> cuantos == 1 ? null : cuantos - 1);
+            }
+        }
+    }
+
+    // Recorre los préstamos vencidos en un día dado (fecha límite anterior a "dia"), del más antiguo al más reciente.
+    // Solo se tocan los préstamos vencidos, no todos. Devuelve cuántos visitó (como mucho "limite").
+    public int recorrerVencidos(int dia, int limite, Visitante visitante) {
+        int visitados = 0;
+        for (Vencimiento v : activos.headSet(new Vencimiento(dia, Integer.MIN_VALUE, Integer.MIN_VALUE))) {
+            if (visitados == limite) {
+                break;
+            }
+            visitante.visitar(v.vence, v.libro, v.usuario);
+            visitados++;
+        }
+        return visitados;
+    }
+
+    // Número de préstamos vencidos en un día dado.
+    public int vencidos(int dia) {
+        int cuantos = 0;
+        for (int delDia : porDia.headMap(dia, false).values()) {
+            cuantos += delDia;
+        }
+        return cuantos;
+    }
+
+    // Fecha límite más próxima entre los préstamos activos, o BitacoraCirculacion.SIN_DATO si no hay ninguno.
+    public int proximoVencimiento() {
+        Map.Entry<Integer, Integer> primera = porDia.firstEntry();
+        return primera == null ? BitacoraCirculacion.SIN_DATO : primera.getKey();
+    }
+}
+
+// --- Clase VistaPopularidad: Préstamos por libro y por autor, por mes y en total. ---
+class VistaPopularidad implements BitacoraCirculacion.Vista {
+    // Un par (libro o autor, veces prestado) de un informe.
+    static final class Puesto {
+        final String nombre;
+        final long prestamos;
+
+        Puesto(String nombre, long prestamos) {
+            this.nombre = nombre;
+            this.prestamos = prestamos;
+        }
+
+        @Override
+        public String toString() { return nombre + " (" + prestamos + ")"; }
+    }
+
+    // Enteros indexados por número (posición de libro o número de autor) en bloques de 1024 que se crean al
+    // usarse por primera vez. Los bloques no se copian nunca al crecer (solo el array que los apunta), así que
+    // un incremento simultáneo no se pierde. Sin un objeto por libro ni por autor.
+    private static final class Contadores {
+        private static final int BITS_BLOQUE = 10;
+        private static final int TAM_BLOQUE = 1 << BITS_BLOQUE;
+
+        private volatile AtomicIntegerArray[] bloques = new AtomicIntegerArray[0];
+
+        int valor(int i) {
+            AtomicIntegerArray[] actuales = bloques;
+            int b = i >>> BITS_BLOQUE;
+            return b < actuales.length && actuales[b] != null ? actuales[b].get(i & (TAM_BLOQUE - 1)) : 0;
+        }
+
+        void sumar(int i) { bloque(i >>> BITS_BLOQUE).incrementAndGet(i & (TAM_BLOQUE - 1)); }
+
+        void poner(int i, int valor) { bloque(i >>> BITS_BLOQUE).set(i & (TAM_BLOQUE - 1), valor); }
+
+        private AtomicIntegerArray bloque(int b) {
+            AtomicIntegerArray[] actuales = bloques;
+            return b < actuales.length && actuales[b] != null ? actuales[b] : crear(b);
+        }
+
+        private synchronized AtomicIntegerArray crear(int b) {
+            AtomicIntegerArray[] actuales = bloques;
+            if (b >= actuales.length) {
+                actuales = Arrays.copyOf(actuales, Math.max(b + 1, actuales.length * 2));
+            } else if (actuales[b] != null) {
+                return actuales[b];
+            } else {
+                actuales = actuales.clone();
+            }
+            actuales[b] = new AtomicIntegerArray(TAM_BLOQUE);
+            bloques = actuales;
+            return actuales[b];
+        }
+
+        // Pasa a "visitante" cada número con un valor distinto de 0.
+        void recorrer(Visitante visitante) {
+            AtomicIntegerArray[] actuales = bloques;
+            for (int b = 0; b < actuales.length; b++) {
+                if (actuales[b] == null) {
+                    continue;
+                }
+                for (int i = 0; i < TAM_BLOQUE; i++) {
+                    int valor = actuales[b].get(i);
+                    if (valor != 0) {
+                        visitante.visitar((b << BITS_BLOQUE) + i, valor);
+                    }
+                }
+            }
+        }
+
+        @FunctionalInterface
+        interface Visitante {
+            void visitar(int numero, int valor);
+        }
+    }
+
+    // Contadores de un periodo: préstamos por posición de libro y por número de autor.
+    private static final class Periodo {
+        final Contadores porLibro = new Contadores();
+        final Contadores porAutor = new Contadores();
+    }
+
+    private final CatalogoLibros catalogo; // Para saber el autor de cada libro (una sola vez por libro).
+    private final Contadores autorDe = new Contadores(); // Posición del libro -> número de su autor + 1 (0: aún no se ha mirado).
+    private final HashMap<String, Integer> numeroDeAutor = new HashMap<>(); // Con el cerrojo de la vista.
+    private volatile String[] nombresAutores = new String[16];              // Número de autor -> nombre.
+    private int autores;                                                     // Autores con número (con el cerrojo de la vista).
+    private final Periodo total = new Periodo();
+    private final ConcurrentHashMap<YearMonth, Periodo> porMes = new ConcurrentHashMap<>();
+
+    public VistaPopularidad(CatalogoLibros catalogo) {
+        this.catalogo = catalogo;
+    }
+
+    @Override
+    public void aplicar(long secuencia, BitacoraCirculacion.Tipo tipo, int libro, int usuario, int dia, int extra) {
+        if (tipo != BitacoraCirculacion.Tipo.PRESTAMO_ABIERTO || libro < 0) {
+            return;
+        }
+        int autor = autor(libro);
+        Periodo mes = porMes.computeIfAbsent(YearMonth.from(LocalDate.ofEpochDay(dia)), m -> new Periodo());
+        contar(total, libro, autor);
+        contar(mes, libro, autor);
+    }
+
+    private static void contar(Periodo periodo, int libro, int autor) {
+        periodo.porLibro.sumar(libro);
+        periodo.porAutor.sumar(autor);
+    }
+
+    // Número del autor de un libro. El catálogo solo se consulta la primera vez que se presta cada libro.
+    private int autor(int libro) {
+        int guardado = autorDe.valor(libro);
+        if (guardado != 0) {
+            return guardado - 1;
+        }
+        int numero = numerar(catalogo.autorDe(libro));
+        autorDe.poner(libro, numero + 1);
+        return numero;
+    }
+
+    // Da un número a cada autor distinto (el mismo para todos sus libros).
+    private synchronized int numerar(String autor) {
+        Integer numero = numeroDeAutor.get(autor);
+        if (numero != null) {
+            return numero;
+        }
+        if (autores == nombresAutores.length) {
+            nombresAutores = Arrays.copyOf(nombresAutores, autores * 2);
+        }
+        nombresAutores[autores] = autor;
+        numeroDeAutor.put(autor, autores);
+        return autores++;
+    }
+
+    // Veces que se ha prestado un libro (en un mes, o en total si mes es null).
+    public long prestamosDeLibro(int libro, YearMonth mes) {
+        Periodo periodo = periodo(mes);
+        return periodo == null ? 0 : periodo.porLibro.valor(libro);
+    }
+
+    // Los "n" libros más prestados (en un mes, o en total si mes es null), de más a menos; el nombre es el código.
+    public List<Puesto> librosMasPrestados(YearMonth mes, int n) {
+        Periodo periodo = periodo(mes);
+        return periodo == null ? new ArrayList<>() : mejores(periodo.porLibro, n, libro -> catalogo.obtener(libro).getCodigo());
+    }
+
+    // Los "n" autores más prestados (en un mes, o en total si mes es null), de más a menos.
+    public List<Puesto> autoresMasPrestados(YearMonth mes, int n) {
+        Periodo periodo = periodo(mes);
+        String[] nombres = nombresAutores;
+        return periodo == null ? new ArrayList<>() : mejores(periodo.porAutor, n, autor -> nombres[autor]);
+    }
+
+    private Periodo periodo(YearMonth mes) { return mes == null ? total : porMes.get(mes); }
+
+    // Elige los "n" mayores con un monticulo de tamaño n: O(k log n) sobre los k libros o autores del periodo,
+    // sin ordenar todos. Cada candidato va empaquetado como (veces << 32 | número); los nombres solo se buscan
+    // para los elegidos.
+    private static List<Puesto> mejores(Contadores contadores, int n, IntFunction<String> nombre) {
+        PriorityQueue<Long> monticulo = new PriorityQueue<>(Math.max(1, n));
+        contadores.recorrer((numero, veces) -> {
+            long candidato = ((long) veces << 32) | numero;
+            if (monticulo.size() < n) {
+                monticulo.add(candidato);
+            } else if (n > 0 && candidato > monticulo.peek()) {
+                monticulo.poll();
+                monticulo.add(candidato);
+            }
+        });
+        List<Puesto> puestos = new ArrayList<>(monticulo.size());
+        while (!monticulo.isEmpty()) {
+            long elegido = monticulo.poll();
+            puestos.add(new Puesto(nombre.apply((int) elegido), elegido >>> 32));
+        }
+        Collections.reverse(puestos);
+        return puestos;
+    }
+}